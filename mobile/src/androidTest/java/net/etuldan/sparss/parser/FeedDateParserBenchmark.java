@@ -0,0 +1,117 @@
+package net.etuldan.sparss.parser;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link FeedDateParser} with the SimpleDateFormat chain which was used before, on the date shapes found in the feeds. Both
+ * must give the same dates when the SimpleDateFormat chain accepts them, the timings are logged under the "FeedDateParserBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedDateParserBenchmark {
+    private static final String TAG = "FeedDateParserBenchmark";
+
+    private static final int ITERATIONS = 20000;
+    private static final int RUNS = 5;
+
+    // The date shapes of FeedDateParserTest, but "Tue, 05 Apr 016 10:32:00 +0000" whose year the SimpleDateFormat chain reads as 16
+    private static final String[] DATES = {
+            "Tue, 05 Apr 2016 10:32:00 +0000",
+            "Tue, 05 Apr 2016 12:32:00 +0200",
+            "Tue, 5 Apr 2016 10:32:00 GMT",
+            "Tue, 05 Apr 2016 06:32:00 EDT",
+            "05 Apr 16 10:32:00 UT",
+            "Tuesday, 05-Apr-2016 12:32:00 MEST",
+            "2016-04-05T10:32:00Z",
+            "2016-04-05T12:32:00+02:00",
+            "2016-04-05T12:32:00+0200",
+            "2016-04-05T05:32:00.000-05:00",
+            "2016-04-05 10:32:00",
+    };
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void sameDatesAsSimpleDateFormat() {
+        SimpleDateFormat[] formats = {
+                new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US),
+                new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US),
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US),
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US)
+        };
+        FeedDateParser parser = new FeedDateParser();
+
+        // Only the dates accepted by the SimpleDateFormat chain are compared
+        boolean[] isAccepted = new boolean[DATES.length];
+        for (int i = 0; i < DATES.length; i++) {
+            isAccepted[i] = parse(formats, DATES[i]) != FeedDateParser.INVALID_DATE;
+        }
+
+        long simpleDateFormatTime = Long.MAX_VALUE;
+        long feedDateParserTime = Long.MAX_VALUE;
+        long simpleDateFormatChecksum = 0;
+        long feedDateParserChecksum = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            simpleDateFormatChecksum = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (int j = 0; j < DATES.length; j++) {
+                    if (isAccepted[j]) {
+                        simpleDateFormatChecksum += parse(formats, DATES[j]);
+                    }
+                }
+            }
+            simpleDateFormatTime = Math.min(simpleDateFormatTime, System.nanoTime() - start);
+
+            feedDateParserChecksum = 0;
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                for (int j = 0; j < DATES.length; j++) {
+                    if (isAccepted[j]) {
+                        feedDateParserChecksum += parser.parse(DATES[j]);
+                    }
+                }
+            }
+            feedDateParserTime = Math.min(feedDateParserTime, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, ITERATIONS + " x " + DATES.length + " dates: SimpleDateFormat " + simpleDateFormatTime / 1000000 + " ms, FeedDateParser "
+                + feedDateParserTime / 1000000 + " ms");
+
+        assertEquals(simpleDateFormatChecksum, feedDateParserChecksum);
+    }
+
+    private static long parse(SimpleDateFormat[] formats, String date) {
+        for (SimpleDateFormat format : formats) {
+            try {
+                return format.parse(date).getTime();
+            } catch (ParseException ignored) {
+            }
+        }
+        return FeedDateParser.INVALID_DATE;
+    }
+}
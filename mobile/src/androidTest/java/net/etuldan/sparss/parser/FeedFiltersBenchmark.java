@@ -0,0 +1,105 @@
+package net.etuldan.sparss.parser;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the compiled {@link FeedFilters} with the rules applied one by one as before, on 40 keyword rules and long contents. Both
+ * must filter the same entries, the timings are logged under the "FeedFiltersBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedFiltersBenchmark {
+    private static final String TAG = "FeedFiltersBenchmark";
+
+    private static final int RULE_COUNT = 40;
+    private static final int ENTRY_COUNT = 1000;
+    private static final int RUNS = 5;
+
+    @Test
+    public void sameResultsAsSequentialRules() {
+        Random random = new Random(42);
+        ArrayList<FeedFilters.Rule> rules = new ArrayList<>();
+        for (int i = 0; i < RULE_COUNT; i++) {
+            rules.add(new FeedFilters.Rule(randomText(random, 6, 26), false, false, false));
+        }
+        FeedFilters filters = new FeedFilters(rules);
+
+        // One entry out of four contains a keyword
+        String[] contents = new String[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            String content = randomText(random, 5000, 26);
+            if (i % 4 == 0) {
+                int position = random.nextInt(content.length());
+                content = content.substring(0, position) + rules.get(random.nextInt(RULE_COUNT)).filterText + content.substring(position);
+            }
+            contents[i] = content;
+        }
+
+        long rulesTime = Long.MAX_VALUE;
+        long filtersTime = Long.MAX_VALUE;
+        boolean[] rulesResults = new boolean[ENTRY_COUNT];
+        boolean[] filtersResults = new boolean[ENTRY_COUNT];
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                rulesResults[i] = isEntryFiltered(rules, "title", contents[i]);
+            }
+            rulesTime = Math.min(rulesTime, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < ENTRY_COUNT; i++) {
+                filtersResults[i] = filters.isEntryFiltered("title", contents[i]);
+            }
+            filtersTime = Math.min(filtersTime, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, ENTRY_COUNT + " entries, " + RULE_COUNT + " rules: one by one " + rulesTime / 1000000 + " ms, FeedFilters "
+                + filtersTime / 1000000 + " ms");
+
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            assertEquals("entry " + i, rulesResults[i], filtersResults[i]);
+        }
+    }
+
+    private static String randomText(Random random, int length, int letters) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(letters));
+        }
+        return new String(chars);
+    }
+
+    // The rules applied one by one, as before the filters were compiled
+    private static boolean isEntryFiltered(ArrayList<FeedFilters.Rule> rules, String title, String content) {
+        boolean isFiltered = false;
+        for (FeedFilters.Rule r : rules) {
+            boolean isMatch;
+            if (r.isRegex) {
+                String text = r.isAppliedToTitle ? title : content;
+                isMatch = text != null && Pattern.compile(r.filterText).matcher(text).find();
+            } else {
+                isMatch = (r.isAppliedToTitle && title.contains(r.filterText)) || (!r.isAppliedToTitle && content != null
+                        && content.contains(r.filterText));
+            }
+
+            if (r.isAcceptRule) {
+                if (isMatch) {
+                    return false;
+                }
+            } else if (isMatch) {
+                isFiltered = true;
+            }
+        }
+        return isFiltered;
+    }
+}
@@ -0,0 +1,256 @@
+package net.etuldan.sparss.parser;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.Xml;
+
+import net.etuldan.sparss.Constants;
+import net.etuldan.sparss.MainApplication;
+import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.FeedColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Compares the SAX and the pull engines of {@link RssAtomParser} on large feeds shaped like the real ones (html descriptions,
+ * content:encoded, media elements, enclosures...). Both must give the same entries, the timings are logged under the
+ * "FeedParsersBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FeedParsersBenchmark {
+    private static final String TAG = "FeedParsersBenchmark";
+
+    private static final int ENTRY_COUNT = 500;
+    private static final int RUNS = 5;
+    private static final long HOUR = 3600000;
+
+    private ContentResolver mContentResolver;
+    private String mFeedId;
+    private long mNewestEntryDate;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        MainApplication.setContext(context);
+        mContentResolver = context.getContentResolver();
+
+        ContentValues values = new ContentValues();
+        values.put(FeedColumns.URL, "http://benchmark.invalid/" + System.currentTimeMillis());
+        values.put(FeedColumns.NAME, TAG);
+        mFeedId = mContentResolver.insert(FeedColumns.CONTENT_URI, values).getLastPathSegment();
+
+        mNewestEntryDate = (System.currentTimeMillis() - HOUR) / 1000 * 1000; // the dates have a one second precision
+    }
+
+    @After
+    public void tearDown() {
+        mContentResolver.delete(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(mFeedId), null, null);
+        mContentResolver.delete(FeedColumns.CONTENT_URI(mFeedId), null, null);
+    }
+
+    @Test
+    public void rss() throws Exception {
+        compareParsers("RSS", generateRss());
+    }
+
+    @Test
+    public void atom() throws Exception {
+        compareParsers("Atom", generateAtom());
+    }
+
+    @Test
+    public void pullParserStopsReadingAtKnownEntries() throws Exception {
+        byte[] feed = generateRss();
+
+        CountingInputStream inputStream = new CountingInputStream(new ByteArrayInputStream(feed));
+        new RssAtomParser(new Date(mNewestEntryDate), 0, mFeedId, null, TAG, "http://benchmark.invalid/", false).parse(inputStream, Constants.UTF8);
+
+        assertThat(inputStream.mReadCount, lessThan(feed.length / 10));
+    }
+
+    private void compareParsers(String format, byte[] feed) throws Exception {
+        long saxTime = Long.MAX_VALUE;
+        long pullTime = Long.MAX_VALUE;
+        ArrayList<String> saxEntries = null;
+        ArrayList<String> pullEntries = null;
+
+        for (int i = 0; i < RUNS; i++) {
+            mContentResolver.delete(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(mFeedId), null, null);
+            long start = System.nanoTime();
+            Xml.parse(new ByteArrayInputStream(feed), Xml.Encoding.UTF_8, newParser());
+            saxTime = Math.min(saxTime, System.nanoTime() - start);
+            saxEntries = getEntries();
+
+            mContentResolver.delete(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(mFeedId), null, null);
+            start = System.nanoTime();
+            newParser().parse(new ByteArrayInputStream(feed), Constants.UTF8);
+            pullTime = Math.min(pullTime, System.nanoTime() - start);
+            pullEntries = getEntries();
+        }
+
+        Log.i(TAG, format + ", " + ENTRY_COUNT + " entries, " + feed.length / 1024 + " KB: SAX " + saxTime / 1000000 + " ms, pull "
+                + pullTime / 1000000 + " ms");
+
+        assertEquals(ENTRY_COUNT, pullEntries.size());
+        assertEquals(saxEntries, pullEntries);
+    }
+
+    private RssAtomParser newParser() {
+        return new RssAtomParser(new Date(0), 0, mFeedId, null, TAG, "http://benchmark.invalid/", false);
+    }
+
+    private ArrayList<String> getEntries() {
+        ArrayList<String> entries = new ArrayList<>();
+        Cursor cursor = mContentResolver.query(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(mFeedId), new String[]{EntryColumns.TITLE,
+                EntryColumns.LINK, EntryColumns.DATE, EntryColumns.AUTHOR, EntryColumns.GUID, EntryColumns.ENCLOSURE,
+                EntryColumns.TABLE_NAME + '.' + EntryColumns._ID}, null, null, EntryColumns.DATE + Constants.DB_DESC);
+        while (cursor.moveToNext()) {
+            StringBuilder entry = new StringBuilder();
+            for (int i = 0; i < cursor.getColumnCount() - 1; i++) {
+                entry.append(cursor.getString(i)).append('|');
+            }
+
+            // The lists do not load the html bodies of the entries
+            Cursor contentCursor = mContentResolver.query(EntryColumns.CONTENT_URI(cursor.getLong(cursor.getColumnCount() - 1)),
+                    new String[]{EntryColumns.ABSTRACT}, null, null, null);
+            contentCursor.moveToFirst();
+            entry.append(contentCursor.getString(0));
+            contentCursor.close();
+
+            entries.add(entry.toString());
+        }
+        cursor.close();
+        return entries;
+    }
+
+    private byte[] generateRss() throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss Z", Locale.US);
+
+        StringBuilder rss = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                .append("<rss version=\"2.0\" xmlns:content=\"http://purl.org/rss/1.0/modules/content/\" ")
+                .append("xmlns:dc=\"http://purl.org/dc/elements/1.1/\" xmlns:media=\"http://search.yahoo.com/mrss/\" ")
+                .append("xmlns:atom=\"http://www.w3.org/2005/Atom\">\n<channel>\n")
+                .append("<title>Benchmark feed</title>\n<link>http://benchmark.invalid/</link>\n")
+                .append("<atom:link href=\"http://benchmark.invalid/feed\" rel=\"self\" type=\"application/rss+xml\"/>\n")
+                .append("<description>A feed &amp; its description</description>\n")
+                .append("<lastBuildDate>").append(dateFormat.format(new Date(mNewestEntryDate))).append("</lastBuildDate>\n")
+                .append("<image><url>http://benchmark.invalid/logo.png</url><title>Logo</title><link>http://benchmark.invalid/</link></image>\n");
+
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            rss.append("<item>\n<title>Entry ").append(i).append(" &amp; more</title>\n")
+                    .append("<link>http://benchmark.invalid/entries/").append(i).append("</link>\n")
+                    .append("<comments>http://benchmark.invalid/entries/").append(i).append("#comments</comments>\n")
+                    .append("<pubDate>").append(dateFormat.format(new Date(mNewestEntryDate - i * HOUR))).append("</pubDate>\n")
+                    .append("<dc:creator><![CDATA[Author ").append(i % 7).append("]]></dc:creator>\n")
+                    .append("<category><![CDATA[Category]]></category>\n")
+                    .append("<guid isPermaLink=\"false\">http://benchmark.invalid/?p=").append(i).append("</guid>\n")
+                    .append("<description><![CDATA[").append(getHtml(i, 2)).append("]]></description>\n")
+                    .append("<content:encoded><![CDATA[").append(getHtml(i, 12)).append("]]></content:encoded>\n")
+                    .append("<enclosure url=\"http://benchmark.invalid/podcast/").append(i)
+                    .append(".mp3\" length=\"123456\" type=\"audio/mpeg\"/>\n")
+                    .append("<media:content url=\"http://benchmark.invalid/images/").append(i).append(".jpg\" medium=\"image\">")
+                    .append("<media:title type=\"html\">Image ").append(i).append("</media:title>")
+                    .append("<media:description>An image</media:description></media:content>\n")
+                    .append("</item>\n");
+        }
+
+        return rss.append("</channel>\n</rss>\n").toString().getBytes(Constants.UTF8);
+    }
+
+    private byte[] generateAtom() throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        StringBuilder atom = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:media=\"http://search.yahoo.com/mrss/\">\n")
+                .append("<title type=\"text\">Benchmark feed</title>\n<subtitle>A feed</subtitle>\n")
+                .append("<link rel=\"alternate\" type=\"text/html\" href=\"http://benchmark.invalid/\"/>\n")
+                .append("<link rel=\"self\" type=\"application/atom+xml\" href=\"http://benchmark.invalid/feed.atom\"/>\n")
+                .append("<id>tag:benchmark.invalid,2016:feed</id>\n")
+                .append("<updated>").append(dateFormat.format(new Date(mNewestEntryDate))).append("</updated>\n")
+                .append("<generator uri=\"http://benchmark.invalid/\" version=\"1.0\">Generator</generator>\n");
+
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            String date = dateFormat.format(new Date(mNewestEntryDate - i * HOUR));
+            atom.append("<entry>\n<title type=\"html\">Entry ").append(i).append(" &amp;amp; more</title>\n")
+                    .append("<link rel=\"alternate\" type=\"text/html\" href=\"http://benchmark.invalid/entries/").append(i).append("\"/>\n")
+                    .append("<link rel=\"replies\" type=\"application/atom+xml\" href=\"http://benchmark.invalid/entries/").append(i)
+                    .append("/comments\"/>\n")
+                    .append("<id>tag:benchmark.invalid,2016:entry-").append(i).append("</id>\n")
+                    .append("<published>").append(date).append("</published>\n")
+                    .append("<updated>").append(date).append("</updated>\n")
+                    .append("<author><name>Author ").append(i % 7).append("</name><uri>http://benchmark.invalid/authors/")
+                    .append(i % 7).append("</uri><email>author@benchmark.invalid</email></author>\n")
+                    .append("<category term=\"Category\" scheme=\"http://benchmark.invalid/categories\"/>\n")
+                    .append("<summary type=\"html\">").append(escape(getHtml(i, 2))).append("</summary>\n")
+                    .append("<content type=\"html\">").append(escape(getHtml(i, 12))).append("</content>\n")
+                    .append("<media:thumbnail url=\"http://benchmark.invalid/images/").append(i).append(".jpg\" width=\"72\" height=\"72\"/>\n")
+                    .append("</entry>\n");
+        }
+
+        return atom.append("</feed>\n").toString().getBytes(Constants.UTF8);
+    }
+
+    private static String getHtml(int entry, int paragraphs) {
+        StringBuilder html = new StringBuilder("<p><img src=\"http://benchmark.invalid/images/").append(entry)
+                .append(".jpg\" alt=\"\" width=\"600\" height=\"400\" /></p>");
+        for (int i = 0; i < paragraphs; i++) {
+            html.append("<p>Lorem ipsum dolor sit amet, <a href=\"http://benchmark.invalid/entries/").append(entry)
+                    .append("\">consectetur</a> adipiscing elit, sed do <strong>eiusmod</strong> tempor incididunt ut labore et dolore ")
+                    .append("magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip.</p>");
+        }
+        return html.toString();
+    }
+
+    private static String escape(String html) {
+        return html.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        int mReadCount;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mReadCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int length = super.read(buffer, offset, count);
+            if (length > 0) {
+                mReadCount += length;
+            }
+            return length;
+        }
+    }
+}
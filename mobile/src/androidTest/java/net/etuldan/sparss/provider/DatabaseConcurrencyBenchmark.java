@@ -0,0 +1,181 @@
+package net.etuldan.sparss.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import net.etuldan.sparss.Constants;
+import net.etuldan.sparss.MainApplication;
+import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.EntryContentColumns;
+import net.etuldan.sparss.provider.FeedData.FeedColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Measures the latency of the entries list query while a simulated refresh of 300 feeds writes their entries (one transaction per
+ * feed, from as many threads as the default refresh parallelism), with the rollback journal and with the write-ahead log configured
+ * by {@link DatabaseHelper}. The latencies are logged under the "DatabaseConcurrencyBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseConcurrencyBenchmark {
+    private static final String TAG = "DatabaseConcurrencyBenchmark";
+
+    private static final String DATABASE_NAME = "benchmark.db";
+    private static final int FEED_COUNT = 300;
+    private static final int ENTRIES_PER_FEED = 20;
+    private static final int WRITER_THREADS = 4;
+    private static final String LIST_LIMIT = "100";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        MainApplication.setContext(mContext);
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readsDuringRefresh() throws Exception {
+        ArrayList<Long> journalLatencies = refreshAndRead(false);
+        mContext.deleteDatabase(DATABASE_NAME);
+        ArrayList<Long> walLatencies = refreshAndRead(true);
+
+        assertThat(journalLatencies.size(), greaterThan(0));
+        assertThat(walLatencies.size(), greaterThan(0));
+
+        Log.i(TAG, FEED_COUNT + " feeds, " + ENTRIES_PER_FEED + " entries each. Rollback journal: " + getSummary(journalLatencies)
+                + ". Write-ahead log: " + getSummary(walLatencies));
+    }
+
+    /**
+     * Returns the latencies (in microseconds) of the list queries run during the refresh.
+     */
+    private ArrayList<Long> refreshAndRead(boolean writeAheadLogging) throws Exception {
+        File file = mContext.getDatabasePath(DATABASE_NAME);
+        file.getParentFile().mkdirs();
+        final SQLiteDatabase database = SQLiteDatabase.openOrCreateDatabase(file, null);
+        new DatabaseHelper(new Handler(Looper.getMainLooper()), mContext).onCreate(database);
+        if (writeAheadLogging) {
+            DatabaseHelper.enableWriteAheadLogging(database);
+        }
+        assertEquals(writeAheadLogging, "wal".equals(getJournalMode(database))); // the default mode depends on the Android version
+
+        final long[] feedIds = new long[FEED_COUNT];
+        for (int i = 0; i < FEED_COUNT; i++) {
+            ContentValues values = new ContentValues();
+            values.put(FeedColumns.URL, "http://benchmark.invalid/" + i);
+            values.put(FeedColumns.NAME, "Feed " + i);
+            feedIds[i] = database.insert(FeedColumns.TABLE_NAME, null, values);
+        }
+
+        ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS);
+        for (final long feedId : feedIds) {
+            writers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    writeFeedEntries(database, feedId);
+                }
+            });
+        }
+        writers.shutdown();
+
+        // Like the entries list, until the end of the refresh
+        ArrayList<Long> latencies = new ArrayList<>();
+        while (!writers.isTerminated()) {
+            long start = System.nanoTime();
+            Cursor cursor = database.query(FeedData.ENTRIES_TABLE_WITH_FEED_INFO, new String[]{EntryColumns.TABLE_NAME + '.' + EntryColumns._ID,
+                    EntryColumns.TITLE, EntryColumns.DATE, FeedColumns.NAME}, null, null, null, null, EntryColumns.DATE + Constants.DB_DESC, LIST_LIMIT);
+            cursor.getCount(); // fills the window
+            cursor.close();
+            latencies.add((System.nanoTime() - start) / 1000);
+        }
+        writers.awaitTermination(1, TimeUnit.MINUTES);
+
+        database.close();
+        return latencies;
+    }
+
+    private static void writeFeedEntries(SQLiteDatabase database, long feedId) {
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ENTRIES_PER_FEED; i++) {
+                String title = "Entry " + i + " of the feed " + feedId;
+                String content = getHtml(feedId, i);
+
+                ContentValues values = new ContentValues();
+                values.put(EntryColumns.FEED_ID, feedId);
+                values.put(EntryColumns.TITLE, title);
+                values.put(EntryColumns.LINK, "http://benchmark.invalid/" + feedId + '/' + i);
+                values.put(EntryColumns.DATE, System.currentTimeMillis() - i * 60000);
+                values.put(EntryColumns.FETCH_DATE, System.currentTimeMillis());
+                long entryId = database.insert(EntryColumns.TABLE_NAME, null, values);
+
+                values = new ContentValues();
+                values.put(EntryContentColumns._ID, entryId);
+                values.put(EntryContentColumns.ABSTRACT, content);
+                database.insert(EntryContentColumns.TABLE_NAME, null, values);
+                SearchIndex.indexEntry(database, entryId, title, content, null);
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(FeedColumns.LAST_UPDATE, System.currentTimeMillis());
+            database.update(FeedColumns.TABLE_NAME, values, FeedColumns._ID + '=' + feedId, null);
+
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private static String getHtml(long feedId, int entry) {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 8; i++) {
+            html.append("<p>Lorem ipsum dolor sit amet, <a href=\"http://benchmark.invalid/").append(feedId).append('/').append(entry)
+                    .append("\">consectetur</a> adipiscing elit, sed do <strong>eiusmod</strong> tempor incididunt ut labore et dolore ")
+                    .append("magna aliqua. Ut enim ad minim veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip.</p>");
+        }
+        return html.toString();
+    }
+
+    private static String getJournalMode(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("PRAGMA journal_mode", null);
+        cursor.moveToFirst();
+        String journalMode = cursor.getString(0).toLowerCase();
+        cursor.close();
+        return journalMode;
+    }
+
+    private static String getSummary(ArrayList<Long> latencies) {
+        Collections.sort(latencies);
+        int count = latencies.size();
+        return count + " queries, median " + latencies.get(count / 2) / 1000f + " ms, 95th percentile " + latencies.get(count * 95 / 100) / 1000f
+                + " ms, max " + latencies.get(count - 1) / 1000f + " ms";
+    }
+}
@@ -0,0 +1,95 @@
+package net.etuldan.sparss.provider;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import net.etuldan.sparss.MainApplication;
+import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.TaskColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Checks with EXPLAIN QUERY PLAN that the hot queries on the entries and tasks tables don't scan the whole table.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseIndexesTest {
+
+    SQLiteDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        MainApplication.setContext(context);
+
+        mDatabase = SQLiteDatabase.create(null); // in memory
+        new DatabaseHelper(new Handler(Looper.getMainLooper()), context).onCreate(mDatabase);
+    }
+
+    @After
+    public void tearDown() {
+        mDatabase.close();
+    }
+
+    @Test
+    public void entryExistenceCheck() throws Exception {
+        String plan = getQueryPlan("SELECT " + EntryColumns._ID + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.FEED_ID + "=1 AND "
+                + EntryColumns.LINK + "=? AND " + EntryColumns.GUID + "=?", "http://link", "guid");
+        assertThat(plan, containsString("entries_feedid_link_idx"));
+    }
+
+    @Test
+    public void feedUnreadCount() throws Exception {
+        String plan = getQueryPlan("SELECT COUNT(*) FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.IS_READ + " IS NULL AND "
+                + EntryColumns.FEED_ID + "=1");
+        assertThat(plan, containsString("entries_feedid_isread_idx"));
+    }
+
+    @Test
+    public void oldEntriesCleanup() throws Exception {
+        assertUsesIndex(getQueryPlan("SELECT " + EntryColumns._ID + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.DATE + "<1000"
+                + " AND " + EntryColumns.WHERE_NOT_FAVORITE));
+        assertUsesIndex(getQueryPlan("SELECT " + EntryColumns._ID + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.DATE + "<1000"
+                + " AND " + EntryColumns.WHERE_NOT_FAVORITE + " AND " + EntryColumns.FEED_ID + "=1"));
+    }
+
+    @Test
+    public void favorites() throws Exception {
+        String plan = getQueryPlan("SELECT " + EntryColumns._ID + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.IS_FAVORITE + "=1");
+        assertThat(plan, containsString("entries_favorite_idx"));
+    }
+
+    @Test
+    public void entryTasks() throws Exception {
+        assertUsesIndex(getQueryPlan("SELECT " + TaskColumns._ID + " FROM " + TaskColumns.TABLE_NAME + " WHERE " + TaskColumns.ENTRY_ID + "=1"));
+    }
+
+    private void assertUsesIndex(String plan) {
+        assertThat(plan, containsString("INDEX"));
+        assertThat(plan, not(containsString("SCAN TABLE " + EntryColumns.TABLE_NAME + "\n")));
+        assertThat(plan, not(containsString("SCAN TABLE " + TaskColumns.TABLE_NAME + "\n")));
+    }
+
+    private String getQueryPlan(String query, String... args) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = mDatabase.rawQuery("EXPLAIN QUERY PLAN " + query, args);
+        int detailPosition = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailPosition)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+}
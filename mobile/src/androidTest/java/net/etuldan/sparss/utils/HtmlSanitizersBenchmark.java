@@ -0,0 +1,118 @@
+package net.etuldan.sparss.utils;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.jsoup.Jsoup;
+import org.jsoup.safety.Whitelist;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the single pass of {@link HtmlUtils#improveHtmlContent} with the regex chain which was used before, on entries shaped like
+ * the real ones (lazy loading and tracking images, protocol-relative urls, runs of &lt;br&gt;, ads...). Both must keep the same
+ * images, the timings are logged under the "HtmlSanitizersBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class HtmlSanitizersBenchmark {
+    private static final String TAG = "HtmlSanitizersBenchmark";
+
+    private static final String BASE_URI = "http://benchmark.invalid/";
+    private static final int ENTRY_COUNT = 200;
+    private static final int RUNS = 5;
+
+    @Test
+    public void sameImagesAsRegexChain() {
+        String[] contents = new String[ENTRY_COUNT];
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            contents[i] = getHtml(i, 2 + i % 12);
+        }
+
+        long regexesTime = Long.MAX_VALUE;
+        long singlePassTime = Long.MAX_VALUE;
+        ArrayList<ArrayList<String>> regexesImages = null;
+        ArrayList<ArrayList<String>> singlePassImages = null;
+
+        for (int run = 0; run < RUNS; run++) {
+            regexesImages = new ArrayList<>();
+            long start = System.nanoTime();
+            for (String content : contents) {
+                regexesImages.add(HtmlUtils.getImageURLs(improveHtmlContentWithRegexes(content, BASE_URI)));
+            }
+            regexesTime = Math.min(regexesTime, System.nanoTime() - start);
+
+            singlePassImages = new ArrayList<>();
+            start = System.nanoTime();
+            for (String content : contents) {
+                ArrayList<String> imageUrls = new ArrayList<>();
+                HtmlUtils.improveHtmlContent(content, BASE_URI, imageUrls);
+                singlePassImages.add(imageUrls);
+            }
+            singlePassTime = Math.min(singlePassTime, System.nanoTime() - start);
+        }
+
+        Log.i(TAG, ENTRY_COUNT + " entries: regexes " + regexesTime / 1000000 + " ms, single pass " + singlePassTime / 1000000 + " ms");
+
+        assertEquals(regexesImages, singlePassImages);
+    }
+
+    private static String getHtml(int entry, int paragraphs) {
+        StringBuilder html = new StringBuilder(" <br/><p><img src=\"/images/").append(entry).append(".jpg\" alt=\"\" width=\"600\" height=\"400\" /></p>");
+        for (int i = 0; i < paragraphs; i++) {
+            html.append("<p class=\"paragraph\" style=\"margin: 0\" onclick=\"track()\">Lorem ipsum dolor sit amet, <a href=\"//benchmark.invalid/entries/")
+                    .append(entry).append("\">consectetur</a> adipiscing elit, sed do <strong>eiusmod</strong> tempor incididunt ut labore et ")
+                    .append("dolore magna aliqua.<script>var x = ").append(i).append(";</script></p>");
+            switch (i % 5) {
+                case 0:
+                    html.append("<p><img src=\"/images/placeholder.gif\" original-src=\"http://benchmark.invalid/images/").append(entry)
+                            .append('-').append(i).append(".jpg\"></p>");
+                    break;
+                case 1:
+                    html.append("<img height=\"1\" width=\"1\" src=\"http://tracker.invalid/").append(entry).append(".gif\">");
+                    break;
+                case 2:
+                    html.append("<br><br><br><br><a href=\"http://benchmark.invalid/\"><img src=\"http://benchmark.invalid/thumb.img\"></a>");
+                    break;
+                case 3:
+                    html.append("<p><img src=\"//cdn.benchmark.invalid/images/").append(entry).append('-').append(i)
+                            .append(".png\" width=\"300\"><!-- comment --></p>");
+                    break;
+            }
+        }
+        return html.append("\n<div class=\"mf-viral\"><table border=\"0\"><tr><td>Ad</td></tr></table></div>").toString();
+    }
+
+    // The regex chain which was used before the single pass
+    private static final Pattern ADS_PATTERN = Pattern.compile("<div class=('|\")mf-viral('|\")><table border=('|\")0('|\")>.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern LAZY_LOADING_PATTERN = Pattern.compile("\\s+src=[^>]+\\s+original[-]*src=(\"|')", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EMPTY_IMAGE_PATTERN = Pattern.compile("<img\\s+(height=['\"]1['\"]\\s+width=['\"]1['\"]|width=['\"]1['\"]\\s+height=['\"]1['\"])\\s+[^>]*src=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern NON_HTTP_IMAGE_PATTERN = Pattern.compile("\\s+(href|src)=(\"|')//", Pattern.CASE_INSENSITIVE);
+    private static final Pattern BAD_IMAGE_PATTERN = Pattern.compile("<img\\s+[^>]*src=\\s*['\"]([^'\"]+)\\.img['\"][^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern START_BR_PATTERN = Pattern.compile("^(\\s*<br\\s*[/]*>\\s*)*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MULTIPLE_BR_PATTERN = Pattern.compile("(\\s*<br\\s*[/]*>\\s*){3,}", Pattern.CASE_INSENSITIVE);
+    private static final Pattern EMPTY_LINK_PATTERN = Pattern.compile("<a\\s+[^>]*></a>", Pattern.CASE_INSENSITIVE);
+    private static final Whitelist JSOUP_WHITELIST = Whitelist.relaxed().addTags("iframe", "video", "audio", "source", "track")
+            .addAttributes("iframe", "src", "frameborder", "height", "width")
+            .addAttributes("video", "src", "controls", "height", "width", "poster")
+            .addAttributes("audio", "src", "controls")
+            .addAttributes("source", "src", "type")
+            .addAttributes("track", "src", "kind", "srclang", "label");
+
+    private static String improveHtmlContentWithRegexes(String content, String baseUri) {
+        content = ADS_PATTERN.matcher(content).replaceAll("");
+        content = LAZY_LOADING_PATTERN.matcher(content).replaceAll(" src=$1");
+        content = Jsoup.clean(content, baseUri, JSOUP_WHITELIST);
+        content = EMPTY_IMAGE_PATTERN.matcher(content).replaceAll("");
+        content = BAD_IMAGE_PATTERN.matcher(content).replaceAll("");
+        content = EMPTY_LINK_PATTERN.matcher(content).replaceAll("");
+        content = NON_HTTP_IMAGE_PATTERN.matcher(content).replaceAll(" $1=$2http://");
+        content = START_BR_PATTERN.matcher(content).replaceAll("");
+        content = MULTIPLE_BR_PATTERN.matcher(content).replaceAll("<br><br>");
+        return content;
+    }
+}
@@ -379,6 +379,8 @@ public class EditFeedActivity extends BaseActivity implements LoaderManager.Load
                     final TypedArray selectedValues = getResources().obtainTypedArray(R.array.settings_keep_time_values);
                     values.put(FeedColumns.KEEP_TIME, selectedValues.getInt(mKeepTime.getSelectedItemPosition(),0));
                     values.put(FeedColumns.FETCH_MODE, 0);
+                    values.putNull(FeedColumns.ETAG);
+                    values.putNull(FeedColumns.LAST_MODIFIED);
                     values.putNull(FeedColumns.ERROR);
 
                     cr.update(getIntent().getData(), values, null, null);
@@ -585,7 +587,7 @@ class GetFeedSearchResultsLoader extends BaseLoader<ArrayList<HashMap<String, St
         try {
             HttpURLConnection conn = NetworkUtils.setupConnection(new URL("https://ajax.googleapis.com/ajax/services/feed/find?v=1.0&q=" + mSearchText));
             try {
-                String jsonStr = new String(NetworkUtils.getBytes(conn.getInputStream()));
+                String jsonStr = new String(NetworkUtils.getBytes(NetworkUtils.getInputStream(conn)));
 
                 // Parse results
                 final ArrayList<HashMap<String, String>> results = new ArrayList<>();
@@ -610,7 +612,7 @@ class GetFeedSearchResultsLoader extends BaseLoader<ArrayList<HashMap<String, St
 
                 return results;
             } finally {
-                conn.disconnect();
+                NetworkUtils.releaseConnection(conn);
             }
         } catch (Exception e) {
             Log.e(TAG, "Error", e);
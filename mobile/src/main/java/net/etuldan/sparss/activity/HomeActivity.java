@@ -55,7 +55,6 @@ import net.etuldan.sparss.R;
 import net.etuldan.sparss.adapter.DrawerAdapter;
 import net.etuldan.sparss.fragment.EntriesListFragment;
 import net.etuldan.sparss.parser.OPML;
-import net.etuldan.sparss.provider.FeedData;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.service.FetcherService;
@@ -69,14 +68,9 @@ public class HomeActivity extends BaseActivity implements LoaderManager.LoaderCa
 
     private static final String STATE_CURRENT_DRAWER_POS = "STATE_CURRENT_DRAWER_POS";
 
-    private static final String FEED_UNREAD_NUMBER = "(SELECT " + Constants.DB_COUNT + " FROM " + EntryColumns.TABLE_NAME + " WHERE " +
-            EntryColumns.IS_READ + " IS NULL AND " + EntryColumns.FEED_ID + '=' + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID + ')';
-
-    private static final String WHERE_UNREAD_ONLY = "(SELECT " + Constants.DB_COUNT + " FROM " + EntryColumns.TABLE_NAME + " WHERE " +
-            EntryColumns.IS_READ + " IS NULL AND " + EntryColumns.FEED_ID + "=" + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID + ") > 0" +
-            " OR (" + FeedColumns.IS_GROUP + "=1 AND (SELECT " + Constants.DB_COUNT + " FROM " + FeedData.ENTRIES_TABLE_WITH_FEED_INFO +
-            " WHERE " + EntryColumns.IS_READ + " IS NULL AND " + FeedColumns.GROUP_ID + '=' + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID +
-            ") > 0)";
+    private static final String WHERE_UNREAD_ONLY = FeedColumns.TABLE_NAME + '.' + FeedColumns.UNREAD_COUNT + " > 0" +
+            " OR (" + FeedColumns.IS_GROUP + "=1 AND EXISTS (SELECT 1 FROM " + FeedColumns.TABLE_NAME + " AS sub_feed WHERE sub_feed." +
+            FeedColumns.GROUP_ID + '=' + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID + " AND sub_feed." + FeedColumns.UNREAD_COUNT + " > 0))";
 
     private static final int LOADER_ID = 0;
     private static final int SEARCH_DRAWER_POSITION = -1;
@@ -313,7 +307,7 @@ public class HomeActivity extends BaseActivity implements LoaderManager.LoaderCa
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
         CursorLoader cursorLoader = new CursorLoader(this, FeedColumns.GROUPED_FEEDS_CONTENT_URI, new String[]{FeedColumns._ID, FeedColumns.URL, FeedColumns.NAME,
-                FeedColumns.IS_GROUP, FeedColumns.ICON, FeedColumns.LAST_UPDATE, FeedColumns.ERROR, FEED_UNREAD_NUMBER},
+                FeedColumns.IS_GROUP, FeedColumns.ICON_ID, FeedColumns.LAST_UPDATE, FeedColumns.ERROR, FeedColumns.TABLE_NAME + '.' + FeedColumns.UNREAD_COUNT},
                 PrefUtils.getBoolean(PrefUtils.SHOW_READ, true) ? "" : WHERE_UNREAD_ONLY, null, null
         );
         cursorLoader.setUpdateThrottle(Constants.UPDATE_THROTTLE_DELAY);
@@ -370,8 +364,8 @@ public class HomeActivity extends BaseActivity implements LoaderManager.LoaderCa
                 if (mDrawerAdapter.isItemAGroup(position)) {
                     newUri = EntryColumns.ENTRIES_FOR_GROUP_CONTENT_URI(feedOrGroupId);
                 } else {
-                    byte[] iconBytes = mDrawerAdapter.getItemIcon(position);
-                    Bitmap bitmap = UiUtils.getScaledBitmap(iconBytes, 24);
+                    long iconId = mDrawerAdapter.getItemIconId(position);
+                    Bitmap bitmap = iconId != -1 ? UiUtils.getFaviconBitmap(iconId, 24) : null;
                     if (bitmap != null) {
                         mIcon = new BitmapDrawable(getResources(), bitmap);
                     }
@@ -34,7 +34,7 @@ import android.widget.TextView;
 import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.R;
 import net.etuldan.sparss.provider.FeedData;
-import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.utils.PrefUtils;
 import net.etuldan.sparss.utils.StringUtils;
 import net.etuldan.sparss.utils.UiUtils;
@@ -171,8 +171,7 @@ public class DrawerAdapter extends BaseAdapter {
                         holder.stateTxt.setText(new StringBuilder(mContext.getString(R.string.error)).append(COLON).append(mFeedsCursor.getString(POS_ERROR)));
                     }
 
-                    final long feedId = mFeedsCursor.getLong(POS_ID);
-                    Bitmap bitmap = UiUtils.getFaviconBitmap(feedId, mFeedsCursor, POS_ICON);
+                    Bitmap bitmap = UiUtils.getFaviconBitmapAsync(mFeedsCursor, POS_ICON, 18);
 
                     if (bitmap != null) {
                         holder.iconView.setImageBitmap(bitmap);
@@ -217,12 +216,12 @@ public class DrawerAdapter extends BaseAdapter {
         return -1;
     }
 
-    public byte[] getItemIcon(int position) {
-        if (mFeedsCursor != null && mFeedsCursor.moveToPosition(position - 2)) {
-            return mFeedsCursor.getBlob(POS_ICON);
+    public long getItemIconId(int position) {
+        if (mFeedsCursor != null && mFeedsCursor.moveToPosition(position - 2) && !mFeedsCursor.isNull(POS_ICON)) {
+            return mFeedsCursor.getLong(POS_ICON);
         }
 
-        return null;
+        return -1;
     }
 
     public String getItemName(int position) {
@@ -241,8 +240,8 @@ public class DrawerAdapter extends BaseAdapter {
     private void updateNumbers() {
         mAllUnreadNumber = mFavoritesNumber = 0;
 
-        // Gets the numbers of entries (should be in a thread, but it's way easier like this and it shouldn't be so slow)
-        Cursor numbers = mContext.getContentResolver().query(EntryColumns.CONTENT_URI, new String[]{FeedData.ALL_UNREAD_NUMBER, FeedData.FAVORITES_NUMBER}, null, null, null);
+        // Gets the numbers of entries from the counters of the feeds, it is a sum over the feeds and not a count of the entries
+        Cursor numbers = mContext.getContentResolver().query(FeedColumns.CONTENT_URI, new String[]{FeedData.ALL_UNREAD_NUMBER, FeedData.FAVORITES_NUMBER}, null, null, null);
         if (numbers != null) {
             if (numbers.moveToFirst()) {
                 mAllUnreadNumber = numbers.getInt(0);
@@ -253,7 +253,7 @@ public class EntriesCursorAdapter extends ResourceCursorAdapter {
             mFavoritePos = cursor.getColumnIndex(EntryColumns.IS_FAVORITE);
             mFeedNamePos = cursor.getColumnIndex(FeedColumns.NAME);
             mFeedIdPos = cursor.getColumnIndex(EntryColumns.FEED_ID);
-            mFeedIconPos = cursor.getColumnIndex(FeedColumns.ICON);
+            mFeedIconPos = cursor.getColumnIndex(FeedColumns.ICON_ID);
         }
     }
 
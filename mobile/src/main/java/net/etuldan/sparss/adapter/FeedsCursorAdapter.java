@@ -57,8 +57,7 @@ public class FeedsCursorAdapter extends CursorLoaderExpandableListAdapter {
 
         TextView textView = ((TextView) view.findViewById(android.R.id.text1));
 
-        final long feedId = cursor.getLong(mIdPos);
-        Bitmap bitmap = UiUtils.getFaviconBitmap(feedId, cursor, mIconPos);
+        Bitmap bitmap = UiUtils.getFaviconBitmapAsync(cursor, mIconPos, 18);
 
         if (bitmap != null) {
             textView.setCompoundDrawablesWithIntrinsicBounds(new BitmapDrawable(context.getResources(), bitmap), null, null, null);
@@ -120,7 +119,7 @@ public class FeedsCursorAdapter extends CursorLoaderExpandableListAdapter {
             mNamePos = cursor.getColumnIndex(FeedColumns.NAME);
             mIdPos = cursor.getColumnIndex(FeedColumns._ID);
             mLinkPos = cursor.getColumnIndex(FeedColumns.URL);
-            mIconPos = cursor.getColumnIndex(FeedColumns.ICON);
+            mIconPos = cursor.getColumnIndex(FeedColumns.ICON_ID);
         }
     }
 }
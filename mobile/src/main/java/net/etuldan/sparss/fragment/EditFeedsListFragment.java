@@ -54,6 +54,7 @@ import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.v4.app.ActivityCompat;
@@ -75,18 +76,22 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.R;
 import net.etuldan.sparss.activity.AddGoogleNewsActivity;
 import net.etuldan.sparss.adapter.FeedsCursorAdapter;
 import net.etuldan.sparss.parser.OPML;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
+import net.etuldan.sparss.provider.FeedData.FilterColumns;
 import net.etuldan.sparss.view.DragNDropExpandableListView;
 import net.etuldan.sparss.view.DragNDropListener;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -482,11 +487,72 @@ public class EditFeedsListFragment extends ListFragment {
                 }
                 return true;
             }
+            case R.id.menu_shared_filters: {
+                showSharedFilters();
+                return true;
+            }
         }
 
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Lists the filters applied to all the feeds or to a group, which only come from an OPML import, so that they can be deleted
+     */
+    private void showSharedFilters() {
+        ContentResolver cr = getActivity().getContentResolver();
+
+        HashMap<Long, String> groupNames = new HashMap<>();
+        Cursor cursor = cr.query(FeedColumns.GROUPS_CONTENT_URI, new String[]{FeedColumns._ID, FeedColumns.NAME}, null, null, null);
+        while (cursor.moveToNext()) {
+            groupNames.put(cursor.getLong(0), cursor.getString(1));
+        }
+        cursor.close();
+
+        final ArrayList<Long> filterIds = new ArrayList<>();
+        ArrayList<String> filters = new ArrayList<>();
+        cursor = cr.query(FilterColumns.CONTENT_URI, new String[]{FilterColumns._ID, FilterColumns.FEED_ID, FilterColumns.FILTER_TEXT,
+                FilterColumns.IS_ACCEPT_RULE}, FilterColumns.FEED_ID + Constants.DB_IS_NULL + Constants.DB_OR + FilterColumns.FEED_ID + " IN (SELECT "
+                + FeedColumns._ID + " FROM " + FeedColumns.TABLE_NAME + " WHERE " + FeedColumns.IS_GROUP + Constants.DB_IS_TRUE + ')', null,
+                FilterColumns.FEED_ID);
+        while (cursor.moveToNext()) {
+            String scope = cursor.isNull(1) ? getString(R.string.shared_filters_all_feeds) : groupNames.get(cursor.getLong(1));
+            filterIds.add(cursor.getLong(0));
+            filters.add(scope + " - " + getString(cursor.getInt(3) == 1 ? R.string.accept : R.string.reject) + ": " + cursor.getString(2));
+        }
+        cursor.close();
+
+        if (filters.isEmpty()) {
+            Toast.makeText(getActivity(), R.string.no_filters, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        new AlertDialog.Builder(getActivity()) //
+                .setTitle(R.string.menu_shared_filters) //
+                .setItems(filters.toArray(new CharSequence[filters.size()]), new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final long filterId = filterIds.get(which);
+                        new AlertDialog.Builder(getActivity()) //
+                                .setIcon(android.R.drawable.ic_dialog_alert) //
+                                .setTitle(R.string.filter_delete_title) //
+                                .setMessage(R.string.question_delete_filter) //
+                                .setPositiveButton(android.R.string.yes, new DialogInterface.OnClickListener() {
+                                    @Override
+                                    public void onClick(DialogInterface dialog, int which) {
+                                        new Thread() {
+                                            @Override
+                                            public void run() {
+                                                ContentResolver cr = MainApplication.getContext().getContentResolver();
+                                                cr.delete(FilterColumns.CONTENT_URI, FilterColumns._ID + '=' + filterId, null);
+                                            }
+                                        }.start();
+                                    }
+                                }).setNegativeButton(android.R.string.no, null).show();
+                    }
+                }).setNegativeButton(android.R.string.cancel, null).show();
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults)
     {
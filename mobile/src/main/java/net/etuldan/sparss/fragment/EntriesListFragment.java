@@ -64,7 +64,6 @@ import net.etuldan.sparss.utils.PrefUtils;
 import net.etuldan.sparss.utils.UiUtils;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -376,21 +375,27 @@ public class EntriesListFragment extends SwipeRefreshListFragment {
      */
     private void downloadUnmobilitedEntries() {
         Cursor cursor = mEntriesCursorAdapter.getCursor();
-        if (cursor != null && !cursor.isClosed()) {
-            int mobilizedPos = cursor.getColumnIndex(EntryColumns.MOBILIZED_HTML);
-            long[] entries = new long[cursor.getCount()];
+        if (cursor != null && !cursor.isClosed() && cursor.moveToFirst()) {
+            // The list does not load the html bodies, so ask the database which of the listed entries are not mobilized yet
+            StringBuilder where = new StringBuilder(EntryColumns.TABLE_NAME).append('.').append(EntryColumns._ID).append(" IN (");
+            do {
+                if (!cursor.isFirst()) {
+                    where.append(',');
+                }
+                where.append(cursor.getLong(0));
+            } while (cursor.moveToNext());
+            where.append(')').append(Constants.DB_AND).append(EntryColumns.WHERE_NOT_MOBILIZED);
+
+            Cursor notMobilizedCursor = getActivity().getContentResolver().query(EntryColumns.CONTENT_URI,
+                    new String[]{EntryColumns.TABLE_NAME + '.' + EntryColumns._ID}, where.toString(), null, null);
+            long[] entries = new long[notMobilizedCursor.getCount()];
             int i = 0;
-            if (cursor.moveToFirst()) {
-                do {
-                    if (cursor.isNull(mobilizedPos)) {
-                        entries[i++] = cursor.getLong(0);
-                        //not mobilized, yet
-//                        entries[i++] = (Long.valueOf(cursor.getPosition()));
-                    }
-                } while (cursor.moveToNext());
+            while (notMobilizedCursor.moveToNext()) {
+                entries[i++] = notMobilizedCursor.getLong(0);
             }
+            notMobilizedCursor.close();
+
             if(i > 0) {
-                entries = Arrays.copyOf(entries, i);
                 FetcherService.addEntriesToMobilize(entries);
                 getActivity().startService(new Intent(getActivity(), FetcherService.class).setAction(FetcherService.ACTION_MOBILIZE_FEEDS));
             }
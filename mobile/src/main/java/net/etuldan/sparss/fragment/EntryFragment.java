@@ -64,6 +64,7 @@ import net.etuldan.sparss.provider.FeedData;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.service.FetcherService;
+import net.etuldan.sparss.utils.CompressionUtils;
 import net.etuldan.sparss.utils.PrefUtils;
 import net.etuldan.sparss.utils.UiUtils;
 import net.etuldan.sparss.view.EntryView;
@@ -76,7 +77,7 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
     private static final String STATE_ENTRIES_IDS = "STATE_ENTRIES_IDS";
     private static final String STATE_INITIAL_ENTRY_ID = "STATE_INITIAL_ENTRY_ID";
 
-    private int mTitlePos = -1, mDatePos, mMobilizedHtmlPos, mAbstractPos, mLinkPos, mIsFavoritePos, mIsReadPos, mEnclosurePos, mAuthorPos, mFeedNamePos, mFeedUrlPos, mFeedIconPos;
+    private int mTitlePos = -1, mDatePos, mMobilizedHtmlPos, mAbstractPos, mMobilizedImagesPos, mAbstractImagesPos, mLinkPos, mIsFavoritePos, mIsReadPos, mEnclosurePos, mAuthorPos, mFeedNamePos, mFeedUrlPos, mFeedIconPos;
 
     private int mCurrentPagerPos = -1;
     private Uri mBaseUri;
@@ -399,8 +400,7 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
             BaseActivity activity = (BaseActivity) getActivity();
             activity.setTitle(feedTitle);
 
-            byte[] iconBytes = entryCursor.getBlob(mFeedIconPos);
-            Bitmap bitmap = UiUtils.getScaledBitmap(iconBytes, 24);
+            Bitmap bitmap = UiUtils.getFaviconBitmap(entryCursor, mFeedIconPos, 24);
             if (bitmap != null) {
                 activity.getSupportActionBar().setIcon(new BitmapDrawable(getResources(), bitmap));
             } else {
@@ -529,6 +529,8 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
                 mDatePos = cursor.getColumnIndex(EntryColumns.DATE);
                 mAbstractPos = cursor.getColumnIndex(EntryColumns.ABSTRACT);
                 mMobilizedHtmlPos = cursor.getColumnIndex(EntryColumns.MOBILIZED_HTML);
+                mAbstractImagesPos = cursor.getColumnIndex(EntryColumns.ABSTRACT_IMAGES);
+                mMobilizedImagesPos = cursor.getColumnIndex(EntryColumns.MOBILIZED_IMAGES);
                 mLinkPos = cursor.getColumnIndex(EntryColumns.LINK);
                 mIsFavoritePos = cursor.getColumnIndex(EntryColumns.IS_FAVORITE);
                 mIsReadPos = cursor.getColumnIndex(EntryColumns.IS_READ);
@@ -536,7 +538,7 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
                 mAuthorPos = cursor.getColumnIndex(EntryColumns.AUTHOR);
                 mFeedNamePos = cursor.getColumnIndex(FeedColumns.NAME);
                 mFeedUrlPos = cursor.getColumnIndex(FeedColumns.URL);
-                mFeedIconPos = cursor.getColumnIndex(FeedColumns.ICON);
+                mFeedIconPos = cursor.getColumnIndex(FeedColumns.ICON_ID);
             }
 
             int position = loader.getId();
@@ -611,9 +613,11 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
                 }
 
                 if (newCursor != null && newCursor.moveToFirst()) {
-                    String contentText = newCursor.getString(mMobilizedHtmlPos);
+                    String contentText = CompressionUtils.getString(newCursor, mMobilizedHtmlPos);
+                    String imageManifest = newCursor.getString(mMobilizedImagesPos);
                     if (contentText == null || (forceUpdate && !mPreferFullText)) {
                         contentText = newCursor.getString(mAbstractPos);
+                        imageManifest = newCursor.getString(mAbstractImagesPos);
                         mPreferFullText = false;
                     } else {
                         mPreferFullText = true;
@@ -629,7 +633,7 @@ public class EntryFragment extends SwipeRefreshFragment implements BaseActivity.
                     String title = newCursor.getString(mTitlePos);
                     String enclosure = newCursor.getString(mEnclosurePos);
 
-                    view.setHtml(mEntriesIds[pagerPos], title, link, contentText, enclosure, author, timestamp, mPreferFullText);
+                    view.setHtml(mEntriesIds[pagerPos], title, link, contentText, imageManifest, enclosure, author, timestamp, mPreferFullText);
                     view.setTag(newCursor);
 
                     if (pagerPos == mCurrentPagerPos) {
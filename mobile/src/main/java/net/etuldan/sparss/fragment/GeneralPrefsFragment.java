@@ -58,6 +58,7 @@ import android.text.TextUtils;
 
 import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.R;
+import net.etuldan.sparss.service.FetcherService;
 import net.etuldan.sparss.service.RefreshService;
 import net.etuldan.sparss.utils.PrefUtils;
 
@@ -88,6 +89,19 @@ public class GeneralPrefsFragment extends PreferenceFragment {
             }
         });
 
+        preference = findPreference(PrefUtils.COMPRESS_MOBILIZED_HTML);
+        preference.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                Activity activity = getActivity();
+                if (activity != null) {
+                    PrefUtils.putBoolean(PrefUtils.COMPRESS_MOBILIZED_HTML, Boolean.TRUE.equals(newValue)); // the service must see the new value
+                    activity.startService(new Intent(activity, FetcherService.class).setAction(FetcherService.ACTION_COMPRESS_MOBILIZED_HTML));
+                }
+                return true;
+            }
+        });
+
         preference = findPreference(PrefUtils.LIGHT_THEME);
         preference.setOnPreferenceChangeListener(new Preference.OnPreferenceChangeListener() {
             @Override
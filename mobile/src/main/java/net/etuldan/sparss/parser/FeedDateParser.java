@@ -0,0 +1,344 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.parser;
+
+import java.util.TimeZone;
+
+/**
+ * Hand-written parser for the dates found in the feeds: RFC 822 (RSS, e.g. "Tue, 05 Apr 2016 10:32:00 +0200") and RFC 3339 /
+ * ISO 8601 (Atom, e.g. "2016-04-05T10:32:00.123+02:00"). It works directly on the characters, without allocation nor exception
+ * on a bad date, and unlike SimpleDateFormat it can be shared between threads. A feed always uses the same format, so the one
+ * which succeeded last is tried first.
+ */
+public class FeedDateParser {
+
+    public static final long INVALID_DATE = Long.MIN_VALUE;
+
+    private static final int FORMAT_RFC822 = 0;
+    private static final int FORMAT_ISO8601 = 1;
+
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+
+    private static final String[] MONTHS = {"jan", "feb", "mar", "apr", "may", "jun", "jul", "aug", "sep", "oct", "nov", "dec"};
+
+    // Time zone names which can be found in RFC 822 dates, with their offset in minutes
+    private static final String[] ZONE_NAMES = {"ut", "gmt", "utc", "z", "est", "edt", "cst", "cdt", "mst", "mdt", "pst", "pdt", "cet",
+            "cest", "mest", "met", "bst", "ist", "jst", "aest", "aedt"};
+    private static final int[] ZONE_OFFSETS = {0, 0, 0, 0, -300, -240, -360, -300, -420, -360, -480, -420, 60, 120, 120, 60, 60, 330,
+            540, 600, 660};
+
+    private volatile int mLastFormat = FORMAT_RFC822;
+
+    /**
+     * @return the date in milliseconds since the epoch, or {@link #INVALID_DATE}. A date without time zone is considered to be local.
+     */
+    public long parse(CharSequence text) {
+        int lastFormat = mLastFormat;
+        long date = parse(text, lastFormat);
+        if (date == INVALID_DATE) {
+            int otherFormat = lastFormat == FORMAT_RFC822 ? FORMAT_ISO8601 : FORMAT_RFC822;
+            date = parse(text, otherFormat);
+            if (date != INVALID_DATE) {
+                mLastFormat = otherFormat;
+            }
+        }
+        return date;
+    }
+
+    private static long parse(CharSequence text, int format) {
+        return format == FORMAT_RFC822 ? parseRfc822(text) : parseIso8601(text);
+    }
+
+    /**
+     * [day-name[,]] d[d] month-name yy[yy] hh:mm[:ss] [zone], the separators being spaces or dashes
+     */
+    static long parseRfc822(CharSequence text) {
+        int length = text.length();
+        int pos = skipSpaces(text, 0);
+
+        // Optional day name
+        if (pos < length && isLetter(text.charAt(pos))) {
+            pos = skipLetters(text, pos);
+            if (pos < length && (text.charAt(pos) == ',' || text.charAt(pos) == '.')) {
+                pos++;
+            }
+            pos = skipSpaces(text, pos);
+        }
+
+        int end = skipDigits(text, pos);
+        if (end == pos || end - pos > 2) {
+            return INVALID_DATE;
+        }
+        int day = toInt(text, pos, end);
+        pos = skipSeparators(text, end);
+
+        end = skipLetters(text, pos);
+        int month = getMonth(text, pos, end);
+        if (month == -1) {
+            return INVALID_DATE;
+        }
+        pos = skipSeparators(text, end);
+
+        end = skipDigits(text, pos);
+        int year = toInt(text, pos, end);
+        if (end - pos == 2 || end - pos == 3) { // "0yy" is found in some feeds
+            year %= 100;
+            year += year < 50 ? 2000 : 1900;
+        } else if (end - pos != 4) {
+            return INVALID_DATE;
+        }
+        pos = skipSpaces(text, end);
+
+        int hour = 0, minute = 0, second = 0;
+        end = skipDigits(text, pos);
+        if (end > pos) {
+            if (end - pos > 2 || end >= length || text.charAt(end) != ':') {
+                return INVALID_DATE;
+            }
+            hour = toInt(text, pos, end);
+            pos = end + 1;
+
+            end = skipDigits(text, pos);
+            if (end - pos != 2) {
+                return INVALID_DATE;
+            }
+            minute = toInt(text, pos, end);
+            pos = end;
+
+            if (pos < length && text.charAt(pos) == ':') {
+                end = skipDigits(text, ++pos);
+                if (end - pos != 2) {
+                    return INVALID_DATE;
+                }
+                second = toInt(text, pos, end);
+                pos = end;
+            }
+        }
+        pos = skipSpaces(text, pos);
+
+        return toMillis(year, month, day, hour, minute, second, 0, parseZoneOffset(text, pos));
+    }
+
+    /**
+     * yyyy-MM-dd[(T| )hh:mm[:ss[(.|,)fraction]][ ][zone]]
+     */
+    static long parseIso8601(CharSequence text) {
+        int length = text.length();
+        int pos = skipSpaces(text, 0);
+
+        int end = skipDigits(text, pos);
+        if (end - pos != 4 || end >= length || text.charAt(end) != '-') {
+            return INVALID_DATE;
+        }
+        int year = toInt(text, pos, end);
+        pos = end + 1;
+
+        end = skipDigits(text, pos);
+        if (end - pos < 1 || end - pos > 2 || end >= length || text.charAt(end) != '-') {
+            return INVALID_DATE;
+        }
+        int month = toInt(text, pos, end) - 1;
+        pos = end + 1;
+
+        end = skipDigits(text, pos);
+        if (end - pos < 1 || end - pos > 2) {
+            return INVALID_DATE;
+        }
+        int day = toInt(text, pos, end);
+        pos = end;
+
+        int hour = 0, minute = 0, second = 0, millis = 0;
+        if (pos < length && (text.charAt(pos) == 'T' || text.charAt(pos) == 't' || text.charAt(pos) == ' ')) {
+            int timePos = skipSpaces(text, pos + 1);
+            end = skipDigits(text, timePos);
+            if (end - timePos == 2 && end < length && text.charAt(end) == ':') {
+                hour = toInt(text, timePos, end);
+                pos = end + 1;
+
+                end = skipDigits(text, pos);
+                if (end - pos != 2) {
+                    return INVALID_DATE;
+                }
+                minute = toInt(text, pos, end);
+                pos = end;
+
+                if (pos < length && text.charAt(pos) == ':') {
+                    end = skipDigits(text, ++pos);
+                    if (end - pos != 2) {
+                        return INVALID_DATE;
+                    }
+                    second = toInt(text, pos, end);
+                    pos = end;
+
+                    if (pos < length && (text.charAt(pos) == '.' || text.charAt(pos) == ',')) {
+                        end = skipDigits(text, ++pos);
+                        // only the milliseconds are kept from the fraction
+                        for (int i = pos; i < pos + 3; i++) {
+                            millis = millis * 10 + (i < end ? text.charAt(i) - '0' : 0);
+                        }
+                        pos = end;
+                    }
+                }
+                pos = skipSpaces(text, pos);
+            } else if (text.charAt(pos) != ' ' || end != timePos) {
+                return INVALID_DATE;
+            }
+        }
+
+        return toMillis(year, month, day, hour, minute, second, millis, parseZoneOffset(text, pos));
+    }
+
+    /**
+     * @return the offset of the zone in minutes, {@link Integer#MIN_VALUE} for the local time zone (no or unknown zone)
+     */
+    private static int parseZoneOffset(CharSequence text, int pos) {
+        int length = text.length();
+        if (pos >= length) {
+            return Integer.MIN_VALUE;
+        }
+
+        char c = text.charAt(pos);
+        if (c == '+' || c == '-') {
+            int end = skipDigits(text, ++pos);
+            int offset;
+            if (end - pos == 4) { // +hhmm
+                offset = toInt(text, pos, pos + 2) * 60 + toInt(text, pos + 2, end);
+            } else if (end - pos == 2) { // +hh or +hh:mm
+                offset = toInt(text, pos, end) * 60;
+                if (end < length && text.charAt(end) == ':') {
+                    int minutesEnd = skipDigits(text, end + 1);
+                    if (minutesEnd - end - 1 == 2) {
+                        offset += toInt(text, end + 1, minutesEnd);
+                    }
+                }
+            } else {
+                return Integer.MIN_VALUE;
+            }
+            return c == '-' ? -offset : offset;
+        } else if (isLetter(c)) {
+            int end = skipLetters(text, pos);
+            for (int i = 0; i < ZONE_NAMES.length; i++) {
+                if (equalsIgnoreCase(text, pos, end, ZONE_NAMES[i])) {
+                    // "GMT+02:00" style
+                    if (end < length && (text.charAt(end) == '+' || text.charAt(end) == '-')) {
+                        int offset = parseZoneOffset(text, end);
+                        return offset == Integer.MIN_VALUE ? ZONE_OFFSETS[i] : ZONE_OFFSETS[i] + offset;
+                    }
+                    return ZONE_OFFSETS[i];
+                }
+            }
+        }
+
+        return Integer.MIN_VALUE;
+    }
+
+    private static long toMillis(int year, int month, int day, int hour, int minute, int second, int millis, int zoneOffset) {
+        if (month < 0 || month > 11 || day < 1 || day > 31 || hour > 24 || minute > 59 || second > 60) {
+            return INVALID_DATE;
+        }
+        if (second == 60) { // leap second
+            second = 59;
+        }
+
+        long date = daysFromCivil(year, month + 1, day) * DAY + hour * HOUR + minute * MINUTE + second * SECOND + millis;
+        if (zoneOffset == Integer.MIN_VALUE) {
+            TimeZone timeZone = TimeZone.getDefault();
+            return date - timeZone.getOffset(date - timeZone.getRawOffset());
+        }
+        return date - zoneOffset * MINUTE;
+    }
+
+    // Days since 1970-01-01 in the proleptic Gregorian calendar (http://howardhinnant.github.io/date_algorithms.html)
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static int getMonth(CharSequence text, int start, int end) {
+        if (end - start >= 3) { // "Apr" but also "April"
+            for (int i = 0; i < MONTHS.length; i++) {
+                if (equalsIgnoreCase(text, start, start + 3, MONTHS[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence text, int start, int end, String lowerCaseValue) {
+        if (end - start != lowerCaseValue.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (Character.toLowerCase(text.charAt(i)) != lowerCaseValue.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toInt(CharSequence text, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + text.charAt(i) - '0';
+        }
+        return value;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static int skipDigits(CharSequence text, int pos) {
+        while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipLetters(CharSequence text, int pos) {
+        while (pos < text.length() && isLetter(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSpaces(CharSequence text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static int skipSeparators(CharSequence text, int pos) {
+        while (pos < text.length() && (Character.isWhitespace(text.charAt(pos)) || text.charAt(pos) == '-')) {
+            pos++;
+        }
+        return pos;
+    }
+}
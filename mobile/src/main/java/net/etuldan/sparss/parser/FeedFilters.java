@@ -0,0 +1,334 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.parser;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+import net.etuldan.sparss.Constants;
+import net.etuldan.sparss.MainApplication;
+import net.etuldan.sparss.provider.FeedData.FilterColumns;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The filters of a feed, compiled once: the regex rules are precompiled and all the plain text rules are merged into a single
+ * Aho-Corasick automaton, which finds all of them in one pass over the title and one over the content. A rule applies to a feed, to all
+ * the feeds of a group or to all the feeds (global rule, without feed id). The compiled filters are cached until a row of the filters
+ * table changes.
+ */
+public class FeedFilters {
+    private static final String TAG = "FeedFilters";
+
+    // Flags of the automaton outputs
+    private static final int TITLE_REJECT = 1;
+    private static final int TITLE_ACCEPT = 2;
+    private static final int CONTENT_REJECT = 4;
+    private static final int CONTENT_ACCEPT = 8;
+
+    private static final HashMap<String, FeedFilters> CACHE = new HashMap<>(); // by feed and group
+    private static final HashMap<String, FeedFilters> SCOPE_CACHE = new HashMap<>(); // global and group filters, by group
+    private static int sGeneration; // incremented on each invalidation, to not cache filters read before it
+    private static ContentObserver sObserver;
+
+    private final List<Rule> mRules;
+    private final KeywordAutomaton mKeywords;
+    private final ArrayList<Pattern> mTitleRejectPatterns = new ArrayList<>();
+    private final ArrayList<Pattern> mTitleAcceptPatterns = new ArrayList<>();
+    private final ArrayList<Pattern> mContentRejectPatterns = new ArrayList<>();
+    private final ArrayList<Pattern> mContentAcceptPatterns = new ArrayList<>();
+
+    FeedFilters(List<Rule> rules) {
+        mRules = rules;
+        ArrayList<String> keywords = new ArrayList<>();
+        ArrayList<Integer> keywordFlags = new ArrayList<>();
+
+        for (Rule r : rules) {
+            if (r.isRegex) {
+                try {
+                    Pattern p = Pattern.compile(r.filterText);
+                    if (r.isAppliedToTitle) {
+                        (r.isAcceptRule ? mTitleAcceptPatterns : mTitleRejectPatterns).add(p);
+                    } else {
+                        (r.isAcceptRule ? mContentAcceptPatterns : mContentRejectPatterns).add(p);
+                    }
+                } catch (PatternSyntaxException e) {
+                    Log.e(TAG, "Invalid filter: " + r.filterText, e);
+                }
+            } else {
+                keywords.add(r.filterText);
+                if (r.isAppliedToTitle) {
+                    keywordFlags.add(r.isAcceptRule ? TITLE_ACCEPT : TITLE_REJECT);
+                } else {
+                    keywordFlags.add(r.isAcceptRule ? CONTENT_ACCEPT : CONTENT_REJECT);
+                }
+            }
+        }
+
+        mKeywords = keywords.isEmpty() ? null : new KeywordAutomaton(keywords, keywordFlags);
+    }
+
+    /**
+     * Returns the compiled filters of a feed, from the cache when possible. They include the global filters and the ones of the group of
+     * the feed. The feeds without filters of their own share the compiled filters of their scope.
+     */
+    public static FeedFilters forFeed(String feedId, String groupId) {
+        String feedKey = feedId + '/' + groupId;
+        String scopeKey = groupId == null ? "" : groupId;
+        FeedFilters scopeFilters;
+        int generation;
+        synchronized (CACHE) {
+            FeedFilters filters = CACHE.get(feedKey);
+            if (filters != null) {
+                return filters;
+            }
+
+            if (sObserver == null) {
+                sObserver = new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                };
+                MainApplication.getContext().getContentResolver().registerContentObserver(FilterColumns.CONTENT_URI, true, sObserver);
+            }
+            scopeFilters = SCOPE_CACHE.get(scopeKey);
+            generation = sGeneration;
+        }
+
+        if (scopeFilters == null) {
+            if (groupId == null) {
+                scopeFilters = new FeedFilters(queryRules(FilterColumns.GLOBAL_FILTERS_CONTENT_URI, null, null));
+            } else {
+                scopeFilters = new FeedFilters(queryRules(FilterColumns.CONTENT_URI, FilterColumns.FEED_ID + Constants.DB_IS_NULL + Constants.DB_OR
+                        + FilterColumns.FEED_ID + Constants.DB_ARG, new String[]{groupId}));
+            }
+        }
+
+        FeedFilters filters = scopeFilters;
+        ArrayList<Rule> feedRules = queryRules(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(feedId), null, null);
+        if (!feedRules.isEmpty()) {
+            feedRules.addAll(0, scopeFilters.mRules);
+            filters = new FeedFilters(feedRules);
+        }
+
+        synchronized (CACHE) {
+            if (generation == sGeneration) { // the rules did not change meanwhile
+                SCOPE_CACHE.put(scopeKey, scopeFilters);
+                CACHE.put(feedKey, filters);
+            }
+        }
+        return filters;
+    }
+
+    private static ArrayList<Rule> queryRules(Uri uri, String selection, String[] selectionArgs) {
+        ArrayList<Rule> rules = new ArrayList<>();
+        ContentResolver cr = MainApplication.getContext().getContentResolver();
+        Cursor c = cr.query(uri, new String[]{FilterColumns.FILTER_TEXT, FilterColumns.IS_REGEX, FilterColumns.IS_APPLIED_TO_TITLE,
+                FilterColumns.IS_ACCEPT_RULE}, selection, selectionArgs, null);
+        if (c != null) {
+            while (c.moveToNext()) {
+                rules.add(new Rule(c.getString(0), c.getInt(1) == 1, c.getInt(2) == 1, c.getInt(3) == 1));
+            }
+            c.close();
+        }
+        return rules;
+    }
+
+    public static void invalidate() {
+        synchronized (CACHE) {
+            CACHE.clear();
+            SCOPE_CACHE.clear();
+            sGeneration++;
+        }
+    }
+
+    /**
+     * An entry is filtered when it matches a reject rule and no accept rule.
+     */
+    public boolean isEntryFiltered(String title, String content) {
+        int matches = 0;
+        if (mKeywords != null) {
+            if (title != null) {
+                matches = mKeywords.find(title, TITLE_REJECT | TITLE_ACCEPT, TITLE_ACCEPT);
+            }
+            if (content != null && (matches & TITLE_ACCEPT) == 0) {
+                matches |= mKeywords.find(content, CONTENT_REJECT | CONTENT_ACCEPT, CONTENT_ACCEPT);
+            }
+        }
+
+        if ((matches & (TITLE_ACCEPT | CONTENT_ACCEPT)) != 0) {
+            return false;
+        }
+
+        boolean isRejected = (matches & (TITLE_REJECT | CONTENT_REJECT)) != 0 || find(mTitleRejectPatterns, title)
+                || find(mContentRejectPatterns, content);
+
+        // accept rules override reject rules
+        return isRejected && !find(mTitleAcceptPatterns, title) && !find(mContentAcceptPatterns, content);
+    }
+
+    private static boolean find(ArrayList<Pattern> patterns, String text) {
+        if (text != null) {
+            for (Pattern p : patterns) {
+                if (p.matcher(text).find()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static class Rule {
+        final String filterText;
+        final boolean isRegex;
+        final boolean isAppliedToTitle;
+        final boolean isAcceptRule;
+
+        Rule(String filterText, boolean isRegex, boolean isAppliedToTitle, boolean isAcceptRule) {
+            this.filterText = filterText;
+            this.isRegex = isRegex;
+            this.isAppliedToTitle = isAppliedToTitle;
+            this.isAcceptRule = isAcceptRule;
+        }
+    }
+
+    /**
+     * Aho-Corasick automaton over a set of keywords, each with its flags. It is built as a complete transition table over the characters
+     * of the keywords, so a step is a single lookup; any other character goes back to the initial state. The flags of a state include the
+     * ones of its failure states.
+     */
+    private static class KeywordAutomaton {
+        private static final int ASCII_SIZE = 128;
+
+        private final int[] mAsciiSymbols = new int[ASCII_SIZE];
+        private final char[] mOtherChars; // sorted, their symbol is their index plus the number of ASCII characters of the keywords
+        private final int mAsciiCount;
+        private final int mAlphabetSize;
+        private final int[] mTransitions; // by state then symbol
+        private final int[] mFlags;
+
+        KeywordAutomaton(List<String> keywords, List<Integer> keywordFlags) {
+            // Alphabet of the keywords
+            Arrays.fill(mAsciiSymbols, -1);
+            int asciiCount = 0;
+            StringBuilder otherChars = new StringBuilder();
+            for (String keyword : keywords) {
+                for (int i = 0; i < keyword.length(); i++) {
+                    char c = keyword.charAt(i);
+                    if (c < ASCII_SIZE) {
+                        if (mAsciiSymbols[c] < 0) {
+                            mAsciiSymbols[c] = asciiCount++;
+                        }
+                    } else if (otherChars.indexOf(String.valueOf(c)) < 0) {
+                        otherChars.append(c);
+                    }
+                }
+            }
+            mOtherChars = otherChars.toString().toCharArray();
+            Arrays.sort(mOtherChars);
+            mAsciiCount = asciiCount;
+            mAlphabetSize = asciiCount + mOtherChars.length;
+
+            // Trie of the keywords, 0 is the initial state and no state goes back to it yet
+            ArrayList<int[]> trie = new ArrayList<>();
+            ArrayList<Integer> flags = new ArrayList<>();
+            trie.add(new int[mAlphabetSize]);
+            flags.add(0);
+            for (int i = 0; i < keywords.size(); i++) {
+                String keyword = keywords.get(i);
+                int state = 0;
+                for (int j = 0; j < keyword.length(); j++) {
+                    int symbol = symbol(keyword.charAt(j));
+                    if (trie.get(state)[symbol] == 0) {
+                        trie.get(state)[symbol] = trie.size();
+                        trie.add(new int[mAlphabetSize]);
+                        flags.add(0);
+                    }
+                    state = trie.get(state)[symbol];
+                }
+                flags.set(state, flags.get(state) | keywordFlags.get(i));
+            }
+
+            int size = trie.size();
+            mTransitions = new int[size * mAlphabetSize];
+            mFlags = new int[size];
+            int[] failures = new int[size];
+            for (int state = 0; state < size; state++) {
+                System.arraycopy(trie.get(state), 0, mTransitions, state * mAlphabetSize, mAlphabetSize);
+                mFlags[state] = flags.get(state);
+            }
+
+            // Failure links, breadth first so the transitions of a failure state are always complete before they are used. A missing
+            // transition is replaced by the one of the failure state.
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            queue.add(0);
+            while (!queue.isEmpty()) {
+                int state = queue.poll();
+                int offset = state * mAlphabetSize;
+                for (int symbol = 0; symbol < mAlphabetSize; symbol++) {
+                    int target = mTransitions[offset + symbol];
+                    if (target == 0) {
+                        mTransitions[offset + symbol] = state == 0 ? 0 : mTransitions[failures[state] * mAlphabetSize + symbol];
+                    } else {
+                        failures[target] = state == 0 ? 0 : mTransitions[failures[state] * mAlphabetSize + symbol];
+                        mFlags[target] |= mFlags[failures[target]];
+                        queue.add(target);
+                    }
+                }
+            }
+        }
+
+        private int symbol(char c) {
+            if (c < ASCII_SIZE) {
+                return mAsciiSymbols[c];
+            }
+            int i = Arrays.binarySearch(mOtherChars, c);
+            return i < 0 ? -1 : mAsciiCount + i;
+        }
+
+        /**
+         * Returns the flags among {@code mask} of the keywords found in the text. The search stops as soon as one of the
+         * {@code stopMask} flags is found.
+         */
+        int find(String text, int mask, int stopMask) {
+            int found = mFlags[0] & mask; // empty keyword
+            int state = 0;
+            for (int i = 0, length = text.length(); i < length && (found & stopMask) == 0; i++) {
+                int symbol = symbol(text.charAt(i));
+                state = symbol < 0 ? 0 : mTransitions[state * mAlphabetSize + symbol];
+                if (mFlags[state] != 0) {
+                    found |= mFlags[state] & mask;
+                }
+            }
+            return found;
+        }
+    }
+}
@@ -48,6 +48,7 @@ package net.etuldan.sparss.parser;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.Environment;
 import android.text.TextUtils;
 import android.util.Xml;
@@ -86,7 +87,7 @@ public class OPML {
     private static final String OUTLINE_INLINE_CLOSING = "'/>\n";
     private static final String OUTLINE_NORMAL_CLOSING = "'>\n";
     private static final String OUTLINE_END = "\t</outline>\n";
-    private static final String FILTER_TEXT = "\t\t<filter text='";
+    private static final String FILTER_TEXT = "<filter text='";
     private static final String FILTER_IS_REGEX = "' isRegex='";
     private static final String FILTER_IS_APPLIED_TO_TITLE = "' isAppliedToTitle='";
     private static final String FILTER_IS_ACCEPT_RULE = "' isAcceptRule='";
@@ -124,12 +125,22 @@ public class OPML {
         builder.append(System.currentTimeMillis());
         builder.append(AFTER_DATE);
 
+        Cursor cursorGlobalFilters = MainApplication.getContext().getContentResolver()
+                .query(FilterColumns.GLOBAL_FILTERS_CONTENT_URI, FILTERS_PROJECTION, null, null, null);
+        appendFilters(builder, cursorGlobalFilters, "\t");
+        cursorGlobalFilters.close();
+
         while (cursor.moveToNext()) {
             builder.append(OUTLINE_TITLE);
             builder.append(cursor.isNull(2) ? "" : TextUtils.htmlEncode(cursor.getString(2)));
             if (cursor.getInt(1) == 1) { // If it is a group
                 builder.append(OUTLINE_NORMAL_CLOSING);
 
+                Cursor cursorGroupFilters = MainApplication.getContext().getContentResolver()
+                        .query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(cursor.getString(0)), FILTERS_PROJECTION, null, null, null);
+                appendFilters(builder, cursorGroupFilters, "\t\t");
+                cursorGroupFilters.close();
+
                 Cursor cursorChildren = MainApplication.getContext().getContentResolver()
                         .query(FeedColumns.FEEDS_FOR_GROUPS_CONTENT_URI(cursor.getString(0)), FEEDS_PROJECTION, null, null, null);
                 while (cursorChildren.moveToNext()) {
@@ -145,18 +156,7 @@ public class OPML {
                             .query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(cursorChildren.getString(0)), FILTERS_PROJECTION, null, null, null);
                     if (cursorFilters.getCount() != 0) {
                         builder.append(OUTLINE_NORMAL_CLOSING);
-                        while (cursorFilters.moveToNext()) {
-                            builder.append("\t");
-                            builder.append(FILTER_TEXT);
-                            builder.append(TextUtils.htmlEncode(cursorFilters.getString(0)));
-                            builder.append(FILTER_IS_REGEX);
-                            builder.append(cursorFilters.getInt(1) == 1 ? Constants.TRUE : "false");
-                            builder.append(FILTER_IS_APPLIED_TO_TITLE);
-                            builder.append(cursorFilters.getInt(2) == 1 ? Constants.TRUE : "false");
-                            builder.append(FILTER_IS_ACCEPT_RULE);
-                            builder.append(cursorFilters.getInt(3) == 1 ? Constants.TRUE : "false");
-                            builder.append(FILTER_CLOSING);
-                        }
+                        appendFilters(builder, cursorFilters, "\t\t\t");
                         builder.append("\t");
                         builder.append(OUTLINE_END);
                     } else {
@@ -176,17 +176,7 @@ public class OPML {
                         .query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(cursor.getString(0)), FILTERS_PROJECTION, null, null, null);
                 if (cursorFilters.getCount() != 0) {
                     builder.append(OUTLINE_NORMAL_CLOSING);
-                    while (cursorFilters.moveToNext()) {
-                        builder.append(FILTER_TEXT);
-                        builder.append(TextUtils.htmlEncode(cursorFilters.getString(0)));
-                        builder.append(FILTER_IS_REGEX);
-                        builder.append(cursorFilters.getInt(1) == 1 ? Constants.TRUE : "false");
-                        builder.append(FILTER_IS_APPLIED_TO_TITLE);
-                        builder.append(cursorFilters.getInt(2) == 1 ? Constants.TRUE : "false");
-                        builder.append(FILTER_IS_ACCEPT_RULE);
-                        builder.append(cursorFilters.getInt(3) == 1 ? Constants.TRUE : "false");
-                        builder.append(FILTER_CLOSING);
-                    }
+                    appendFilters(builder, cursorFilters, "\t\t");
                     builder.append(OUTLINE_END);
                 } else {
                     builder.append(OUTLINE_INLINE_CLOSING);
@@ -204,6 +194,21 @@ public class OPML {
         writer.close();
     }
 
+    private static void appendFilters(StringBuilder builder, Cursor cursorFilters, String indentation) {
+        while (cursorFilters.moveToNext()) {
+            builder.append(indentation);
+            builder.append(FILTER_TEXT);
+            builder.append(TextUtils.htmlEncode(cursorFilters.getString(0)));
+            builder.append(FILTER_IS_REGEX);
+            builder.append(cursorFilters.getInt(1) == 1 ? Constants.TRUE : "false");
+            builder.append(FILTER_IS_APPLIED_TO_TITLE);
+            builder.append(cursorFilters.getInt(2) == 1 ? Constants.TRUE : "false");
+            builder.append(FILTER_IS_ACCEPT_RULE);
+            builder.append(cursorFilters.getInt(3) == 1 ? Constants.TRUE : "false");
+            builder.append(FILTER_CLOSING);
+        }
+    }
+
     private static class OPMLParser extends DefaultHandler {
         private static final String TAG_BODY = "body";
         private static final String TAG_OUTLINE = "outline";
@@ -217,6 +222,7 @@ public class OPML {
         private static final String ATTRIBUTE_IS_ACCEPT_RULE = "isAcceptRule";
 
         private boolean mBodyTagEntered = false;
+        private boolean mGroupEntered = false;
         private boolean mFeedEntered = false;
         private boolean mProbablyValidElement = false;
         private String mGroupId = null;
@@ -239,6 +245,7 @@ public class OPML {
                 ContentResolver cr = MainApplication.getContext().getContentResolver();
 
                 if (url == null) { // No url => this is a group
+                    mGroupEntered = true;
                     if (title != null) {
                         ContentValues values = new ContentValues();
                         values.put(FeedColumns.IS_GROUP, true);
@@ -246,7 +253,9 @@ public class OPML {
 
                         Cursor cursor = cr.query(FeedColumns.GROUPS_CONTENT_URI, null, FeedColumns.NAME + Constants.DB_ARG, new String[]{title}, null);
 
-                        if (!cursor.moveToFirst()) {
+                        if (cursor.moveToFirst()) { // its feeds and filters are added to the existing group
+                            mGroupId = cursor.getString(cursor.getColumnIndex(FeedColumns._ID));
+                        } else {
                             mGroupId = cr.insert(FeedColumns.GROUPS_CONTENT_URI, values).getLastPathSegment();
                         }
                         cursor.close();
@@ -272,19 +281,43 @@ public class OPML {
                     cursor.close();
                 }
             } else if (TAG_FILTER.equals(localName)) {
-                if (mFeedEntered && mFeedId != null) {
-                    ContentValues values = new ContentValues();
-                    values.put(FilterColumns.FILTER_TEXT, attributes.getValue("", ATTRIBUTE_TEXT));
-                    values.put(FilterColumns.IS_REGEX, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_REGEX)));
-                    values.put(FilterColumns.IS_APPLIED_TO_TITLE, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_APPLIED_TO_TITLE)));
-                    values.put(FilterColumns.IS_ACCEPT_RULE, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_ACCEPT_RULE)));
+                ContentValues values = new ContentValues();
+                values.put(FilterColumns.FILTER_TEXT, attributes.getValue("", ATTRIBUTE_TEXT));
+                values.put(FilterColumns.IS_REGEX, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_REGEX)));
+                values.put(FilterColumns.IS_APPLIED_TO_TITLE, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_APPLIED_TO_TITLE)));
+                values.put(FilterColumns.IS_ACCEPT_RULE, Constants.TRUE.equals(attributes.getValue("", ATTRIBUTE_IS_ACCEPT_RULE)));
 
-                    ContentResolver cr = MainApplication.getContext().getContentResolver();
-                    cr.insert(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(mFeedId), values);
+                ContentResolver cr = MainApplication.getContext().getContentResolver();
+                if (mFeedEntered) {
+                    if (mFeedId != null) {
+                        cr.insert(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(mFeedId), values);
+                    }
+                } else if (mGroupEntered) {
+                    if (mGroupId != null) { // the group can already exist, as when the auto backup is imported again
+                        insertFilterOnce(cr, FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(mGroupId), values);
+                    }
+                } else {
+                    insertFilterOnce(cr, FilterColumns.GLOBAL_FILTERS_CONTENT_URI, values);
                 }
             }
         }
 
+        private void insertFilterOnce(ContentResolver cr, Uri filtersUri, ContentValues values) {
+            if (values.getAsString(FilterColumns.FILTER_TEXT) == null) {
+                return;
+            }
+
+            Cursor cursor = cr.query(filtersUri, null, FilterColumns.FILTER_TEXT + Constants.DB_ARG
+                    + Constants.DB_AND + FilterColumns.IS_REGEX + '=' + (values.getAsBoolean(FilterColumns.IS_REGEX) ? 1 : 0)
+                    + Constants.DB_AND + FilterColumns.IS_APPLIED_TO_TITLE + '=' + (values.getAsBoolean(FilterColumns.IS_APPLIED_TO_TITLE) ? 1 : 0)
+                    + Constants.DB_AND + FilterColumns.IS_ACCEPT_RULE + '=' + (values.getAsBoolean(FilterColumns.IS_ACCEPT_RULE) ? 1 : 0),
+                    new String[]{values.getAsString(FilterColumns.FILTER_TEXT)}, null);
+            if (!cursor.moveToFirst()) {
+                cr.insert(filtersUri, values);
+            }
+            cursor.close();
+        }
+
         @Override
         public void endElement(String uri, String localName, String qName) throws SAXException {
             if (mBodyTagEntered && TAG_BODY.equals(localName)) {
@@ -293,6 +326,7 @@ public class OPML {
                 if (mFeedEntered) {
                     mFeedEntered = false;
                 } else {
+                    mGroupEntered = false;
                     mGroupId = null;
                 }
             }
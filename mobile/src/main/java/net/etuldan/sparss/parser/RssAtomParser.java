@@ -54,6 +54,7 @@ import android.net.Uri;
 import android.text.Html;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Xml;
 
 import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.MainApplication;
@@ -61,7 +62,6 @@ import net.etuldan.sparss.R;
 import net.etuldan.sparss.provider.FeedData;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
-import net.etuldan.sparss.provider.FeedData.FilterColumns;
 import net.etuldan.sparss.service.FetcherService;
 import net.etuldan.sparss.utils.HtmlUtils;
 import net.etuldan.sparss.utils.NetworkUtils;
@@ -70,15 +70,15 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 import org.xml.sax.helpers.DefaultHandler;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.Locale;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class RssAtomParser extends DefaultHandler {
     private static final String TAG = RssAtomParser.class.getSimpleName();
@@ -90,6 +90,7 @@ public class RssAtomParser extends DefaultHandler {
     private static final String TAG_RSS = "rss";
     private static final String TAG_RDF = "rdf";
     private static final String TAG_FEED = "feed";
+    private static final String TAG_CHANNEL = "channel";
     private static final String TAG_ENTRY = "entry";
     private static final String TAG_ITEM = "item";
     private static final String TAG_UPDATED = "updated";
@@ -114,29 +115,14 @@ public class RssAtomParser extends DefaultHandler {
     private static final String TAG_CREATOR = "creator";
     private static final String TAG_NAME = "name";
 
+    private static final String PREFIX_MEDIA = "media";
+
     private static final String ATTRIBUTE_URL = "url";
     private static final String ATTRIBUTE_HREF = "href";
     private static final String ATTRIBUTE_TYPE = "type";
     private static final String ATTRIBUTE_LENGTH = "length";
     private static final String ATTRIBUTE_REL = "rel";
 
-    private static final String[][] TIMEZONES_REPLACE = {{"MEST", "+0200"}, {"EST", "-0500"}, {"PST", "-0800"}};
-
-    private static final DateFormat[] PUBDATE_DATE_FORMATS = {
-            new SimpleDateFormat("d' 'MMM' 0'yy' 'HH:mm:ss' 'Z", Locale.US),
-            new SimpleDateFormat("d' 'MMM' 'yyyy' 'HH:mm:ss' 'ZZZZ", Locale.US),
-            new SimpleDateFormat("d' 'MMM' 'yy' 'HH:mm:ss' 'Z", Locale.US),
-            new SimpleDateFormat("d' 'MMM' 'yy' 'HH:mm:ss' 'z", Locale.US),
-            new SimpleDateFormat("d' 'MMM' 'yy' 'HH:mm:ss", Locale.US)
-    };
-
-    private static final DateFormat[] UPDATE_DATE_FORMATS = {
-            new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss.SSSz", Locale.US),
-            new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ssZ", Locale.US),
-            new SimpleDateFormat("yyyy-MM-dd' 'HH:mm:ss", Locale.US),
-            new SimpleDateFormat("yyyy-MM-dd", Locale.US)
-    };
-
     private final Date mRealLastUpdateDate;
     private final String mId;
     private final Uri mFeedEntriesUri;
@@ -144,6 +130,8 @@ public class RssAtomParser extends DefaultHandler {
     private final String mFeedBaseUrl;
     private final Date mKeepDateBorder;
     private final FeedFilters mFilters;
+    private final FeedDateParser mDateParser = new FeedDateParser(); // one per feed, as it remembers the date format
+    private KnownEntries mKnownEntries;
     private final ArrayList<ContentProviderOperation> mInserts = new ArrayList<>();
     private final ArrayList<ArrayList<String>> mInsertedEntriesImages = new ArrayList<>();
     private long mNewRealLastUpdate;
@@ -178,7 +166,8 @@ public class RssAtomParser extends DefaultHandler {
     private StringBuilder mGuid;
     private StringBuilder mAuthor, mTmpAuthor;
 
-    public RssAtomParser(Date realLastUpdateDate, long keepDateBorderTime, final String id, String feedName, String url, boolean retrieveFullText) {
+    public RssAtomParser(Date realLastUpdateDate, long keepDateBorderTime, final String id, String groupId, String feedName, String url,
+                         boolean retrieveFullText) {
         mKeepDateBorder = new Date(keepDateBorderTime);
         mRealLastUpdateDate = realLastUpdateDate;
         mNewRealLastUpdate = realLastUpdateDate.getTime();
@@ -187,7 +176,7 @@ public class RssAtomParser extends DefaultHandler {
         mFeedEntriesUri = EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(id);
         mRetrieveFullText = retrieveFullText;
 
-        mFilters = new FeedFilters(id);
+        mFilters = FeedFilters.forFeed(id, groupId);
 
         mFeedBaseUrl = NetworkUtils.getBaseUrl(url);
     }
@@ -210,21 +199,7 @@ public class RssAtomParser extends DefaultHandler {
             mUpdatedTagEntered = true;
             mDateStringBuilder = new StringBuilder();
         } else if (TAG_ENTRY.equals(localName) || TAG_ITEM.equals(localName)) {
-            mEntryTagEntered = true;
-            mDescription = null;
-            mEntryLink = null;
-
-            // Save the previous (if no date are found for this entry)
-            mPreviousEntryDate = mEntryDate;
-            mPreviousEntryUpdateDate = mEntryUpdateDate;
-            mEntryDate = null;
-            mEntryUpdateDate = null;
-
-            // This is the retrieved feed title
-            if (mFeedTitle == null && mTitle != null && mTitle.length() > 0) {
-                mFeedTitle = mTitle.toString();
-            }
-            mTitle = null;
+            startEntry();
         } else if (TAG_TITLE.equals(localName)) {
             if (mTitle == null) {
                 mTitleTagEntered = true;
@@ -234,31 +209,8 @@ public class RssAtomParser extends DefaultHandler {
             if (mAuthorTagEntered) {
                 return;
             }
-            if (TAG_ENCLOSURE.equals(attributes.getValue("", ATTRIBUTE_REL))) {
-                startEnclosure(attributes, attributes.getValue("", ATTRIBUTE_HREF));
-            //} else if(TAG_ALTERNATE.equals(attributes.getValue("", ATTRIBUTE_REL))) {
-            } else if(TAG_RELATED.equals(attributes.getValue("", ATTRIBUTE_REL))) {
-            } else if(TAG_VIA.equals(attributes.getValue("", ATTRIBUTE_REL))) {
-            } else {
-                // Get the link only if we don't have one or if its the good one (html)
-                if (mEntryLink == null || HTML_TEXT.equals(attributes.getValue("", ATTRIBUTE_TYPE))) {
-                    mEntryLink = new StringBuilder();
-
-                    boolean foundLink = false;
-                    String href = attributes.getValue("", ATTRIBUTE_HREF);
-                    if (!TextUtils.isEmpty(href)) {
-                        mEntryLink.append(href);
-                        foundLink = true;
-                        mLinkTagEntered = false;
-                    } else {
-                        mLinkTagEntered = true;
-                    }
-
-                    if (!foundLink) {
-                        mLinkTagEntered = true;
-                    }
-                }
-            }
+            mLinkTagEntered = startLink(attributes.getValue("", ATTRIBUTE_REL), attributes.getValue("", ATTRIBUTE_TYPE),
+                    attributes.getValue("", ATTRIBUTE_HREF), attributes.getValue("", ATTRIBUTE_LENGTH));
         } else if ((TAG_DESCRIPTION.equals(localName) && !TAG_MEDIA_DESCRIPTION.equals(qName))
                 || (TAG_CONTENT.equals(localName) && !TAG_MEDIA_CONTENT.equals(qName))) {
             mDescriptionTagEntered = true;
@@ -284,7 +236,7 @@ public class RssAtomParser extends DefaultHandler {
             mDescriptionTagEntered = true;
             mDescription = new StringBuilder();
         } else if (TAG_ENCLOSURE.equals(localName)) {
-            startEnclosure(attributes, attributes.getValue("", ATTRIBUTE_URL));
+            startEnclosure(attributes.getValue("", ATTRIBUTE_URL), attributes.getValue("", ATTRIBUTE_TYPE), attributes.getValue("", ATTRIBUTE_LENGTH));
         } else if (TAG_GUID.equals(localName)) {
             mGuidTagEntered = true;
             mGuid = new StringBuilder();
@@ -296,20 +248,65 @@ public class RssAtomParser extends DefaultHandler {
         }
     }
 
-    private void startEnclosure(Attributes attributes, String url) {
+    private void startEntry() {
+        mEntryTagEntered = true;
+        mDescription = null;
+        mEntryLink = null;
+
+        // Save the previous (if no date are found for this entry)
+        mPreviousEntryDate = mEntryDate;
+        mPreviousEntryUpdateDate = mEntryUpdateDate;
+        mEntryDate = null;
+        mEntryUpdateDate = null;
+
+        // This is the retrieved feed title
+        if (mFeedTitle == null && mTitle != null && mTitle.length() > 0) {
+            mFeedTitle = mTitle.toString();
+        }
+        mTitle = null;
+    }
+
+    /**
+     * @return true if the link is not given by the href attribute, but by the text of the element
+     */
+    private boolean startLink(String rel, String type, String href, String length) {
+        if (TAG_ENCLOSURE.equals(rel)) {
+            startEnclosure(href, type, length);
+        //} else if(TAG_ALTERNATE.equals(rel)) {
+        } else if(TAG_RELATED.equals(rel)) {
+        } else if(TAG_VIA.equals(rel)) {
+        } else {
+            // Get the link only if we don't have one or if its the good one (html)
+            if (mEntryLink == null || HTML_TEXT.equals(type)) {
+                mEntryLink = new StringBuilder();
+
+                if (!TextUtils.isEmpty(href)) {
+                    mEntryLink.append(href);
+                } else {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void endLink(boolean isPlainLink) {
+        if (mFeedLink == null && !mEntryTagEntered && isPlainLink && mEntryLink != null) { // Skip <atom10:link> tags
+            mFeedLink = mEntryLink.toString();
+        }
+    }
+
+    private void startEnclosure(String url, String type, String length) {
         if (mEnclosure == null && url != null) { // fetch the first enclosure only
             mEnclosure = new StringBuilder(url);
             mEnclosure.append(Constants.ENCLOSURE_SEPARATOR);
 
-            String value = attributes.getValue("", ATTRIBUTE_TYPE);
-
-            if (value != null) {
-                mEnclosure.append(value);
+            if (type != null) {
+                mEnclosure.append(type);
             }
             mEnclosure.append(Constants.ENCLOSURE_SEPARATOR);
-            value = attributes.getValue("", ATTRIBUTE_LENGTH);
-            if (value != null) {
-                mEnclosure.append(value);
+            if (length != null) {
+                mEnclosure.append(length);
             }
         }
     }
@@ -340,180 +337,361 @@ public class RssAtomParser extends DefaultHandler {
             mDescriptionTagEntered = false;
         } else if (TAG_LINK.equals(localName)) {
             mLinkTagEntered = false;
-
-            if (mFeedLink == null && !mEntryTagEntered && TAG_LINK.equals(qName)) { // Skip <atom10:link> tags
-                mFeedLink = mEntryLink.toString();
-            }
+            endLink(TAG_LINK.equals(qName));
         } else if (TAG_UPDATED.equals(localName)) {
-            mEntryUpdateDate = parseUpdateDate(mDateStringBuilder.toString());
+            mEntryUpdateDate = parseDate(mDateStringBuilder);
             mUpdatedTagEntered = false;
         } else if (TAG_PUBDATE.equals(localName)) {
-            mEntryDate = parsePubdateDate(mDateStringBuilder.toString());
+            mEntryDate = parseDate(mDateStringBuilder);
             mPubDateTagEntered = false;
         } else if (TAG_PUBLISHED.equals(localName)) {
-            mEntryDate = parsePubdateDate(mDateStringBuilder.toString());
+            mEntryDate = parseDate(mDateStringBuilder);
             mPublishedTagEntered = false;
         } else if (TAG_LAST_BUILD_DATE.equals(localName)) {
-            mEntryDate = parsePubdateDate(mDateStringBuilder.toString());
+            mEntryDate = parseDate(mDateStringBuilder);
             mLastBuildDateTagEntered = false;
         } else if (TAG_DATE.equals(localName)) {
-            mEntryDate = parseUpdateDate(mDateStringBuilder.toString());
+            mEntryDate = parseDate(mDateStringBuilder);
             mDateTagEntered = false;
         } else if (TAG_ENTRY.equals(localName) || TAG_ITEM.equals(localName)) {
-            mEntryTagEntered = false;
-
-            boolean updateOnly = false;
-            // Old mEntryDate but recent update date => we need to not insert it!
-            if (mEntryUpdateDate != null && mEntryDate != null && (mEntryDate.before(mRealLastUpdateDate) || mEntryDate.before(mKeepDateBorder))) {
-                updateOnly = true;
-                if (mEntryUpdateDate.after(mEntryDate)) {
-                    mEntryDate = mEntryUpdateDate;
-                }
-            } else if (mEntryDate == null && mEntryUpdateDate != null) { // only one updateDate, copy it into mEntryDate
+            endEntry();
+            if (mCancelled) {
+                throw new SAXException("Finished");
+            }
+        } else if (TAG_RSS.equals(localName) || TAG_RDF.equals(localName) || TAG_FEED.equals(localName)) {
+            mDone = true;
+        } else if (TAG_GUID.equals(localName)) {
+            mGuidTagEntered = false;
+        } else if (TAG_NAME.equals(localName) || TAG_AUTHOR.equals(localName) || TAG_CREATOR.equals(localName)) {
+            mAuthorTagEntered = false;
+
+            if (mTmpAuthor != null) {
+                addAuthor(mTmpAuthor.toString());
+            }
+
+            mTmpAuthor = null;
+        }
+    }
+
+    private void endEntry() {
+        mEntryTagEntered = false;
+
+        boolean updateOnly = false;
+        // Old mEntryDate but recent update date => we need to not insert it!
+        if (mEntryUpdateDate != null && mEntryDate != null && (mEntryDate.before(mRealLastUpdateDate) || mEntryDate.before(mKeepDateBorder))) {
+            updateOnly = true;
+            if (mEntryUpdateDate.after(mEntryDate)) {
                 mEntryDate = mEntryUpdateDate;
-            } else if (mEntryDate == null && mEntryUpdateDate == null) { // nothing, we need to retrieve the previous date
-                mEntryDate = mPreviousEntryDate;
-                mEntryUpdateDate = mPreviousEntryUpdateDate;
+            }
+        } else if (mEntryDate == null && mEntryUpdateDate != null) { // only one updateDate, copy it into mEntryDate
+            mEntryDate = mEntryUpdateDate;
+        } else if (mEntryDate == null && mEntryUpdateDate == null) { // nothing, we need to retrieve the previous date
+            mEntryDate = mPreviousEntryDate;
+            mEntryUpdateDate = mPreviousEntryUpdateDate;
+        }
+
+        if (mTitle != null && (mEntryDate == null || (mEntryDate.after(mRealLastUpdateDate) && mEntryDate.after(mKeepDateBorder)))) {
+            ContentValues values = new ContentValues();
+
+            if (mEntryDate != null && mEntryDate.getTime() > mNewRealLastUpdate) {
+                mNewRealLastUpdate = mEntryDate.getTime();
             }
 
-            if (mTitle != null && (mEntryDate == null || (mEntryDate.after(mRealLastUpdateDate) && mEntryDate.after(mKeepDateBorder)))) {
-                ContentValues values = new ContentValues();
+            String improvedTitle = unescapeTitle(mTitle.toString().trim());
+            values.put(EntryColumns.TITLE, improvedTitle);
+
+            String improvedContent = null;
+            String mainImageUrl = null;
+            ArrayList<String> imagesUrls = null;
+            if (mDescription != null) {
+                // Improve the description
+                ArrayList<String> contentImagesUrls = new ArrayList<>();
+                improvedContent = HtmlUtils.improveHtmlContent(mDescription.toString(), mFeedBaseUrl, contentImagesUrls);
+                mainImageUrl = HtmlUtils.getMainImageURL(contentImagesUrls);
+                values.put(EntryColumns.ABSTRACT_IMAGES, HtmlUtils.toImageManifest(contentImagesUrls));
+                if (mFetchImages) {
+                    imagesUrls = contentImagesUrls;
+                }
 
-                if (mEntryDate != null && mEntryDate.getTime() > mNewRealLastUpdate) {
-                    mNewRealLastUpdate = mEntryDate.getTime();
+                if (improvedContent != null && !improvedContent.isEmpty()) {
+                    values.put(EntryColumns.ABSTRACT, improvedContent);
+                } else {
+                    values.put(EntryColumns.ABSTRACT, MainApplication.getContext().getString(R.string.feed_no_summary));
                 }
+            }
 
-                String improvedTitle = unescapeTitle(mTitle.toString().trim());
-                values.put(EntryColumns.TITLE, improvedTitle);
-
-                String improvedContent = null;
-                String mainImageUrl = null;
-                ArrayList<String> imagesUrls = null;
-                if (mDescription != null) {
-                    // Improve the description
-                    improvedContent = HtmlUtils.improveHtmlContent(mDescription.toString(), mFeedBaseUrl);
-                    if (mFetchImages) {
-                        imagesUrls = HtmlUtils.getImageURLs(improvedContent);
-                        if (!imagesUrls.isEmpty()) {
-                            mainImageUrl = HtmlUtils.getMainImageURL(imagesUrls);
-                        }
-                    } else {
-                        mainImageUrl = HtmlUtils.getMainImageURL(improvedContent);
-                    }
+            if (mainImageUrl != null) {
+                values.put(EntryColumns.IMAGE_URL, mainImageUrl);
+            }
 
-                    if (improvedContent != null && !improvedContent.isEmpty()) {
-                        values.put(EntryColumns.ABSTRACT, improvedContent);
-                    } else {
-                        values.put(EntryColumns.ABSTRACT, MainApplication.getContext().getString(R.string.feed_no_summary));
-                    }
+            // Try to find if the entry is not filtered and need to be processed
+            if (!mFilters.isEntryFiltered(improvedTitle, improvedContent)) {
+
+                if (mAuthor != null) {
+                    values.put(EntryColumns.AUTHOR, mAuthor.toString());
                 }
 
-                if (mainImageUrl != null) {
-                    values.put(EntryColumns.IMAGE_URL, mainImageUrl);
+                String enclosureString = null;
+                StringBuilder existenceStringBuilder = new StringBuilder(EntryColumns.LINK).append(Constants.DB_ARG);
+
+                if (mEnclosure != null && mEnclosure.length() > 0) {
+                    enclosureString = mEnclosure.toString();
+                    values.put(EntryColumns.ENCLOSURE, enclosureString);
+                    existenceStringBuilder.append(Constants.DB_AND).append(EntryColumns.ENCLOSURE).append(Constants.DB_ARG);
                 }
 
-                // Try to find if the entry is not filtered and need to be processed
-                if (!mFilters.isEntryFiltered(improvedTitle, improvedContent)) {
+                String guidString = null;
 
-                    if (mAuthor != null) {
-                        values.put(EntryColumns.AUTHOR, mAuthor.toString());
-                    }
+                if (mGuid != null && mGuid.length() > 0) {
+                    guidString = mGuid.toString();
+                    values.put(EntryColumns.GUID, guidString);
+                    existenceStringBuilder.append(Constants.DB_AND).append(EntryColumns.GUID).append(Constants.DB_ARG);
+                }
 
-                    String enclosureString = null;
-                    StringBuilder existenceStringBuilder = new StringBuilder(EntryColumns.LINK).append(Constants.DB_ARG);
+                String entryLinkString = ""; // don't set this to null as we need *some* value
 
-                    if (mEnclosure != null && mEnclosure.length() > 0) {
-                        enclosureString = mEnclosure.toString();
-                        values.put(EntryColumns.ENCLOSURE, enclosureString);
-                        existenceStringBuilder.append(Constants.DB_AND).append(EntryColumns.ENCLOSURE).append(Constants.DB_ARG);
+                if (mEntryLink != null && mEntryLink.length() > 0) {
+                    entryLinkString = mEntryLink.toString().trim();
+                    if (mFeedBaseUrl != null && !entryLinkString.startsWith(Constants.HTTP_SCHEME) && !entryLinkString.startsWith(Constants.HTTPS_SCHEME)) {
+                        entryLinkString = mFeedBaseUrl
+                                + (entryLinkString.startsWith(Constants.SLASH) ? entryLinkString : Constants.SLASH + entryLinkString);
                     }
+                }
+
+                String[] existenceValues = enclosureString != null ? (guidString != null ? new String[]{entryLinkString, enclosureString,
+                        guidString} : new String[]{entryLinkString, enclosureString}) : (guidString != null ? new String[]{entryLinkString,
+                        guidString} : new String[]{entryLinkString});
 
-                    String guidString = null;
+                long contentHash = KnownEntries.contentHash(values);
+                values.put(EntryColumns.CONTENT_HASH, contentHash);
 
-                    if (mGuid != null && mGuid.length() > 0) {
-                        guidString = mGuid.toString();
-                        values.put(EntryColumns.GUID, guidString);
-                        existenceStringBuilder.append(Constants.DB_AND).append(EntryColumns.GUID).append(Constants.DB_ARG);
+                // First, try to update the feed (only if the entry may already be there, and has changed)
+                ContentResolver cr = MainApplication.getContext().getContentResolver();
+                if (mKnownEntries == null) {
+                    mKnownEntries = new KnownEntries(mId);
+                }
+                boolean isUpdated = (!entryLinkString.isEmpty() || guidString != null)
+                        && mKnownEntries.mightContain(entryLinkString, guidString)
+                        && (mKnownEntries.isUnchanged(entryLinkString, guidString, contentHash)
+                        || cr.update(mFeedEntriesUri, values, existenceStringBuilder.toString(), existenceValues) != 0);
+
+                // Insert it only if necessary
+                if (!isUpdated && !updateOnly) {
+                    // We put the date only for new entry (no need to change the past, you may already read it)
+                    if (mEntryDate != null) {
+                        values.put(EntryColumns.DATE, mEntryDate.getTime());
+                    } else {
+                        values.put(EntryColumns.DATE, mNow--); // -1 to keep the good entries order
                     }
 
-                    String entryLinkString = ""; // don't set this to null as we need *some* value
+                    values.put(EntryColumns.LINK, entryLinkString);
 
-                    if (mEntryLink != null && mEntryLink.length() > 0) {
-                        entryLinkString = mEntryLink.toString().trim();
-                        if (mFeedBaseUrl != null && !entryLinkString.startsWith(Constants.HTTP_SCHEME) && !entryLinkString.startsWith(Constants.HTTPS_SCHEME)) {
-                            entryLinkString = mFeedBaseUrl
-                                    + (entryLinkString.startsWith(Constants.SLASH) ? entryLinkString : Constants.SLASH + entryLinkString);
-                        }
-                    }
+                    // We cannot update, we need to insert it
+                    mInsertedEntriesImages.add(imagesUrls);
+                    mInserts.add(ContentProviderOperation.newInsert(mFeedEntriesUri).withValues(values).build());
 
-                    String[] existenceValues = enclosureString != null ? (guidString != null ? new String[]{entryLinkString, enclosureString,
-                            guidString} : new String[]{entryLinkString, enclosureString}) : (guidString != null ? new String[]{entryLinkString,
-                            guidString} : new String[]{entryLinkString});
-
-                    // First, try to update the feed
-                    ContentResolver cr = MainApplication.getContext().getContentResolver();
-                    boolean isUpdated = (!entryLinkString.isEmpty() || guidString != null)
-                            && cr.update(mFeedEntriesUri, values, existenceStringBuilder.toString(), existenceValues) != 0;
-
-                    // Insert it only if necessary
-                    if (!isUpdated && !updateOnly) {
-                        // We put the date only for new entry (no need to change the past, you may already read it)
-                        if (mEntryDate != null) {
-                            values.put(EntryColumns.DATE, mEntryDate.getTime());
-                        } else {
-                            values.put(EntryColumns.DATE, mNow--); // -1 to keep the good entries order
-                        }
+                    mNewCount++;
+                }
 
-                        values.put(EntryColumns.LINK, entryLinkString);
+                // No date, but we managed to update an entry => we already parsed the following entries and don't need to continue
+                if (isUpdated && mEntryDate == null) {
+                    cancel();
+                }
+            }
+        } else {
+            //to fix https://github.com/Etuldan/spaRSS/issues/200
+            //we must delete next line. however, this causes overhead.
+            cancel();
+        }
+        mDescription = null;
+        mTitle = null;
+        mEnclosure = null;
+        mGuid = null;
+        mAuthor = null;
+    }
 
-                        // We cannot update, we need to insert it
-                        mInsertedEntriesImages.add(imagesUrls);
-                        mInserts.add(ContentProviderOperation.newInsert(mFeedEntriesUri).withValues(values).build());
+    private void addAuthor(String author) {
+        if (mAuthor == null) {
+            mAuthor = new StringBuilder(author);
+        } else { // this indicates multiple authors
+            boolean found = false;
+            for (String previousAuthor : mAuthor.toString().split(",")) {
+                if (previousAuthor.equals(author)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                mAuthor.append(Constants.COMMA_SPACE);
+                mAuthor.append(author);
+            }
+        }
+    }
 
-                        mNewCount++;
-                    }
+    /**
+     * Pull based alternative to the SAX callbacks above, giving the same entries. Only the elements which are needed are read:
+     * the others are skipped without building their text, and the reading stops as soon as the already known entries are reached.
+     */
+    public void parse(InputStream inputStream, String charset) throws XmlPullParserException, IOException {
+        XmlPullParser parser = Xml.newPullParser();
+        parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+        parser.setInput(new InputStreamReader(inputStream, charset != null ? charset : Constants.UTF8));
+
+        int eventType = parser.getEventType();
+        while (eventType != XmlPullParser.END_DOCUMENT) {
+            if (eventType == XmlPullParser.START_TAG) {
+                startPullElement(parser);
+            } else if (eventType == XmlPullParser.END_TAG && (TAG_ENTRY.equals(parser.getName()) || TAG_ITEM.equals(parser.getName()))) {
+                endEntry();
+                if (mCancelled) {
+                    return; // the remaining entries are already known, no need to read them
+                }
+            }
+            eventType = parser.next();
+        }
 
-                    // No date, but we managed to update an entry => we already parsed the following entries and don't need to continue
-                    if (isUpdated && mEntryDate == null) {
-                        cancel();
-                    }
+        mDone = true;
+        saveEntries();
+    }
+
+    private void startPullElement(XmlPullParser parser) throws XmlPullParserException, IOException {
+        if (parser.getDepth() == 1) { // root element (rss, rdf:RDF, feed...)
+            return;
+        }
+
+        switch (parser.getName()) {
+            case TAG_CHANNEL:
+                break;
+            case TAG_ENTRY:
+            case TAG_ITEM:
+                startEntry();
+                break;
+            case TAG_TITLE:
+                if (mTitle == null) {
+                    mTitle = new StringBuilder();
+                    readText(parser, mTitle);
+                } else {
+                    skipSubtree(parser);
+                }
+                break;
+            case TAG_LINK: {
+                boolean isLinkInText = startLink(parser.getAttributeValue(null, ATTRIBUTE_REL), parser.getAttributeValue(null, ATTRIBUTE_TYPE),
+                        parser.getAttributeValue(null, ATTRIBUTE_HREF), parser.getAttributeValue(null, ATTRIBUTE_LENGTH));
+                boolean isPlainLink = parser.getPrefix() == null;
+                if (isLinkInText) {
+                    readText(parser, mEntryLink);
+                } else {
+                    skipSubtree(parser);
                 }
-            } else {
-                //to fix https://github.com/Etuldan/spaRSS/issues/200
-                //we must delete next line. however, this causes overhead.
-                cancel();
+                endLink(isPlainLink);
+                break;
             }
-            mDescription = null;
-            mTitle = null;
-            mEnclosure = null;
-            mGuid = null;
-            mAuthor = null;
-        } else if (TAG_RSS.equals(localName) || TAG_RDF.equals(localName) || TAG_FEED.equals(localName)) {
-            mDone = true;
-        } else if (TAG_GUID.equals(localName)) {
-            mGuidTagEntered = false;
-        } else if (TAG_NAME.equals(localName) || TAG_AUTHOR.equals(localName) || TAG_CREATOR.equals(localName)) {
-            mAuthorTagEntered = false;
+            case TAG_DESCRIPTION:
+            case TAG_CONTENT:
+                if (PREFIX_MEDIA.equals(parser.getPrefix())) {
+                    skipSubtree(parser);
+                } else {
+                    mDescription = new StringBuilder();
+                    readText(parser, mDescription);
+                }
+                break;
+            case TAG_ENCODED_CONTENT:
+                mDescription = new StringBuilder();
+                readText(parser, mDescription);
+                break;
+            case TAG_SUMMARY:
+                if (mDescription == null) {
+                    mDescription = new StringBuilder();
+                    readText(parser, mDescription);
+                } else {
+                    skipSubtree(parser);
+                }
+                break;
+            case TAG_PUBDATE:
+            case TAG_PUBLISHED:
+            case TAG_LAST_BUILD_DATE:
+            case TAG_DATE:
+                mEntryDate = parseDate(readText(parser, new StringBuilder()));
+                break;
+            case TAG_UPDATED:
+                mEntryUpdateDate = parseDate(readText(parser, new StringBuilder()));
+                break;
+            case TAG_ENCLOSURE:
+                startEnclosure(parser.getAttributeValue(null, ATTRIBUTE_URL), parser.getAttributeValue(null, ATTRIBUTE_TYPE),
+                        parser.getAttributeValue(null, ATTRIBUTE_LENGTH));
+                skipSubtree(parser);
+                break;
+            case TAG_GUID:
+                mGuid = new StringBuilder();
+                readText(parser, mGuid);
+                break;
+            case TAG_AUTHOR:
+            case TAG_CREATOR:
+            case TAG_NAME: {
+                String author = readAuthor(parser);
+                if (!author.isEmpty()) {
+                    addAuthor(author);
+                }
+                break;
+            }
+            default:
+                skipSubtree(parser);
+                break;
+        }
+    }
 
-            if (mTmpAuthor != null) {
-                if (mAuthor == null) {
-                    mAuthor = new StringBuilder(mTmpAuthor);
-                } else { // this indicates multiple authors
-                    boolean found = false;
-                    for (String previousAuthor : mAuthor.toString().split(",")) {
-                        if (previousAuthor.equals(mTmpAuthor.toString())) {
-                            found = true;
-                            break;
-                        }
-                    }
-                    if (!found) {
-                        mAuthor.append(Constants.COMMA_SPACE);
-                        mAuthor.append(mTmpAuthor);
-                    }
+    /**
+     * Appends the text of the current element, including the one of its children, and moves to its end tag.
+     */
+    private static StringBuilder readText(XmlPullParser parser, StringBuilder text) throws XmlPullParserException, IOException {
+        int depth = parser.getDepth();
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT && (eventType != XmlPullParser.END_TAG || parser.getDepth() > depth)) {
+            if (eventType == XmlPullParser.TEXT) {
+                text.append(parser.getText());
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @return the text of the &lt;name&gt; child of an Atom author, or the text of the element itself
+     */
+    private static String readAuthor(XmlPullParser parser) throws XmlPullParserException, IOException {
+        StringBuilder text = new StringBuilder();
+        StringBuilder name = null;
+        int depth = parser.getDepth();
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT && (eventType != XmlPullParser.END_TAG || parser.getDepth() > depth)) {
+            if (eventType == XmlPullParser.TEXT) {
+                text.append(parser.getText());
+            } else if (eventType == XmlPullParser.START_TAG) {
+                if (name == null && TAG_NAME.equals(parser.getName())) {
+                    name = readText(parser, new StringBuilder());
+                } else {
+                    skipSubtree(parser);
                 }
             }
+        }
+        return (name != null ? name : text).toString().trim();
+    }
 
-            mTmpAuthor = null;
+    /**
+     * Moves to the end tag of the current element, without reading the text of its subtree.
+     */
+    private static void skipSubtree(XmlPullParser parser) throws XmlPullParserException, IOException {
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case XmlPullParser.START_TAG:
+                    depth++;
+                    break;
+                case XmlPullParser.END_TAG:
+                    depth--;
+                    break;
+                case XmlPullParser.END_DOCUMENT:
+                    return;
+            }
         }
     }
 
@@ -533,13 +711,11 @@ public class RssAtomParser extends DefaultHandler {
         return mCancelled;
     }
 
-    private void cancel() throws SAXException {
+    private void cancel() {
         if (!mCancelled) {
             mCancelled = true;
             mDone = true;
-            endDocument();
-
-            throw new SAXException("Finished");
+            saveEntries();
         }
     }
 
@@ -547,61 +723,12 @@ public class RssAtomParser extends DefaultHandler {
         this.mFetchImages = fetchImages;
     }
 
-    private Date parseUpdateDate(String dateStr) {
-        dateStr = improveDateString(dateStr);
-        return parseUpdateDate(dateStr, true);
-    }
-
-    private Date parseUpdateDate(String dateStr, boolean tryAllFormat) {
-        for (DateFormat format : UPDATE_DATE_FORMATS) {
-            try {
-                Date result = format.parse(dateStr);
-                return (result.getTime() > mNow ? new Date(mNow) : result);
-            } catch (ParseException ignored) {
-            } // just try next format
-        }
-
-        if (tryAllFormat)
-            return parsePubdateDate(dateStr, false);
-        else
+    private Date parseDate(CharSequence dateStr) {
+        long date = mDateParser.parse(dateStr);
+        if (date == FeedDateParser.INVALID_DATE) {
             return null;
-    }
-
-    private Date parsePubdateDate(String dateStr) {
-        dateStr = improveDateString(dateStr);
-        return parsePubdateDate(dateStr, true);
-    }
-
-    private Date parsePubdateDate(String dateStr, boolean tryAllFormat) {
-        for (DateFormat format : PUBDATE_DATE_FORMATS) {
-            try {
-                Date result = format.parse(dateStr);
-                return (result.getTime() > mNow ? new Date(mNow) : result);
-            } catch (ParseException ignored) {
-            } // just try next format
         }
-
-        if (tryAllFormat)
-            return parseUpdateDate(dateStr, false);
-        else
-            return null;
-    }
-
-    private String improveDateString(String dateStr) {
-        // We remove the first part if necessary (the day display)
-        int coma = dateStr.indexOf(", ");
-        if (coma != -1) {
-            dateStr = dateStr.substring(coma + 2);
-        }
-
-        dateStr = dateStr.replaceAll("([0-9])T([0-9])", "$1 $2").replaceAll("Z$", "").replaceAll("  ", " ").trim(); // fix useless char
-
-        // Replace bad timezones
-        for (String[] timezoneReplace : TIMEZONES_REPLACE) {
-            dateStr = dateStr.replace(timezoneReplace[0], timezoneReplace[1]);
-        }
-
-        return dateStr;
+        return new Date(date > mNow ? mNow : date);
     }
 
     @Override
@@ -621,6 +748,11 @@ public class RssAtomParser extends DefaultHandler {
 
     @Override
     public void endDocument() throws SAXException {
+        saveEntries();
+        super.endDocument();
+    }
+
+    private void saveEntries() {
         ContentResolver cr = MainApplication.getContext().getContentResolver();
 
         try {
@@ -657,70 +789,90 @@ public class RssAtomParser extends DefaultHandler {
         values.put(FeedColumns.LAST_UPDATE, System.currentTimeMillis() - 3000); // by precaution to not miss some feeds
         values.put(FeedData.FeedColumns.REAL_LAST_UPDATE, mNewRealLastUpdate);
         cr.update(FeedColumns.CONTENT_URI(mId), values, null, null);
-
-        super.endDocument();
     }
 
-    private class FeedFilters {
+    /**
+     * Fingerprints of the links and guids of the entries already stored for the feed, loaded once per refresh. A missing
+     * fingerprint means that the entry is definitely new. A present one may be a collision, the database has the final word.
+     * The content hash of each entry is also kept, so that an entry which did not change since the last refresh is not rewritten.
+     */
+    private static class KnownEntries {
+
+        private static final String[] HASHED_COLUMNS = new String[]{EntryColumns.TITLE, EntryColumns.ABSTRACT, EntryColumns.IMAGE_URL,
+                EntryColumns.AUTHOR, EntryColumns.ENCLOSURE, EntryColumns.GUID};
+        private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
 
-        private final ArrayList<Rule> mFilters = new ArrayList<>();
+        private final long[] mLinkFingerprints;
+        private final long[] mGuidFingerprints;
+        private final long[] mContentFingerprints;
 
-        public FeedFilters(String feedId) {
+        public KnownEntries(String feedId) {
             ContentResolver cr = MainApplication.getContext().getContentResolver();
-            Cursor c = cr.query(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(feedId), new String[]{FilterColumns.FILTER_TEXT, FilterColumns.IS_REGEX,
-                    FilterColumns.IS_APPLIED_TO_TITLE, FilterColumns.IS_ACCEPT_RULE}, null, null, null);
+            Cursor c = cr.query(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(feedId), new String[]{EntryColumns.LINK, EntryColumns.GUID,
+                    EntryColumns.CONTENT_HASH}, null, null, null);
+            long[] linkFingerprints = new long[c.getCount()];
+            long[] guidFingerprints = new long[c.getCount()];
+            long[] contentFingerprints = new long[c.getCount()];
+            int linkCount = 0, guidCount = 0, contentCount = 0;
             while (c.moveToNext()) {
-                Rule r = new Rule();
-                r.filterText = c.getString(0);
-                r.isRegex = c.getInt(1) == 1;
-                r.isAppliedToTitle = c.getInt(2) == 1;
-                r.isAcceptRule = c.getInt(3) == 1;
-                mFilters.add(r);
+                String link = c.getString(0);
+                String guid = c.getString(1);
+                if (link != null) {
+                    linkFingerprints[linkCount++] = fingerprint(link);
+                    if (!c.isNull(2)) { // entries stored before the content hash was introduced are rewritten once
+                        contentFingerprints[contentCount++] = contentFingerprint(link, guid, c.getLong(2));
+                    }
+                }
+                if (guid != null) {
+                    guidFingerprints[guidCount++] = fingerprint(guid);
+                }
             }
             c.close();
 
+            mLinkFingerprints = Arrays.copyOf(linkFingerprints, linkCount);
+            Arrays.sort(mLinkFingerprints);
+            mGuidFingerprints = Arrays.copyOf(guidFingerprints, guidCount);
+            Arrays.sort(mGuidFingerprints);
+            mContentFingerprints = Arrays.copyOf(contentFingerprints, contentCount);
+            Arrays.sort(mContentFingerprints);
         }
 
-        public boolean isEntryFiltered(String title, String content) {
-
-            boolean isFiltered = false;
-
-            for (Rule r : mFilters) {
+        public boolean mightContain(String link, String guid) {
+            return Arrays.binarySearch(mLinkFingerprints, fingerprint(link)) >= 0
+                    && (guid == null || Arrays.binarySearch(mGuidFingerprints, fingerprint(guid)) >= 0);
+        }
 
-                boolean isMatch = false;
-                if (r.isRegex) {
-                    Pattern p = Pattern.compile(r.filterText);
-                    if (r.isAppliedToTitle) {
-                        Matcher m = p.matcher(title);
-                        isMatch = m.find();
-                    } else if (content != null) {
-                        Matcher m = p.matcher(content);
-                        isMatch = m.find();
-                    }
-                } else if ((r.isAppliedToTitle && title.contains(r.filterText)) || (!r.isAppliedToTitle && content != null && content.contains(r.filterText))) {
-                    isMatch = true;
-                }
+        public boolean isUnchanged(String link, String guid, long contentHash) {
+            return Arrays.binarySearch(mContentFingerprints, contentFingerprint(link, guid, contentHash)) >= 0;
+        }
 
-                if (r.isAcceptRule) {
-                    if (isMatch) {
-                        // accept rules override reject rules, the rest of the rules must be ignored
-                        isFiltered = false;
-                        break;
-                    }
-                } else if (isMatch) {
-                    isFiltered = true;
-                    // no break, there might be an accept rule later
-                }
+        public static long contentHash(ContentValues values) {
+            long hash = FNV_OFFSET_BASIS;
+            for (String column : HASHED_COLUMNS) {
+                hash = fingerprint(hash, values.getAsString(column));
             }
+            return hash;
+        }
 
-            return isFiltered;
+        private static long contentFingerprint(String link, String guid, long contentHash) {
+            return fingerprint(fingerprint(FNV_OFFSET_BASIS ^ contentHash, link), guid);
         }
 
-        private class Rule {
-            public String filterText;
-            public boolean isRegex;
-            public boolean isAppliedToTitle;
-            public boolean isAcceptRule;
+        private static long fingerprint(String value) {
+            return fingerprint(FNV_OFFSET_BASIS, value);
+        }
+
+        // 64-bit FNV-1a, far less collisions than String.hashCode()
+        private static long fingerprint(long hash, String value) {
+            if (value == null) {
+                return (hash ^ 0x10000) * FNV_PRIME; // out of the char range, so null differs from every string
+            }
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= FNV_PRIME;
+            }
+            return (hash ^ 0x10001) * FNV_PRIME; // separator, so that "ab"+"c" differs from "a"+"bc"
         }
     }
 }
@@ -45,18 +45,24 @@
 
 package net.etuldan.sparss.provider;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Environment;
 import android.os.Handler;
 import android.util.Log;
 
+import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.parser.OPML;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.EntryContentColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.provider.FeedData.FilterColumns;
+import net.etuldan.sparss.provider.FeedData.IconColumns;
 import net.etuldan.sparss.provider.FeedData.TaskColumns;
+import net.etuldan.sparss.utils.IconUtils;
 
 import java.io.File;
 
@@ -64,11 +70,29 @@ class DatabaseHelper extends SQLiteOpenHelper {
     private static final String TAG = "DatabaseHelper";
 
     private static final String DATABASE_NAME = "FeedEx.db";
-    private static final int DATABASE_VERSION = 11;
+    private static final int DATABASE_VERSION = 21;
 
     private static final String ALTER_TABLE = "ALTER TABLE ";
     private static final String ADD = " ADD ";
 
+    // Android checkpoints every 100 pages, which is a sync every few entries during a refresh: SQLite's own default is used instead,
+    // and the log is truncated back after the checkpoints. The "normal" sync can't corrupt a database in WAL mode.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 1000;
+    private static final int WAL_SIZE_LIMIT = 4 * 1024 * 1024;
+
+    private static final String[] COUNTER_TRIGGERS = new String[]{
+            "CREATE TRIGGER IF NOT EXISTS entries_counters_insert AFTER INSERT ON " + EntryColumns.TABLE_NAME + " BEGIN "
+                    + updateCounters("+", "new") + " END",
+            "CREATE TRIGGER IF NOT EXISTS entries_counters_delete AFTER DELETE ON " + EntryColumns.TABLE_NAME + " BEGIN "
+                    + updateCounters("-", "old") + " END",
+            "CREATE TRIGGER IF NOT EXISTS entries_counters_update AFTER UPDATE OF " + EntryColumns.IS_READ + ", " + EntryColumns.IS_FAVORITE + ", "
+                    + EntryColumns.FEED_ID + " ON " + EntryColumns.TABLE_NAME + " WHEN " + isUnread("old") + " != " + isUnread("new") + Constants.DB_OR
+                    + isFavorite("old") + " != " + isFavorite("new") + Constants.DB_OR + "old." + EntryColumns.FEED_ID + " != new." + EntryColumns.FEED_ID
+                    + " BEGIN " + updateCounters("-", "old") + ' ' + updateCounters("+", "new") + " END"};
+    private static final String CONTENT_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS entry_contents_delete AFTER DELETE ON "
+            + EntryColumns.TABLE_NAME + " BEGIN DELETE FROM " + EntryContentColumns.TABLE_NAME + " WHERE " + EntryContentColumns._ID + " = old."
+            + EntryColumns._ID + "; END";
+
     private final Handler mHandler;
 
     public DatabaseHelper(Handler handler, Context context) {
@@ -81,7 +105,12 @@ class DatabaseHelper extends SQLiteOpenHelper {
         database.execSQL(createTable(FeedColumns.TABLE_NAME, FeedColumns.COLUMNS));
         database.execSQL(createTable(FilterColumns.TABLE_NAME, FilterColumns.COLUMNS));
         database.execSQL(createTable(EntryColumns.TABLE_NAME, EntryColumns.COLUMNS));
+        database.execSQL(createTable(EntryContentColumns.TABLE_NAME, EntryContentColumns.COLUMNS));
         database.execSQL(createTable(TaskColumns.TABLE_NAME, TaskColumns.COLUMNS));
+        database.execSQL(createTable(IconColumns.TABLE_NAME, IconColumns.COLUMNS));
+        database.execSQL(SearchIndex.CREATE_TABLE);
+        createEntryTriggers(database);
+        createIndexes(database);
 
         // Check if we need to import the backup
         File backupFile = new File(OPML.BACKUP_OPML);
@@ -132,6 +161,19 @@ class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    private void createIndexes(SQLiteDatabase database) {
+        for (String[] index : EntryColumns.INDEXES) {
+            executeCatchedSQL(database, createIndex(EntryColumns.TABLE_NAME, index));
+        }
+        for (String[] index : TaskColumns.INDEXES) {
+            executeCatchedSQL(database, createIndex(TaskColumns.TABLE_NAME, index));
+        }
+    }
+
+    private String createIndex(String tableName, String[] index) {
+        return "CREATE INDEX IF NOT EXISTS " + index[0] + " ON " + tableName + " (" + index[1] + ");";
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase database, int oldVersion, int newVersion) {
         if (oldVersion < 2) {
@@ -172,6 +214,178 @@ class DatabaseHelper extends SQLiteOpenHelper {
             executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.HTTP_AUTH_LOGIN + ' ' + FeedData.TYPE_TEXT);
             executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.HTTP_AUTH_PASSWORD + ' ' + FeedData.TYPE_TEXT);
         }
+        if (oldVersion < 12) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.ETAG + ' ' + FeedData.TYPE_TEXT);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.LAST_MODIFIED + ' ' + FeedData.TYPE_TEXT);
+        }
+        if (oldVersion < 13) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.FETCH_INTERVAL + ' ' + FeedData.TYPE_INT);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.NEXT_FETCH_DATE + ' ' + FeedData.TYPE_DATE_TIME);
+        }
+        if (oldVersion < 14) {
+            createIndexes(database);
+        }
+        if (oldVersion < 15) {
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.CONTENT_HASH + ' ' + FeedData.TYPE_INT);
+        }
+        if (oldVersion < 16) {
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.ABSTRACT_IMAGES + ' ' + FeedData.TYPE_TEXT);
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.MOBILIZED_IMAGES + ' ' + FeedData.TYPE_TEXT);
+        }
+        if (oldVersion < 17) {
+            executeCatchedSQL(database, ALTER_TABLE + EntryColumns.TABLE_NAME + ADD + EntryColumns.MOBILIZED_TRUNCATED + ' ' + FeedData.TYPE_BOOLEAN);
+        }
+        if (oldVersion < 18) {
+            executeCatchedSQL(database, createTable(IconColumns.TABLE_NAME, IconColumns.COLUMNS));
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.ICON_ID + ' ' + FeedData.TYPE_EXTERNAL_ID);
+            moveIconsToIconTable(database);
+        }
+        if (oldVersion < 19) {
+            // The existing entries are indexed in the background by SearchIndex.startBackfill()
+            executeCatchedSQL(database, SearchIndex.CREATE_TABLE);
+            executeCatchedSQL(database, SearchIndex.CREATE_DELETE_TRIGGER);
+        }
+        if (oldVersion < 20) {
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.UNREAD_COUNT + ' ' + FeedData.TYPE_COUNTER);
+            executeCatchedSQL(database, ALTER_TABLE + FeedColumns.TABLE_NAME + ADD + FeedColumns.FAVORITE_COUNT + ' ' + FeedData.TYPE_COUNTER);
+            // A last full count, the triggers keep the counters up to date from now on
+            executeCatchedSQL(database, "UPDATE " + FeedColumns.TABLE_NAME + " SET " + FeedColumns.UNREAD_COUNT + " = (SELECT " + Constants.DB_COUNT
+                    + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.FEED_ID + '=' + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID
+                    + Constants.DB_AND + EntryColumns.IS_READ + Constants.DB_IS_NULL + "), " + FeedColumns.FAVORITE_COUNT + " = (SELECT "
+                    + Constants.DB_COUNT + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.FEED_ID + '=' + FeedColumns.TABLE_NAME + '.'
+                    + FeedColumns._ID + Constants.DB_AND + EntryColumns.IS_FAVORITE + Constants.DB_IS_TRUE + ')');
+            for (String trigger : COUNTER_TRIGGERS) {
+                executeCatchedSQL(database, trigger);
+            }
+        }
+        if (oldVersion < 21) {
+            moveContentsToContentTable(database);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase database) {
+        super.onOpen(database);
+        enableWriteAheadLogging(database);
+        SearchIndex.startBackfill(this);
+    }
+
+    /**
+     * Switches the database to the write-ahead log, so the lists are read from their own connections while the refresh writes the
+     * entries, instead of waiting for the end of its transactions.
+     */
+    static void enableWriteAheadLogging(SQLiteDatabase database) {
+        if (database.isReadOnly() || !database.enableWriteAheadLogging()) { // not possible for the in-memory databases
+            return;
+        }
+
+        executePragma(database, "wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+        executePragma(database, "journal_size_limit=" + WAL_SIZE_LIMIT);
+        executePragma(database, "synchronous=NORMAL");
+    }
+
+    /**
+     * Some pragmas return their new value, which execSQL() doesn't accept. The cursor has to be moved for the pragma to be executed.
+     */
+    private static void executePragma(SQLiteDatabase database, String pragma) {
+        try {
+            Cursor cursor = database.rawQuery("PRAGMA " + pragma, null);
+            cursor.moveToFirst();
+            cursor.close();
+        } catch (Exception e) {
+            Log.e(TAG, "Error while executing the pragma " + pragma, e);
+        }
+    }
+
+    private void createEntryTriggers(SQLiteDatabase database) {
+        database.execSQL(SearchIndex.CREATE_DELETE_TRIGGER);
+        database.execSQL(CONTENT_DELETE_TRIGGER);
+        for (String trigger : COUNTER_TRIGGERS) {
+            database.execSQL(trigger);
+        }
+    }
+
+    /**
+     * Rebuilds the entries table without the html bodies, which are moved to their own table (a column can't be dropped). The errors
+     * are not caught: the whole upgrade is rolled back rather than leaving the entries half moved.
+     */
+    private void moveContentsToContentTable(SQLiteDatabase database) {
+        String oldTable = EntryColumns.TABLE_NAME + "_old";
+
+        StringBuilder columns = new StringBuilder();
+        for (String[] column : EntryColumns.COLUMNS) {
+            if (columns.length() > 0) {
+                columns.append(", ");
+            }
+            columns.append(column[0]);
+        }
+
+        // The indexes and the triggers follow the renamed table, and are dropped with it
+        database.execSQL(ALTER_TABLE + EntryColumns.TABLE_NAME + " RENAME TO " + oldTable);
+        database.execSQL(createTable(EntryColumns.TABLE_NAME, EntryColumns.COLUMNS));
+        database.execSQL(createTable(EntryContentColumns.TABLE_NAME, EntryContentColumns.COLUMNS));
+
+        database.execSQL("INSERT INTO " + EntryColumns.TABLE_NAME + " (" + columns + ") SELECT " + columns + " FROM " + oldTable);
+        database.execSQL("INSERT INTO " + EntryContentColumns.TABLE_NAME + " (" + EntryContentColumns._ID + ", " + EntryContentColumns.ABSTRACT
+                + ", " + EntryContentColumns.MOBILIZED_HTML + ") SELECT " + EntryColumns._ID + ", " + EntryColumns.ABSTRACT + ", "
+                + EntryColumns.MOBILIZED_HTML + " FROM " + oldTable + " WHERE " + EntryColumns.ABSTRACT + Constants.DB_IS_NOT_NULL + Constants.DB_OR
+                + EntryColumns.MOBILIZED_HTML + Constants.DB_IS_NOT_NULL);
+
+        // The ids of the deleted entries must not be given again, their images may still be on the disk
+        database.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + EntryColumns.TABLE_NAME + '\'');
+        database.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + EntryColumns.TABLE_NAME + "', seq FROM sqlite_sequence WHERE name = '"
+                + oldTable + '\'');
+
+        database.execSQL("DROP TABLE " + oldTable);
+        createEntryTriggers(database);
+        createIndexes(database);
+    }
+
+    /**
+     * Normalizes the raw icons of the feeds into the icon table. The old column can't be dropped, so it is only emptied.
+     */
+    private void moveIconsToIconTable(SQLiteDatabase database) {
+        try {
+            Cursor cursor = database.query(FeedColumns.TABLE_NAME, new String[]{FeedColumns._ID, FeedColumns.ICON}, FeedColumns.ICON
+                    + Constants.DB_IS_NOT_NULL, null, null, null, null);
+            while (cursor.moveToNext()) {
+                byte[] icon = IconUtils.normalizeIcon(cursor.getBlob(1));
+                if (icon != null) {
+                    ContentValues iconValues = new ContentValues();
+                    iconValues.put(IconColumns.HASH, IconUtils.getHash(icon));
+                    iconValues.put(IconColumns.DATA, icon);
+                    long iconId = FeedDataContentProvider.insertIcon(database, iconValues);
+
+                    if (iconId != -1) {
+                        ContentValues feedValues = new ContentValues();
+                        feedValues.put(FeedColumns.ICON_ID, iconId);
+                        database.update(FeedColumns.TABLE_NAME, feedValues, FeedColumns._ID + '=' + cursor.getLong(0), null);
+                    }
+                }
+            }
+            cursor.close();
+
+            executeCatchedSQL(database, "UPDATE " + FeedColumns.TABLE_NAME + " SET " + FeedColumns.ICON + " = NULL");
+        } catch (Exception e) {
+            Log.e(TAG, "Error while moving the icons", e);
+        }
+    }
+
+    /**
+     * Returns the statement which adds (or subtracts) the new (or old) entry to the counters of its feed.
+     */
+    private static String updateCounters(String operator, String entry) {
+        return "UPDATE " + FeedColumns.TABLE_NAME + " SET " + FeedColumns.UNREAD_COUNT + " = " + FeedColumns.UNREAD_COUNT + ' ' + operator + ' '
+                + isUnread(entry) + ", " + FeedColumns.FAVORITE_COUNT + " = " + FeedColumns.FAVORITE_COUNT + ' ' + operator + ' ' + isFavorite(entry)
+                + " WHERE " + FeedColumns._ID + " = " + entry + '.' + EntryColumns.FEED_ID + ';';
+    }
+
+    private static String isUnread(String entry) {
+        return '(' + entry + '.' + EntryColumns.IS_READ + Constants.DB_IS_NULL + ')';
+    }
+
+    private static String isFavorite(String entry) {
+        return "(IFNULL(" + entry + '.' + EntryColumns.IS_FAVORITE + ", 0)" + Constants.DB_IS_TRUE + ')';
     }
 
     private void executeCatchedSQL(SQLiteDatabase database, String query) {
@@ -60,16 +60,27 @@ public class FeedData {
     public static final String FEEDS_TABLE_WITH_GROUP_PRIORITY = FeedColumns.TABLE_NAME + " LEFT JOIN (SELECT " + FeedColumns._ID + " AS joined_feed_id, " + FeedColumns.PRIORITY +
             " AS group_priority FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + FeedColumns.TABLE_NAME + '.' + FeedColumns.GROUP_ID + " = f.joined_feed_id)";
     public static final String ENTRIES_TABLE_WITH_FEED_INFO = EntryColumns.TABLE_NAME + " JOIN (SELECT " + FeedColumns._ID + " AS joined_feed_id, " + FeedColumns.NAME + ", " + FeedColumns.URL + ", " +
-            FeedColumns.ICON + ", " + FeedColumns.GROUP_ID + " FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns.FEED_ID + " = f.joined_feed_id)";
-    public static final String ALL_UNREAD_NUMBER = "(SELECT " + Constants.DB_COUNT + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.IS_READ + " IS NULL)";
-    public static final String FAVORITES_NUMBER = "(SELECT " + Constants.DB_COUNT + " FROM " + EntryColumns.TABLE_NAME + " WHERE " + EntryColumns.IS_FAVORITE + Constants.DB_IS_TRUE + ')';
+            FeedColumns.ICON_ID + ", " + FeedColumns.GROUP_ID + " FROM " + FeedColumns.TABLE_NAME + ") AS f ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns.FEED_ID + " = f.joined_feed_id)";
+    // The html bodies are only joined for the queries of a single entry, the lists stay on the small rows of the entries
+    private static final String CONTENT_JOIN = " LEFT JOIN (SELECT " + EntryContentColumns._ID + " AS joined_content_id, " + EntryContentColumns.ABSTRACT + ", " +
+            EntryContentColumns.MOBILIZED_HTML + " FROM " + EntryContentColumns.TABLE_NAME + ") AS c ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + " = c.joined_content_id)";
+    public static final String ENTRIES_TABLE_WITH_CONTENT = EntryColumns.TABLE_NAME + CONTENT_JOIN;
+    public static final String ENTRIES_TABLE_WITH_FEED_INFO_AND_CONTENT = ENTRIES_TABLE_WITH_FEED_INFO + CONTENT_JOIN;
+    public static final String TASKS_TABLE_WITH_ENTRY_INFO = TaskColumns.TABLE_NAME + " LEFT JOIN " + EntryColumns.TABLE_NAME + " ON (" + TaskColumns.TABLE_NAME + '.' +
+            TaskColumns.ENTRY_ID + " = " + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + ") LEFT JOIN " + FeedColumns.TABLE_NAME + " ON (" + EntryColumns.TABLE_NAME + '.' +
+            EntryColumns.FEED_ID + " = " + FeedColumns.TABLE_NAME + '.' + FeedColumns._ID + ')' + CONTENT_JOIN;
+    // To be queried on the feeds, whose counters are maintained by triggers on the entries
+    public static final String ALL_UNREAD_NUMBER = "IFNULL(SUM(" + FeedColumns.UNREAD_COUNT + "), 0)";
+    public static final String FAVORITES_NUMBER = "IFNULL(SUM(" + FeedColumns.FAVORITE_COUNT + "), 0)";
     static final String TYPE_PRIMARY_KEY = "INTEGER PRIMARY KEY AUTOINCREMENT";
+    static final String TYPE_ROW_ID = "INTEGER PRIMARY KEY";
     static final String TYPE_EXTERNAL_ID = "INTEGER(7)";
     static final String TYPE_TEXT = "TEXT";
     static final String TYPE_TEXT_UNIQUE = "TEXT UNIQUE";
     static final String TYPE_DATE_TIME = "DATETIME";
     static final String TYPE_INT = "INT";
     static final String TYPE_BOOLEAN = "INTEGER(1)";
+    static final String TYPE_COUNTER = "INT DEFAULT 0";
 
     public static ContentValues getReadContentValues() {
         ContentValues values = new ContentValues();
@@ -103,10 +114,17 @@ public class FeedData {
         public static final String LAST_UPDATE = "lastupdate";
         public static final String REAL_LAST_UPDATE = "reallastupdate";
         public static final String RETRIEVE_FULLTEXT = "retrievefulltext";
-        public static final String ICON = "icon";
+        public static final String ICON = "icon"; // the raw favicon before the database version 18, replaced by ICON_ID
+        public static final String ICON_ID = "icon_id";
         public static final String ERROR = "error";
         public static final String PRIORITY = "priority";
         public static final String FETCH_MODE = "fetchmode";
+        public static final String ETAG = "etag";
+        public static final String LAST_MODIFIED = "lastmodified";
+        public static final String FETCH_INTERVAL = "fetchinterval";
+        public static final String NEXT_FETCH_DATE = "nextfetchdate";
+        public static final String UNREAD_COUNT = "unread_count"; // maintained by triggers on the entries, always 0 for the groups
+        public static final String FAVORITE_COUNT = "favorite_count"; // same
         public static final String[] PROJECTION_ID = new String[]{FeedColumns._ID};
         public static final String[] PROJECTION_GROUP_ID = new String[]{FeedColumns.GROUP_ID};
         public static final String[] PROJECTION_PRIORITY = new String[]{FeedColumns.PRIORITY};
@@ -121,7 +139,8 @@ public class FeedData {
 
         public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {URL, TYPE_TEXT_UNIQUE}, {NAME, TYPE_TEXT},{COOKIE_NAME, TYPE_TEXT},{COOKIE_VALUE, TYPE_TEXT},{HTTP_AUTH_LOGIN, TYPE_TEXT},{HTTP_AUTH_PASSWORD, TYPE_TEXT}, {KEEP_TIME, TYPE_DATE_TIME},{IS_GROUP, TYPE_BOOLEAN},
                 {GROUP_ID, TYPE_EXTERNAL_ID}, {LAST_UPDATE, TYPE_DATE_TIME}, {REAL_LAST_UPDATE, TYPE_DATE_TIME}, {RETRIEVE_FULLTEXT, TYPE_BOOLEAN},
-                {ICON, "BLOB"}, {ERROR, TYPE_TEXT}, {PRIORITY, TYPE_INT}, {FETCH_MODE, TYPE_INT}};
+                {ICON_ID, TYPE_EXTERNAL_ID}, {ERROR, TYPE_TEXT}, {PRIORITY, TYPE_INT}, {FETCH_MODE, TYPE_INT}, {ETAG, TYPE_TEXT}, {LAST_MODIFIED, TYPE_TEXT},
+                {FETCH_INTERVAL, TYPE_INT}, {NEXT_FETCH_DATE, TYPE_DATE_TIME}, {UNREAD_COUNT, TYPE_COUNTER}, {FAVORITE_COUNT, TYPE_COUNTER}};
 
         public static Uri GROUPS_CONTENT_URI(String groupId) {
             return Uri.parse(CONTENT_AUTHORITY + "/groups/" + groupId);
@@ -156,6 +175,7 @@ public class FeedData {
         public static final String IS_APPLIED_TO_TITLE = "isappliedtotitle";
         public static final String IS_ACCEPT_RULE = "isacceptrule";
 
+        // The id can also be the one of a group, to apply the filters to all the feeds of the group
         public static Uri FILTERS_FOR_FEED_CONTENT_URI(String feedId) {
             return Uri.parse(CONTENT_AUTHORITY + "/feeds/" + feedId + "/filters");
         }
@@ -168,6 +188,7 @@ public class FeedData {
                 {IS_REGEX, TYPE_BOOLEAN}, {IS_APPLIED_TO_TITLE, TYPE_BOOLEAN}, {IS_ACCEPT_RULE, TYPE_BOOLEAN}};
 
         public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/filters");
+        public static final Uri GLOBAL_FILTERS_CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/filters/global"); // applied to all the feeds
     }
 
     public static class EntryColumns implements BaseColumns {
@@ -175,8 +196,8 @@ public class FeedData {
 
         public static final String FEED_ID = "feedid";
         public static final String TITLE = "title";
-        public static final String ABSTRACT = "abstract";
-        public static final String MOBILIZED_HTML = "mobilized";
+        public static final String ABSTRACT = "abstract"; // stored apart since the database version 21, see EntryContentColumns
+        public static final String MOBILIZED_HTML = "mobilized"; // same
         public static final String DATE = "date";
         public static final String FETCH_DATE = "fetch_date";
         public static final String IS_READ = "isread";
@@ -186,18 +207,34 @@ public class FeedData {
         public static final String GUID = "guid";
         public static final String AUTHOR = "author";
         public static final String IMAGE_URL = "image_url";
+        public static final String CONTENT_HASH = "contenthash";
+        public static final String ABSTRACT_IMAGES = "abstract_images"; // image urls of the abstract, see HtmlUtils.toImageManifest()
+        public static final String MOBILIZED_IMAGES = "mobilized_images"; // image urls of the mobilized html
+        public static final String MOBILIZED_TRUNCATED = "mobilized_truncated"; // the page was cut at the maximum download size
         public static final String[] PROJECTION_ID = new String[]{EntryColumns._ID};
         public static final String WHERE_READ = EntryColumns.IS_READ + Constants.DB_IS_TRUE;
         public static final String WHERE_UNREAD = "(" + EntryColumns.IS_READ + Constants.DB_IS_NULL + Constants.DB_OR + EntryColumns.IS_READ + Constants.DB_IS_FALSE + ')';
         public static final String WHERE_NOT_FAVORITE = "(" + EntryColumns.IS_FAVORITE + Constants.DB_IS_NULL + Constants.DB_OR + EntryColumns.IS_FAVORITE + Constants.DB_IS_FALSE + ')';
+        public static final String WHERE_NOT_MOBILIZED = "NOT EXISTS (SELECT 1 FROM " + EntryContentColumns.TABLE_NAME + " WHERE "
+                + EntryContentColumns.TABLE_NAME + '.' + EntryContentColumns._ID + " = " + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID
+                + Constants.DB_AND + EntryContentColumns.MOBILIZED_HTML + Constants.DB_IS_NOT_NULL + ')';
 
         public static Uri ENTRIES_FOR_FEED_CONTENT_URI(String feedId) {
             return Uri.parse(CONTENT_AUTHORITY + "/feeds/" + feedId + "/entries");
         }
 
         public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {FEED_ID, TYPE_EXTERNAL_ID}, {TITLE, TYPE_TEXT},
-                {ABSTRACT, TYPE_TEXT}, {MOBILIZED_HTML, TYPE_TEXT}, {DATE, TYPE_DATE_TIME}, {FETCH_DATE, TYPE_DATE_TIME}, {IS_READ, TYPE_BOOLEAN}, {LINK, TYPE_TEXT},
-                {IS_FAVORITE, TYPE_BOOLEAN}, {ENCLOSURE, TYPE_TEXT}, {GUID, TYPE_TEXT}, {AUTHOR, TYPE_TEXT}, {IMAGE_URL, TYPE_TEXT}};
+                {DATE, TYPE_DATE_TIME}, {FETCH_DATE, TYPE_DATE_TIME}, {IS_READ, TYPE_BOOLEAN}, {LINK, TYPE_TEXT},
+                {IS_FAVORITE, TYPE_BOOLEAN}, {ENCLOSURE, TYPE_TEXT}, {GUID, TYPE_TEXT}, {AUTHOR, TYPE_TEXT}, {IMAGE_URL, TYPE_TEXT},
+                {CONTENT_HASH, TYPE_INT}, {ABSTRACT_IMAGES, TYPE_TEXT}, {MOBILIZED_IMAGES, TYPE_TEXT},
+                {MOBILIZED_TRUNCATED, TYPE_BOOLEAN}};
+
+        public static final String[][] INDEXES = new String[][]{
+                {"entries_feedid_link_idx", FEED_ID + ", " + LINK}, // existence check of the parsed entries
+                {"entries_feedid_isread_idx", FEED_ID + ", " + IS_READ}, // unread count of each feed
+                {"entries_feedid_date_idx", FEED_ID + ", " + DATE}, // entries of a feed & their cleanup
+                {"entries_date_idx", DATE}, // entries lists & global cleanup
+                {"entries_favorite_idx", IS_FAVORITE}};
 
         public static Uri ENTRIES_FOR_FEED_CONTENT_URI(long feedId) {
             return Uri.parse(CONTENT_AUTHORITY + "/feeds/" + feedId + "/entries");
@@ -242,6 +279,44 @@ public class FeedData {
 
     }
 
+    /**
+     * The html bodies of the entries, whose _id is the one of their entry. The provider reads and writes them with the other columns
+     * of the entries.
+     */
+    public static class EntryContentColumns implements BaseColumns {
+        public static final String TABLE_NAME = "entry_contents";
+
+        public static final String ABSTRACT = EntryColumns.ABSTRACT;
+        public static final String MOBILIZED_HTML = EntryColumns.MOBILIZED_HTML;
+
+        public static final String STORED_MOBILIZED_HTML_SIZE = "SUM(LENGTH(CAST(" + MOBILIZED_HTML + " AS BLOB)))"; // in bytes, compressed or not
+
+        public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_ROW_ID}, {ABSTRACT, TYPE_TEXT}, {MOBILIZED_HTML, TYPE_TEXT}};
+
+        public static Uri CONTENT_URI(long entryId) {
+            return Uri.parse(CONTENT_AUTHORITY + "/entry_contents/" + entryId);
+        }
+
+        // Only to change how the bodies are stored (see CompressionUtils), not their text: the search index is not updated and nothing is notified
+        public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/entry_contents");
+    }
+
+    public static class IconColumns implements BaseColumns {
+        public static final String TABLE_NAME = "icons";
+
+        public static final String HASH = "hash"; // of the data, see IconUtils.getHash()
+        public static final String DATA = "data"; // the normalized icon, see IconUtils.normalizeIcon()
+        public static final String[] PROJECTION_ID = new String[]{IconColumns._ID};
+
+        public static Uri CONTENT_URI(long iconId) {
+            return Uri.parse(CONTENT_AUTHORITY + "/icons/" + iconId);
+        }
+
+        public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {HASH, TYPE_TEXT_UNIQUE}, {DATA, "BLOB"}};
+
+        public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/icons"); // an existing icon is returned instead of inserted again
+    }
+
     public static class TaskColumns implements BaseColumns {
         public static final String TABLE_NAME = "tasks";
 
@@ -261,6 +336,10 @@ public class FeedData {
         public static final String[][] COLUMNS = new String[][]{{_ID, TYPE_PRIMARY_KEY}, {ENTRY_ID, TYPE_EXTERNAL_ID}, {IMG_URL_TO_DL, TYPE_TEXT},
                 {NUMBER_ATTEMPT, TYPE_INT}, {"UNIQUE", "(" + ENTRY_ID + ", " + IMG_URL_TO_DL + ") ON CONFLICT IGNORE"}};
 
+        // The unique constraint above is missing on tables created before the database version 5
+        public static final String[][] INDEXES = new String[][]{{"tasks_entryid_idx", ENTRY_ID}};
+
         public static final Uri CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/tasks");
+        public static final Uri TASKS_WITH_ENTRY_INFO_CONTENT_URI = Uri.parse(CONTENT_AUTHORITY + "/tasks/entries");
     }
 }
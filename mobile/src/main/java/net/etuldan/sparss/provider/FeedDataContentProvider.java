@@ -46,10 +46,13 @@
 package net.etuldan.sparss.provider;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
@@ -64,11 +67,17 @@ import net.etuldan.sparss.BuildConfig;
 import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.R;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.EntryContentColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.provider.FeedData.FilterColumns;
+import net.etuldan.sparss.provider.FeedData.IconColumns;
 import net.etuldan.sparss.provider.FeedData.TaskColumns;
+import net.etuldan.sparss.utils.CompressionUtils;
+import net.etuldan.sparss.utils.PrefUtils;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
 
 public class FeedDataContentProvider extends ContentProvider {
 
@@ -94,6 +103,12 @@ public class FeedDataContentProvider extends ContentProvider {
     public static final int URI_TASK = 20;
     public static final int URI_SEARCH = 21;
     public static final int URI_SEARCH_ENTRY = 22;
+    public static final int URI_TASKS_WITH_ENTRY_INFO = 23;
+    public static final int URI_GLOBAL_FILTERS = 24;
+    public static final int URI_ICONS = 25;
+    public static final int URI_ICON = 26;
+    public static final int URI_ENTRY_CONTENTS = 27;
+    public static final int URI_ENTRY_CONTENT = 28;
 
     public static final UriMatcher URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
 
@@ -109,6 +124,7 @@ public class FeedDataContentProvider extends ContentProvider {
         URI_MATCHER.addURI(FeedData.AUTHORITY, "groups/#/entries", URI_ENTRIES_FOR_GROUP);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "groups/#/entries/#", URI_ENTRY_FOR_GROUP);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "filters", URI_FILTERS);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "filters/global", URI_GLOBAL_FILTERS);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "feeds/#/filters", URI_FILTERS_FOR_FEED);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "entries", URI_ENTRIES);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "entries/#", URI_ENTRY);
@@ -118,12 +134,22 @@ public class FeedDataContentProvider extends ContentProvider {
         URI_MATCHER.addURI(FeedData.AUTHORITY, "favorites/#", URI_FAVORITES_ENTRY);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "tasks", URI_TASKS);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "tasks/#", URI_TASK);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "tasks/entries", URI_TASKS_WITH_ENTRY_INFO);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "icons", URI_ICONS);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "icons/#", URI_ICON);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "entry_contents", URI_ENTRY_CONTENTS);
+        URI_MATCHER.addURI(FeedData.AUTHORITY, "entry_contents/#", URI_ENTRY_CONTENT);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "entries/search/*", URI_SEARCH);
         URI_MATCHER.addURI(FeedData.AUTHORITY, "entries/search/*/#", URI_SEARCH_ENTRY);
     }
 
+    private static final String[] ENTRY_CONTENT_COLUMNS = new String[]{EntryContentColumns.ABSTRACT, EntryContentColumns.MOBILIZED_HTML};
+
     private final String[] MAX_PRIORITY = new String[]{"MAX(" + FeedColumns.PRIORITY + ")"};
 
+    // Uris to notify at the end of the batch running on the current thread, null outside of a batch
+    private final ThreadLocal<LinkedHashSet<Uri>> mPendingNotifications = new ThreadLocal<>();
+
     private DatabaseHelper mDatabaseHelper;
 
     public static void addFeed(Context context, String url, String name, boolean retrieveFullText) {
@@ -162,14 +188,7 @@ public class FeedDataContentProvider extends ContentProvider {
     }
 
     private static String getSearchWhereClause(String uriSearchParam) {
-        uriSearchParam = Uri.decode(uriSearchParam).trim();
-
-        if (!uriSearchParam.isEmpty()) {
-            uriSearchParam = DatabaseUtils.sqlEscapeString("%" + Uri.decode(uriSearchParam) + "%");
-            return EntryColumns.TITLE + " LIKE " + uriSearchParam + Constants.DB_OR + EntryColumns.ABSTRACT + " LIKE " + uriSearchParam + Constants.DB_OR + EntryColumns.MOBILIZED_HTML + " LIKE " + uriSearchParam;
-        } else {
-            return "1 = 2"; // to have 0 result with an empty search
-        }
+        return SearchIndex.getWhereClause(Uri.decode(uriSearchParam));
     }
 
     @Override
@@ -187,6 +206,7 @@ public class FeedDataContentProvider extends ContentProvider {
                 return "vnd.android.cursor.item/vnd.spaRSS.feed";
             case URI_FILTERS:
             case URI_FILTERS_FOR_FEED:
+            case URI_GLOBAL_FILTERS:
                 return "vnd.android.cursor.dir/vnd.spaRSS.filter";
             case URI_FAVORITES:
             case URI_ALL_ENTRIES:
@@ -203,9 +223,18 @@ public class FeedDataContentProvider extends ContentProvider {
             case URI_SEARCH_ENTRY:
                 return "vnd.android.cursor.item/vnd.spaRSS.entry";
             case URI_TASKS:
+            case URI_TASKS_WITH_ENTRY_INFO:
                 return "vnd.android.cursor.dir/vnd.spaRSS.task";
             case URI_TASK:
                 return "vnd.android.cursor.item/vnd.spaRSS.task";
+            case URI_ICONS:
+                return "vnd.android.cursor.dir/vnd.spaRSS.icon";
+            case URI_ICON:
+                return "vnd.android.cursor.item/vnd.spaRSS.icon";
+            case URI_ENTRY_CONTENTS:
+                return "vnd.android.cursor.dir/vnd.spaRSS.entry_content";
+            case URI_ENTRY_CONTENT:
+                return "vnd.android.cursor.item/vnd.spaRSS.entry_content";
             default:
                 throw new IllegalArgumentException("Unknown URI: " + uri);
         }
@@ -273,10 +302,15 @@ public class FeedDataContentProvider extends ContentProvider {
                 queryBuilder.appendWhere(new StringBuilder(FilterColumns.FEED_ID).append('=').append(uri.getPathSegments().get(1)));
                 break;
             }
+            case URI_GLOBAL_FILTERS: {
+                queryBuilder.setTables(FilterColumns.TABLE_NAME);
+                queryBuilder.appendWhere(FilterColumns.FEED_ID + Constants.DB_IS_NULL);
+                break;
+            }
             case URI_ENTRY_FOR_FEED:
             case URI_ENTRY_FOR_GROUP:
             case URI_SEARCH_ENTRY: {
-                queryBuilder.setTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO);
+                queryBuilder.setTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO_AND_CONTENT);
                 queryBuilder.appendWhere(new StringBuilder(EntryColumns._ID).append('=').append(uri.getPathSegments().get(3)));
                 break;
             }
@@ -296,14 +330,16 @@ public class FeedDataContentProvider extends ContentProvider {
                 break;
             }
             case URI_SEARCH: {
-                queryBuilder.setTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO);
-                queryBuilder.appendWhere(getSearchWhereClause(uri.getPathSegments().get(2)));
+                String search = Uri.decode(uri.getPathSegments().get(2));
+                queryBuilder.setTables(SearchIndex.getRankedTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO, search));
+                queryBuilder.appendWhere(SearchIndex.getRankedWhereClause(search));
+                sortOrder = SearchIndex.getRankedSortOrder(search, sortOrder);
                 break;
             }
             case URI_FAVORITES_ENTRY:
             case URI_ALL_ENTRIES_ENTRY:
             case URI_ENTRY: {
-                queryBuilder.setTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO);
+                queryBuilder.setTables(FeedData.ENTRIES_TABLE_WITH_FEED_INFO_AND_CONTENT);
                 queryBuilder.appendWhere(new StringBuilder(EntryColumns._ID).append('=').append(uri.getPathSegments().get(1)));
                 break;
             }
@@ -321,6 +357,28 @@ public class FeedDataContentProvider extends ContentProvider {
                 queryBuilder.appendWhere(new StringBuilder(EntryColumns._ID).append('=').append(uri.getPathSegments().get(1)));
                 break;
             }
+            case URI_ICONS: {
+                queryBuilder.setTables(IconColumns.TABLE_NAME);
+                break;
+            }
+            case URI_ICON: {
+                queryBuilder.setTables(IconColumns.TABLE_NAME);
+                queryBuilder.appendWhere(new StringBuilder(IconColumns._ID).append('=').append(uri.getPathSegments().get(1)));
+                break;
+            }
+            case URI_ENTRY_CONTENTS: {
+                queryBuilder.setTables(EntryContentColumns.TABLE_NAME);
+                break;
+            }
+            case URI_ENTRY_CONTENT: {
+                queryBuilder.setTables(EntryContentColumns.TABLE_NAME);
+                queryBuilder.appendWhere(new StringBuilder(EntryContentColumns._ID).append('=').append(uri.getPathSegments().get(1)));
+                break;
+            }
+            case URI_TASKS_WITH_ENTRY_INFO: {
+                queryBuilder.setTables(FeedData.TASKS_TABLE_WITH_ENTRY_INFO);
+                break;
+            }
             default:
                 throw new IllegalArgumentException("Illegal query. Match code=" + matchCode + "; uri=" + uri);
         }
@@ -373,16 +431,35 @@ public class FeedDataContentProvider extends ContentProvider {
                 newId = database.insert(FilterColumns.TABLE_NAME, null, values);
                 break;
             }
+            case URI_GLOBAL_FILTERS: {
+                values.putNull(FilterColumns.FEED_ID);
+                newId = database.insert(FilterColumns.TABLE_NAME, null, values);
+                break;
+            }
             case URI_ENTRIES_FOR_FEED: {
                 values.put(EntryColumns.FEED_ID, uri.getPathSegments().get(1));
                 values.put(EntryColumns.FETCH_DATE, new Date().getTime());
+                ContentValues contentValues = removeEntryContent(values);
                 newId = database.insert(EntryColumns.TABLE_NAME, null, values);
+                if (newId != -1) {
+                    SearchIndex.indexEntry(database, newId, values.getAsString(EntryColumns.TITLE), contentValues.getAsString(EntryColumns.ABSTRACT),
+                            contentValues.getAsString(EntryColumns.MOBILIZED_HTML));
+                    if (contentValues.size() > 0) {
+                        compressEntryContent(contentValues);
+                        contentValues.put(EntryContentColumns._ID, newId);
+                        database.insert(EntryContentColumns.TABLE_NAME, null, contentValues);
+                    }
+                }
                 break;
             }
             case URI_TASKS: {
                 newId = database.insert(TaskColumns.TABLE_NAME, null, values);
                 break;
             }
+            case URI_ICONS: {
+                newId = insertIcon(database, values);
+                break;
+            }
             default:
                 throw new IllegalArgumentException("Illegal insert. Match code=" + matchCode + "; uri=" + uri);
         }
@@ -481,6 +558,11 @@ public class FeedDataContentProvider extends ContentProvider {
                 where.append(FilterColumns.FEED_ID).append('=').append(uri.getPathSegments().get(1));
                 break;
             }
+            case URI_GLOBAL_FILTERS: {
+                table = FilterColumns.TABLE_NAME;
+                where.append(FilterColumns.FEED_ID).append(Constants.DB_IS_NULL);
+                break;
+            }
             case URI_ENTRY_FOR_FEED:
             case URI_ENTRY_FOR_GROUP:
             case URI_SEARCH_ENTRY: {
@@ -529,6 +611,15 @@ public class FeedDataContentProvider extends ContentProvider {
                 where.append(TaskColumns._ID).append('=').append(uri.getPathSegments().get(1));
                 break;
             }
+            case URI_ENTRY_CONTENTS: {
+                table = EntryContentColumns.TABLE_NAME;
+                break;
+            }
+            case URI_ENTRY_CONTENT: {
+                table = EntryContentColumns.TABLE_NAME;
+                where.append(EntryContentColumns._ID).append('=').append(uri.getPathSegments().get(1));
+                break;
+            }
             default:
                 throw new IllegalArgumentException("Illegal update. Match code=" + matchCode + "; uri=" + uri);
         }
@@ -541,13 +632,34 @@ public class FeedDataContentProvider extends ContentProvider {
             }
         }
 
-        int count = database.update(table, values, where.toString(), selectionArgs);
+        int count;
+        if (EntryColumns.TABLE_NAME.equals(table) && SearchIndex.hasIndexedColumn(values)) {
+            ContentValues contentValues = removeEntryContent(values);
+            database.beginTransaction();
+            try {
+                long[] entryIds = SearchIndex.getEntryIds(database, where.toString(), selectionArgs);
+                count = values.size() > 0 ? database.update(table, values, where.toString(), selectionArgs) : entryIds.length;
+                if (contentValues.size() > 0) {
+                    compressEntryContent(contentValues);
+                    updateEntryContents(database, entryIds, contentValues);
+                }
+                SearchIndex.reindexEntries(database, entryIds);
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } else {
+            if (EntryContentColumns.TABLE_NAME.equals(table)) { // only the storage of the bodies changes, see EntryContentColumns.CONTENT_URI
+                compressEntryContent(values);
+            }
+            count = database.update(table, values, where.toString(), selectionArgs);
+        }
 
         if (FeedColumns.TABLE_NAME.equals(table)
                 && (values.containsKey(FeedColumns.NAME) || values.containsKey(FeedColumns.URL) || values.containsKey(FeedColumns.PRIORITY))) {
             mDatabaseHelper.exportToOPML();
         }
-        if (count > 0) {
+        if (count > 0 && !EntryContentColumns.TABLE_NAME.equals(table)) {
             notifyChangeOnAllUris(matchCode, uri);
         }
 
@@ -581,6 +693,9 @@ public class FeedDataContentProvider extends ContentProvider {
                 }
                 subFeedsCursor.close();
 
+                // and the group filters
+                delete(FilterColumns.FILTERS_FOR_FEED_CONTENT_URI(groupId), null, null);
+
                 // Update the priorities
                 Cursor priorityCursor = database.query(FeedColumns.TABLE_NAME, FeedColumns.PROJECTION_PRIORITY, FeedColumns._ID + "=" + groupId, null,
                         null, null, null);
@@ -645,6 +760,11 @@ public class FeedDataContentProvider extends ContentProvider {
                 where.append(FilterColumns.FEED_ID).append('=').append(uri.getPathSegments().get(1));
                 break;
             }
+            case URI_GLOBAL_FILTERS: {
+                table = FilterColumns.TABLE_NAME;
+                where.append(FilterColumns.FEED_ID).append(Constants.DB_IS_NULL);
+                break;
+            }
             case URI_ENTRY_FOR_FEED:
             case URI_ENTRY_FOR_GROUP:
             case URI_SEARCH_ENTRY: {
@@ -727,6 +847,10 @@ public class FeedDataContentProvider extends ContentProvider {
         if (count > 0) {
             if (FeedColumns.TABLE_NAME.equals(table)) {
                 mDatabaseHelper.exportToOPML();
+
+                // Remove the icons which are not used by any feed anymore
+                database.delete(IconColumns.TABLE_NAME, IconColumns._ID + " NOT IN (SELECT " + FeedColumns.ICON_ID + " FROM "
+                        + FeedColumns.TABLE_NAME + " WHERE " + FeedColumns.ICON_ID + Constants.DB_IS_NOT_NULL + ')', null);
             }
 
             notifyChangeOnAllUris(matchCode, uri);
@@ -734,18 +858,150 @@ public class FeedDataContentProvider extends ContentProvider {
         return count;
     }
 
+    /**
+     * Applies all the operations in a single transaction. The change notifications are sent once at the end, without
+     * duplicates.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        if (mPendingNotifications.get() != null) { // nested batch, the outer one handles the transaction
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+        boolean successful = false;
+        database.beginTransaction();
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+            successful = true;
+            return results;
+        } finally {
+            database.endTransaction();
+            flushPendingNotifications(successful);
+        }
+    }
+
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (mPendingNotifications.get() != null) {
+            return super.bulkInsert(uri, values);
+        }
+
+        SQLiteDatabase database = mDatabaseHelper.getWritableDatabase();
+        mPendingNotifications.set(new LinkedHashSet<Uri>());
+        boolean successful = false;
+        database.beginTransaction();
+        try {
+            int count = super.bulkInsert(uri, values);
+            database.setTransactionSuccessful();
+            successful = true;
+            return count;
+        } finally {
+            database.endTransaction();
+            flushPendingNotifications(successful);
+        }
+    }
+
+    private void flushPendingNotifications(boolean notify) {
+        LinkedHashSet<Uri> uris = mPendingNotifications.get();
+        mPendingNotifications.remove();
+
+        if (notify && uris != null) {
+            ContentResolver cr = getContext().getContentResolver();
+            for (Uri uri : uris) {
+                cr.notifyChange(uri, null);
+            }
+        }
+    }
+
+    /**
+     * Moves the html bodies out of the values of the entries, as they are stored in their own table.
+     */
+    private static ContentValues removeEntryContent(ContentValues values) {
+        ContentValues contentValues = new ContentValues();
+        for (String column : ENTRY_CONTENT_COLUMNS) {
+            if (values.containsKey(column)) {
+                contentValues.put(column, values.getAsString(column));
+                values.remove(column);
+            }
+        }
+        return contentValues;
+    }
+
+    /**
+     * Compresses the mobilized html if the user opted in, see {@link CompressionUtils}.
+     */
+    private static void compressEntryContent(ContentValues contentValues) {
+        String mobilizedHtml = contentValues.getAsString(EntryContentColumns.MOBILIZED_HTML);
+        if (mobilizedHtml != null && PrefUtils.getBoolean(PrefUtils.COMPRESS_MOBILIZED_HTML, false)) {
+            contentValues.put(EntryContentColumns.MOBILIZED_HTML, CompressionUtils.compress(mobilizedHtml));
+        }
+    }
+
+    private static void updateEntryContents(SQLiteDatabase database, long[] entryIds, ContentValues contentValues) {
+        ContentValues idValues = new ContentValues();
+        for (long entryId : entryIds) {
+            idValues.put(EntryContentColumns._ID, entryId);
+            database.insertWithOnConflict(EntryContentColumns.TABLE_NAME, null, idValues, SQLiteDatabase.CONFLICT_IGNORE);
+            database.update(EntryContentColumns.TABLE_NAME, contentValues, EntryContentColumns._ID + '=' + entryId, null);
+        }
+    }
+
+    /**
+     * The icons are content-addressed: the id of the icon with the same hash is returned instead of inserting it again
+     */
+    static long insertIcon(SQLiteDatabase database, ContentValues values) {
+        String hash = values.getAsString(IconColumns.HASH);
+        long iconId = getIconId(database, hash);
+        if (iconId == -1) {
+            iconId = database.insert(IconColumns.TABLE_NAME, null, values);
+            if (iconId == -1) { // inserted by another thread in the meantime
+                iconId = getIconId(database, hash);
+            }
+        }
+        return iconId;
+    }
+
+    private static long getIconId(SQLiteDatabase database, String hash) {
+        long iconId = -1;
+        Cursor cursor = database.query(IconColumns.TABLE_NAME, IconColumns.PROJECTION_ID, IconColumns.HASH + Constants.DB_ARG, new String[]{hash},
+                null, null, null);
+        if (cursor.moveToFirst()) {
+            iconId = cursor.getLong(0);
+        }
+        cursor.close();
+        return iconId;
+    }
+
     private void notifyChangeOnAllUris(int matchCode, Uri uri) {
-        ContentResolver cr = getContext().getContentResolver();
-        cr.notifyChange(uri, null);
+        LinkedHashSet<Uri> pendingUris = mPendingNotifications.get();
+        boolean inBatch = pendingUris != null;
+        LinkedHashSet<Uri> uris = inBatch ? pendingUris : new LinkedHashSet<Uri>();
+
+        uris.add(uri);
 
-        if (matchCode != URI_FILTERS && matchCode != URI_FILTERS_FOR_FEED && matchCode != URI_TASKS && matchCode != URI_TASK) {
+        if (matchCode == URI_FILTERS_FOR_FEED) { // the compiled filters observe all the filters
+            uris.add(FilterColumns.CONTENT_URI);
+        }
+
+        if (matchCode != URI_FILTERS && matchCode != URI_FILTERS_FOR_FEED && matchCode != URI_GLOBAL_FILTERS && matchCode != URI_TASKS && matchCode != URI_TASK
+                && matchCode != URI_ICONS) { // an icon is only displayed once a feed uses it
             // Notify everything else (except EntryColumns.CONTENT_URI to not update the
             // entry WebView when clicking on "favorite" button)
-            cr.notifyChange(FeedColumns.GROUPED_FEEDS_CONTENT_URI, null);
-            cr.notifyChange(EntryColumns.ALL_ENTRIES_CONTENT_URI, null);
-            cr.notifyChange(EntryColumns.FAVORITES_CONTENT_URI, null);
-            cr.notifyChange(FeedColumns.CONTENT_URI, null);
-            cr.notifyChange(FeedColumns.GROUPS_CONTENT_URI, null);
+            uris.add(FeedColumns.GROUPED_FEEDS_CONTENT_URI);
+            uris.add(EntryColumns.ALL_ENTRIES_CONTENT_URI);
+            uris.add(EntryColumns.FAVORITES_CONTENT_URI);
+            uris.add(FeedColumns.CONTENT_URI);
+            uris.add(FeedColumns.GROUPS_CONTENT_URI);
+        }
+
+        if (!inBatch) { // otherwise they are sent at the end of the batch
+            ContentResolver cr = getContext().getContentResolver();
+            for (Uri changedUri : uris) {
+                cr.notifyChange(changedUri, null);
+            }
         }
     }
 }
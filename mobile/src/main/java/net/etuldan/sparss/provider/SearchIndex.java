@@ -0,0 +1,291 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import net.etuldan.sparss.Constants;
+import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.EntryContentColumns;
+import net.etuldan.sparss.utils.CompressionUtils;
+import net.etuldan.sparss.utils.HtmlUtils;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Full text index of the entries, in an FTS4 table whose docid is the entry id. It holds the plain text of the title, the abstract and
+ * the mobilized content, lower cased and without punctuation as the default tokenizer only folds the ASCII letters.
+ * <p/>
+ * The provider indexes the entries when they are inserted or when their text is updated, and a trigger removes them with the entries.
+ * The entries which existed before the index are indexed in the background by chunks, and are searched with LIKE in the meantime.
+ */
+class SearchIndex {
+    private static final String TAG = "SearchIndex";
+
+    static final String TABLE_NAME = "entries_search";
+    static final String DOC_ID = "docid";
+
+    static final String CREATE_TABLE = "CREATE VIRTUAL TABLE " + TABLE_NAME + " USING fts4(" + EntryColumns.TITLE + ", " + EntryColumns.ABSTRACT
+            + ", " + EntryColumns.MOBILIZED_HTML + ')';
+    static final String CREATE_DELETE_TRIGGER = "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_delete AFTER DELETE ON " + EntryColumns.TABLE_NAME
+            + " BEGIN DELETE FROM " + TABLE_NAME + " WHERE " + DOC_ID + " = old." + EntryColumns._ID + "; END";
+
+    private static final String SEARCH_ID = "search_id";
+    private static final String SEARCH_RANK = "search_rank";
+    private static final int TITLE_RANK = 2;
+    private static final int CONTENT_RANK = 1;
+
+    private static final String[] INDEXED_PROJECTION = new String[]{EntryColumns._ID, EntryColumns.TITLE, EntryColumns.ABSTRACT,
+            EntryColumns.MOBILIZED_HTML};
+    private static final String WHERE_NOT_INDEXED = "NOT EXISTS (SELECT 1 FROM " + TABLE_NAME + " WHERE " + DOC_ID + " = "
+            + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + ')';
+    private static final int BACKFILL_CHUNK_SIZE = 100;
+    private static final int REINDEX_CHUNK_SIZE = 500;
+
+    private static final AtomicBoolean sBackfillStarted = new AtomicBoolean();
+    private static volatile long sBackfillUpperId; // the entries below this id may not be indexed yet
+
+    static boolean hasIndexedColumn(ContentValues values) {
+        return values.containsKey(EntryColumns.TITLE) || values.containsKey(EntryColumns.ABSTRACT) || values.containsKey(EntryColumns.MOBILIZED_HTML);
+    }
+
+    static void indexEntry(SQLiteDatabase database, long entryId, String title, String abstractHtml, String mobilizedHtml) {
+        ContentValues values = new ContentValues();
+        values.put(DOC_ID, entryId);
+        values.put(EntryColumns.TITLE, toIndexedText(title));
+        values.put(EntryColumns.ABSTRACT, toIndexedText(abstractHtml));
+        values.put(EntryColumns.MOBILIZED_HTML, toIndexedText(mobilizedHtml));
+
+        // FTS tables of the old SQLite versions don't handle the "OR REPLACE" conflict
+        database.delete(TABLE_NAME, DOC_ID + '=' + entryId, null);
+        database.insert(TABLE_NAME, null, values);
+    }
+
+    /**
+     * Returns the ids of the entries matching the selection, to be given to {@link #reindexEntries} once they are updated (as the update
+     * can change the result of the selection).
+     */
+    static long[] getEntryIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(EntryColumns.TABLE_NAME, EntryColumns.PROJECTION_ID, selection, selectionArgs, null, null, null);
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
+    }
+
+    static void reindexEntries(SQLiteDatabase database, long[] entryIds) {
+        for (int start = 0; start < entryIds.length; start += REINDEX_CHUNK_SIZE) {
+            StringBuilder where = new StringBuilder(EntryColumns._ID).append(" IN (");
+            for (int i = start, end = Math.min(start + REINDEX_CHUNK_SIZE, entryIds.length); i < end; i++) {
+                if (i > start) {
+                    where.append(',');
+                }
+                where.append(entryIds[i]);
+            }
+            where.append(')');
+
+            indexEntries(database, database.query(FeedData.ENTRIES_TABLE_WITH_CONTENT, INDEXED_PROJECTION, where.toString(), null, null, null, null));
+        }
+    }
+
+    /**
+     * Indexes the entries of the cursor (with the {@link #INDEXED_PROJECTION}) and closes it. Returns the last indexed id, or -1.
+     */
+    private static long indexEntries(SQLiteDatabase database, Cursor cursor) {
+        long lastId = -1;
+        while (cursor.moveToNext()) {
+            lastId = cursor.getLong(0);
+            indexEntry(database, lastId, cursor.getString(1), cursor.getString(2), CompressionUtils.getString(cursor, 3));
+        }
+        cursor.close();
+        return lastId;
+    }
+
+    /**
+     * Indexes, once per process and in a background thread, the entries which are not in the index yet. Each chunk has its own
+     * transaction so the other writers are never blocked for long, and the most recent entries are indexed first.
+     */
+    static void startBackfill(final DatabaseHelper databaseHelper) {
+        if (!sBackfillStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+
+                    Cursor maxCursor = database.query(EntryColumns.TABLE_NAME, new String[]{"MAX(" + EntryColumns._ID + ')'}, WHERE_NOT_INDEXED,
+                            null, null, null, null);
+                    long upperId = maxCursor.moveToFirst() && !maxCursor.isNull(0) ? maxCursor.getLong(0) + 1 : 0;
+                    maxCursor.close();
+
+                    while (upperId > 0) {
+                        sBackfillUpperId = upperId;
+
+                        long lastId;
+                        database.beginTransaction();
+                        try {
+                            lastId = indexEntries(database, database.query(FeedData.ENTRIES_TABLE_WITH_CONTENT, INDEXED_PROJECTION, EntryColumns._ID + '<'
+                                    + upperId + Constants.DB_AND + WHERE_NOT_INDEXED, null, null, null, EntryColumns._ID + Constants.DB_DESC,
+                                    String.valueOf(BACKFILL_CHUNK_SIZE)));
+                            database.setTransactionSuccessful();
+                        } finally {
+                            database.endTransaction();
+                        }
+
+                        upperId = lastId;
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error while indexing the entries", e);
+                } finally {
+                    sBackfillUpperId = 0;
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Returns the match expression of the search: all its words, as prefixes. Returns null when there is no word to search.
+     */
+    static String getMatchQuery(String search) {
+        return getMatchQuery(search, null);
+    }
+
+    private static String getMatchQuery(String search, String column) {
+        String text = toIndexedText(search);
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder query = new StringBuilder();
+        for (String word : text.split(" ")) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            if (column != null) {
+                query.append(column).append(':');
+            }
+            query.append(word).append('*');
+        }
+        return query.toString();
+    }
+
+    /**
+     * Returns the selection of the entries matching the search.
+     */
+    static String getWhereClause(String search) {
+        String matchQuery = getMatchQuery(search);
+        if (matchQuery == null) {
+            return "1 = 2"; // to have 0 result with an empty search
+        }
+
+        String where = EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + " IN (SELECT " + DOC_ID + " FROM " + TABLE_NAME + " WHERE " + TABLE_NAME
+                + " MATCH " + DatabaseUtils.sqlEscapeString(matchQuery) + ')';
+        return addNotIndexedWhereClause(where, search);
+    }
+
+    /**
+     * Returns the tables of the ranked search, to be queried with {@link #getRankedWhereClause} and {@link #getRankedSortOrder}: the
+     * entries get a {@link #SEARCH_RANK} which is higher when all the words are in the title.
+     */
+    static String getRankedTables(String entriesTable, String search) {
+        String matchQuery = getMatchQuery(search);
+        if (matchQuery == null) {
+            return entriesTable;
+        }
+
+        String join = sBackfillUpperId > 0 ? " LEFT JOIN (" : " JOIN (";
+        return entriesTable + join + "SELECT " + DOC_ID + " AS " + SEARCH_ID + ", MAX(" + SEARCH_RANK + ") AS " + SEARCH_RANK + " FROM (SELECT "
+                + DOC_ID + ", " + TITLE_RANK + " AS " + SEARCH_RANK + " FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH "
+                + DatabaseUtils.sqlEscapeString(getMatchQuery(search, EntryColumns.TITLE)) + " UNION ALL SELECT " + DOC_ID + ", " + CONTENT_RANK
+                + " FROM " + TABLE_NAME + " WHERE " + TABLE_NAME + " MATCH " + DatabaseUtils.sqlEscapeString(matchQuery) + ") GROUP BY " + DOC_ID
+                + ") ON (" + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + " = " + SEARCH_ID + ')';
+    }
+
+    static String getRankedWhereClause(String search) {
+        if (getMatchQuery(search) == null) {
+            return "1 = 2";
+        }
+
+        return addNotIndexedWhereClause(SEARCH_ID + Constants.DB_IS_NOT_NULL, search);
+    }
+
+    static String getRankedSortOrder(String search, String sortOrder) {
+        if (getMatchQuery(search) == null) {
+            return sortOrder;
+        }
+
+        String rankOrder = "IFNULL(" + SEARCH_RANK + ", 0)" + Constants.DB_DESC;
+        return sortOrder == null ? rankOrder : rankOrder + ", " + sortOrder;
+    }
+
+    private static String addNotIndexedWhereClause(String where, String search) {
+        long backfillUpperId = sBackfillUpperId;
+        if (backfillUpperId <= 0) {
+            return where;
+        }
+
+        // LIKE cannot look into the deflated bodies (see CompressionUtils), so the compressed mobilized html of an entry which is not indexed
+        // yet is not searched: only its title and abstract are, until the backfill reaches it
+        String like = DatabaseUtils.sqlEscapeString('%' + search.trim() + '%');
+        return '(' + where + Constants.DB_OR + '(' + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + '<' + backfillUpperId + Constants.DB_AND + '('
+                + EntryColumns.TITLE + " LIKE " + like + Constants.DB_OR + EntryColumns.TABLE_NAME + '.' + EntryColumns._ID + " IN (SELECT "
+                + EntryContentColumns._ID + " FROM " + EntryContentColumns.TABLE_NAME + " WHERE " + EntryContentColumns.ABSTRACT + " LIKE " + like
+                + Constants.DB_OR + "(typeof(" + EntryContentColumns.MOBILIZED_HTML + ") = 'text'" + Constants.DB_AND
+                + EntryContentColumns.MOBILIZED_HTML + " LIKE " + like + ")))))";
+    }
+
+    /**
+     * Returns the text as it is indexed and searched: the plain text of the html, lower cased, with only the letters and the digits.
+     */
+    static String toIndexedText(String html) {
+        String text = HtmlUtils.toPlainText(html);
+        if (text == null) {
+            return null;
+        }
+
+        text = text.toLowerCase(Locale.ROOT);
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                builder.append(c);
+            } else if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ' ') {
+                builder.append(' ');
+            }
+        }
+
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) == ' ') {
+            builder.setLength(length - 1);
+        }
+        return builder.toString();
+    }
+}
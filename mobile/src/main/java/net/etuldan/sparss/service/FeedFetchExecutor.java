@@ -0,0 +1,160 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.etuldan.sparss.service;
+
+import android.net.Uri;
+import android.util.Log;
+
+import net.etuldan.sparss.utils.PrefUtils;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived executor of the downloads (feeds, articles and images). Its parallelism comes from the preferences, and a host is never
+ * fetched by more than {@link #MAX_FETCHES_PER_HOST} threads at once: the fetches of a busy host wait aside instead of holding a thread
+ * which could fetch another host. The fetches with the lowest priority value go first.
+ */
+public class FeedFetchExecutor {
+    private static final String TAG = "FeedFetchExecutor";
+
+    public static final String DEFAULT_PARALLELISM = "4";
+    private static final int MAX_FETCHES_PER_HOST = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30; // threads are not kept between two refreshes
+
+    private static FeedFetchExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final HashMap<String, HostQueue> mHostQueues = new HashMap<>();
+
+    private FeedFetchExecutor(int parallelism) {
+        mExecutor = new ThreadPoolExecutor(parallelism, parallelism, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized FeedFetchExecutor getInstance() {
+        int parallelism = getParallelism();
+        if (sInstance == null) {
+            sInstance = new FeedFetchExecutor(parallelism);
+        } else if (parallelism > sInstance.mExecutor.getMaximumPoolSize()) {
+            sInstance.mExecutor.setMaximumPoolSize(parallelism);
+            sInstance.mExecutor.setCorePoolSize(parallelism);
+        } else if (parallelism < sInstance.mExecutor.getMaximumPoolSize()) {
+            sInstance.mExecutor.setCorePoolSize(parallelism);
+            sInstance.mExecutor.setMaximumPoolSize(parallelism);
+        }
+        return sInstance;
+    }
+
+    private static int getParallelism() {
+        int parallelism = Integer.parseInt(DEFAULT_PARALLELISM);
+        try {
+            parallelism = Math.max(1, Integer.parseInt(PrefUtils.getString(PrefUtils.REFRESH_PARALLELISM, DEFAULT_PARALLELISM)));
+        } catch (Exception ignored) {
+            Log.e(TAG, "Exception", ignored);
+        }
+        return parallelism;
+    }
+
+    /**
+     * @param url      the fetched url, used to limit the fetches per host
+     * @param priority the lowest values are fetched first (the date of the last fetch for a feed)
+     */
+    public <T> Future<T> submit(String url, long priority, Callable<T> fetch) {
+        String host = url != null ? Uri.parse(url).getHost() : null;
+        FetchTask<T> task = new FetchTask<>(host != null ? host.toLowerCase() : "", priority, fetch);
+
+        synchronized (mHostQueues) {
+            HostQueue hostQueue = mHostQueues.get(task.mHost);
+            if (hostQueue == null) {
+                hostQueue = new HostQueue();
+                mHostQueues.put(task.mHost, hostQueue);
+            }
+
+            if (hostQueue.mRunningCount < MAX_FETCHES_PER_HOST) {
+                hostQueue.mRunningCount++;
+                mExecutor.execute(task);
+            } else {
+                hostQueue.mWaitingTasks.add(task);
+            }
+        }
+
+        return task;
+    }
+
+    private void onFetchDone(String host) {
+        synchronized (mHostQueues) {
+            HostQueue hostQueue = mHostQueues.get(host);
+            FetchTask<?> next = hostQueue.mWaitingTasks.poll();
+            if (next != null) { // the permit is handed over to the next fetch of this host
+                mExecutor.execute(next);
+            } else if (--hostQueue.mRunningCount == 0) {
+                mHostQueues.remove(host);
+            }
+        }
+    }
+
+    private static class HostQueue {
+        int mRunningCount;
+        final PriorityQueue<FetchTask<?>> mWaitingTasks = new PriorityQueue<>();
+    }
+
+    private class FetchTask<T> extends FutureTask<T> implements Comparable<FetchTask<?>> {
+        final String mHost;
+        final long mPriority;
+
+        FetchTask(String host, long priority, Callable<T> fetch) {
+            super(fetch);
+            mHost = host;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            try {
+                super.run();
+            } finally { // also reached by a cancelled task, so that its permit is not lost
+                onFetchDone(mHost);
+            }
+        }
+
+        @Override
+        public int compareTo(FetchTask<?> another) {
+            return mPriority < another.mPriority ? -1 : (mPriority == another.mPriority ? 0 : 1);
+        }
+    }
+}
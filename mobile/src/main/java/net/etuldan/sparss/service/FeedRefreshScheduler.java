@@ -0,0 +1,142 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.service;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import net.etuldan.sparss.Constants;
+import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.FeedColumns;
+import net.etuldan.sparss.utils.PrefUtils;
+
+/**
+ * Computes when each feed should be fetched again. Feeds posting often are polled at the refresh interval chosen by the
+ * user, the quiet ones are backed off exponentially up to {@link #MAX_FETCH_INTERVAL}.
+ */
+public class FeedRefreshScheduler {
+    private static final String TAG = "FeedRefreshScheduler";
+
+    private static final long MIN_REFRESH_INTERVAL = 60000;
+    private static final long MAX_FETCH_INTERVAL = 86400000; // one day
+    private static final int POSTING_RATE_SAMPLE_SIZE = 10;
+
+    public static long getRefreshInterval() {
+        long interval = Long.parseLong(RefreshService.SIXTY_MINUTES);
+        try {
+            interval = Math.max(MIN_REFRESH_INTERVAL, Long.parseLong(PrefUtils.getString(PrefUtils.REFRESH_INTERVAL, RefreshService.SIXTY_MINUTES)));
+        } catch (Exception ignored) {
+            Log.e(TAG, "Exception", ignored);
+        }
+        return interval;
+    }
+
+    /**
+     * @return the where clause selecting the feeds which are due. Feeds due during the next half interval are taken
+     * as well, so that they are batched with this refresh instead of waking the device up again a bit later.
+     */
+    public static String getDueFeedsWhereClause(long now) {
+        long dueBorder = now + getRefreshInterval() / 2;
+        return '(' + FeedColumns.NEXT_FETCH_DATE + Constants.DB_IS_NULL + Constants.DB_OR + FeedColumns.NEXT_FETCH_DATE + "<=" + dueBorder + ')';
+    }
+
+    /**
+     * @return the delay until the next feed is due, never shorter than the refresh interval chosen by the user
+     */
+    public static long getDelayUntilNextDueFeed(ContentResolver cr, long now) {
+        long refreshInterval = getRefreshInterval();
+        long delay = refreshInterval;
+
+        Cursor cursor = cr.query(FeedColumns.CONTENT_URI, new String[]{"MIN(" + FeedColumns.NEXT_FETCH_DATE + ")"},
+                FeedColumns.NEXT_FETCH_DATE + Constants.DB_IS_NOT_NULL, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                delay = Math.max(refreshInterval, cursor.getLong(0) - now);
+            }
+            cursor.close();
+        }
+
+        // Feeds never fetched yet are due right away
+        cursor = cr.query(FeedColumns.CONTENT_URI, FeedColumns.PROJECTION_ID, FeedColumns.NEXT_FETCH_DATE + Constants.DB_IS_NULL, null, null);
+        if (cursor != null) {
+            if (cursor.getCount() > 0) {
+                delay = refreshInterval;
+            }
+            cursor.close();
+        }
+
+        return delay;
+    }
+
+    /**
+     * Stores when the feed should be fetched again, according to the outcome of the fetch which just happened.
+     *
+     * @param hasNewEntries false if the feed was not modified (HTTP 304) or did not contain any new entry
+     */
+    public static void scheduleNextFetch(ContentResolver cr, String feedId, boolean hasNewEntries) {
+        long refreshInterval = getRefreshInterval();
+        long now = System.currentTimeMillis();
+
+        long fetchInterval;
+        if (hasNewEntries) {
+            fetchInterval = getPostingInterval(cr, feedId) / 2; // poll twice per posting period to not show the entries too late
+        } else {
+            long previousInterval = refreshInterval;
+            Cursor cursor = cr.query(FeedColumns.CONTENT_URI(feedId), new String[]{FeedColumns.FETCH_INTERVAL}, null, null, null);
+            if (cursor != null) {
+                if (cursor.moveToFirst() && !cursor.isNull(0)) {
+                    previousInterval = cursor.getLong(0);
+                }
+                cursor.close();
+            }
+            fetchInterval = Math.max(previousInterval, refreshInterval) * 2;
+        }
+        fetchInterval = Math.max(refreshInterval, Math.min(fetchInterval, Math.max(refreshInterval, MAX_FETCH_INTERVAL)));
+
+        ContentValues values = new ContentValues();
+        values.put(FeedColumns.FETCH_INTERVAL, fetchInterval);
+        values.put(FeedColumns.NEXT_FETCH_DATE, now + fetchInterval);
+        cr.update(FeedColumns.CONTENT_URI(feedId), values, null, null);
+    }
+
+    /**
+     * @return the average time between the last entries of the feed, or 0 if there is not enough history
+     */
+    private static long getPostingInterval(ContentResolver cr, String feedId) {
+        long interval = 0;
+
+        Cursor cursor = cr.query(EntryColumns.ENTRIES_FOR_FEED_CONTENT_URI(feedId), new String[]{EntryColumns.DATE}, null, null,
+                EntryColumns.DATE + Constants.DB_DESC + " LIMIT " + POSTING_RATE_SAMPLE_SIZE);
+        if (cursor != null) {
+            if (cursor.getCount() > 1 && cursor.moveToFirst()) {
+                long newestDate = cursor.getLong(0);
+                cursor.moveToLast();
+                long oldestDate = cursor.getLong(0);
+                interval = (newestDate - oldestDate) / (cursor.getCount() - 1);
+            }
+            cursor.close();
+        }
+
+        return interval;
+    }
+}
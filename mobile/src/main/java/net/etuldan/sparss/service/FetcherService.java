@@ -62,9 +62,10 @@ import android.os.Handler;
 import android.os.SystemClock;
 import android.text.Html;
 import android.text.TextUtils;
-import android.util.Xml;
+import android.util.Log;
 import android.widget.Toast;
 
+import net.etuldan.sparss.BuildConfig;
 import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.R;
@@ -72,54 +73,54 @@ import net.etuldan.sparss.activity.HomeActivity;
 import net.etuldan.sparss.parser.RssAtomParser;
 import net.etuldan.sparss.provider.FeedData;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
+import net.etuldan.sparss.provider.FeedData.EntryContentColumns;
 import net.etuldan.sparss.provider.FeedData.FeedColumns;
 import net.etuldan.sparss.provider.FeedData.TaskColumns;
 import net.etuldan.sparss.utils.ArticleTextExtractor;
+import net.etuldan.sparss.utils.BoundedHtmlReader;
+import net.etuldan.sparss.utils.CharsetSniffingInputStream;
+import net.etuldan.sparss.utils.CompressionUtils;
 import net.etuldan.sparss.utils.HtmlUtils;
 import net.etuldan.sparss.utils.NetworkUtils;
 import net.etuldan.sparss.utils.PrefUtils;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.io.UnsupportedEncodingException;
 import java.net.Authenticator;
+import java.net.CookieManager;
 import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class FetcherService extends IntentService {
+    private static final String TAG = "FetcherService";
 
     public static final String ACTION_REFRESH_FEEDS = "net.etuldan.sparss.REFRESH";
     public static final String ACTION_MOBILIZE_FEEDS = "net.etuldan.sparss.MOBILIZE_FEEDS";
     public static final String ACTION_DOWNLOAD_IMAGES = "net.etuldan.sparss.DOWNLOAD_IMAGES";
+    public static final String ACTION_COMPRESS_MOBILIZED_HTML = "net.etuldan.sparss.COMPRESS_MOBILIZED_HTML";
 
-    private static final int THREAD_NUMBER = 3;
     private static final int MAX_TASK_ATTEMPT = 3;
+    private static final String DEFAULT_MOBILIZATION_MAX_SIZE = "1024"; // KB
 
-    private static final int FETCHMODE_DIRECT = 1;
-    private static final int FETCHMODE_REENCODE = 2;
+    // The feed url points to the feed itself, not to an html page linking it (0 until it is checked). The body is always decoded while
+    // it is parsed, so the former decoding modes (1 and 2) simply mean the same.
+    private static final int FETCHMODE_RESOLVED = 1;
 
-    private static final String CHARSET = "charset=";
     private static final String CONTENT_TYPE_TEXT_HTML = "text/html";
     private static final String HREF = "href=\"";
 
     private static final String HTML_BODY = "<body";
-    private static final String ENCODING = "encoding=\"";
+
+    private static final int RECOMPRESS_BATCH_SIZE = 50;
 
     /* Allow different positions of the "rel" attribute w.r.t. the "href" attribute */
     private static final Pattern FEED_LINK_PATTERN = Pattern.compile(
@@ -128,6 +129,10 @@ public class FetcherService extends IntentService {
 
     private final Handler mHandler;
 
+    // Counted in memory by the fetching threads, see saveRefreshCounters()
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicInteger mFullDownloadCount = new AtomicInteger();
+
     public FetcherService() {
         super(FetcherService.class.getSimpleName());
         HttpURLConnection.setFollowRedirects(true);
@@ -173,6 +178,11 @@ public class FetcherService extends IntentService {
             return;
         }
 
+        if (ACTION_COMPRESS_MOBILIZED_HTML.equals(intent.getAction())) { // No network needed
+            recompressMobilizedHtml();
+            return;
+        }
+
         boolean isFromAutoRefresh = intent.getBooleanExtra(Constants.FROM_AUTO_REFRESH, false);
 
         ConnectivityManager connectivityManager = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
@@ -216,7 +226,12 @@ public class FetcherService extends IntentService {
             deleteOldEntries(keepDateBorderTime);
 
             String feedId = intent.getStringExtra(Constants.FEED_ID);
-            int newCount = (feedId == null ? refreshFeeds(keepDateBorderTime) : refreshFeed(feedId, keepDateBorderTime));
+            int newCount = (feedId == null ? refreshFeeds(keepDateBorderTime, isFromAutoRefresh) : refreshFeed(feedId, keepDateBorderTime));
+            saveRefreshCounters();
+
+            if (isFromAutoRefresh) {
+                RefreshService.scheduleNextRefresh(this);
+            }
 
             if (newCount > 0) {
                 if (PrefUtils.getBoolean(PrefUtils.NOTIFICATIONS_ENABLED, true)) {
@@ -275,10 +290,17 @@ public class FetcherService extends IntentService {
 
     private void mobilizeAllEntries() {
         ContentResolver cr = getContentResolver();
-        Cursor cursor = cr.query(TaskColumns.CONTENT_URI, new String[]{TaskColumns._ID, TaskColumns.ENTRY_ID, TaskColumns.NUMBER_ATTEMPT},
-                TaskColumns.IMG_URL_TO_DL + Constants.DB_IS_NULL, null, null);
+        // The entry and its feed are joined to the task, so that each task doesn't need its own queries
+        Cursor cursor = cr.query(TaskColumns.TASKS_WITH_ENTRY_INFO_CONTENT_URI, new String[]{TaskColumns.TABLE_NAME + '.' + TaskColumns._ID,
+                TaskColumns.ENTRY_ID, TaskColumns.NUMBER_ATTEMPT, EntryColumns.TABLE_NAME + '.' + EntryColumns._ID,
+                EntryColumns.MOBILIZED_HTML + Constants.DB_IS_NOT_NULL, EntryColumns.LINK, EntryColumns.ABSTRACT, FeedColumns.COOKIE_NAME,
+                FeedColumns.COOKIE_VALUE, FeedColumns.HTTP_AUTH_LOGIN, FeedColumns.HTTP_AUTH_PASSWORD, EntryColumns.FEED_ID}, TaskColumns.IMG_URL_TO_DL
+                + Constants.DB_IS_NULL, null, null);
 
         ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        ArrayList<long[]> fetchedTasks = new ArrayList<>(); // {taskId, entryId, nbAttempt}
+        ArrayList<Future<MobilizedEntry>> results = new ArrayList<>();
+        FeedFetchExecutor executor = FeedFetchExecutor.getInstance();
 
         while (cursor.moveToNext()) {
             long taskId = cursor.getLong(0);
@@ -288,108 +310,170 @@ public class FetcherService extends IntentService {
                 nbAttempt = cursor.getInt(2);
             }
 
-            boolean success = false;
+            if (cursor.isNull(3) || cursor.getInt(4) == 1) { // The entry has been deleted or we already mobilized it
+                operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
+            } else {
+                final String link = cursor.getString(5);
+                final String abstractHtml = cursor.getString(6);
+                final String cookieName = cursor.getString(7);
+                final String cookieValue = cursor.getString(8);
+                final String httpAuthLoginValue = cursor.getString(9);
+                final String httpAuthPassValue = cursor.getString(10);
+                final CookieManager cookieJar = NetworkUtils.getFeedCookieJar(cursor.getLong(11));
+
+                fetchedTasks.add(new long[]{taskId, entryId, nbAttempt});
+                results.add(executor.submit(link, taskId, new Callable<MobilizedEntry>() {
+                    @Override
+                    public MobilizedEntry call() throws Exception {
+                        return mobilizeEntry(link, abstractHtml, cookieJar, cookieName, cookieValue, httpAuthLoginValue, httpAuthPassValue);
+                    }
+                }));
+            }
+        }
 
-            Uri entryUri = EntryColumns.CONTENT_URI(entryId);
-            Cursor entryCursor = cr.query(entryUri, null, null, null, null);
+        cursor.close();
 
-            if (entryCursor.moveToFirst()) {
-                if (entryCursor.isNull(entryCursor.getColumnIndex(EntryColumns.MOBILIZED_HTML))) { // If we didn't already mobilized it
-                    int linkPos = entryCursor.getColumnIndex(EntryColumns.LINK);
-                    int abstractHtmlPos = entryCursor.getColumnIndex(EntryColumns.ABSTRACT);
-                    int feedIdPos = entryCursor.getColumnIndex(EntryColumns.FEED_ID);
-                    HttpURLConnection connection = null;
+        for (int i = 0; i < results.size(); i++) {
+            long taskId = fetchedTasks.get(i)[0];
+            long entryId = fetchedTasks.get(i)[1];
 
-                    try {
-                        String link = entryCursor.getString(linkPos);
-                        String feedId = entryCursor.getString(feedIdPos);
-                        Cursor cursorFeed = cr.query(FeedColumns.CONTENT_URI(feedId), null, null, null, null);
-                        cursorFeed.moveToNext();
-                        int cookieNamePosition = cursorFeed.getColumnIndex(FeedColumns.COOKIE_NAME);
-                        int cookieValuePosition = cursorFeed.getColumnIndex(FeedColumns.COOKIE_VALUE);
-                        String cookieName = cursorFeed.getString(cookieNamePosition);
-                        String cookieValue = cursorFeed.getString(cookieValuePosition);
-                        int httpAuthLoginPosition = cursorFeed.getColumnIndex(FeedColumns.HTTP_AUTH_LOGIN);
-                        int httpAuthPasswordPosition = cursorFeed.getColumnIndex(FeedColumns.HTTP_AUTH_PASSWORD);
-                        final String httpAuthLoginValue = cursorFeed.getString(httpAuthLoginPosition);
-                        final String httpAuthPassValue = cursorFeed.getString(httpAuthPasswordPosition);
-                        cursorFeed.close();
-
-                        // Try to find a text indicator for better content extraction
-                        String contentIndicator = null;
-                        String text = entryCursor.getString(abstractHtmlPos);
-                        if (!TextUtils.isEmpty(text)) {
-                            text = Html.fromHtml(text).toString();
-                            if (text.length() > 60) {
-                                contentIndicator = text.substring(20, 40);
-                            }
-                        }
+            MobilizedEntry mobilizedEntry = null;
+            try {
+                mobilizedEntry = results.get(i).get();
+            } catch (Exception ignored) {
+            }
 
-                        connection = NetworkUtils.setupConnection(link,cookieName, cookieValue,httpAuthLoginValue, httpAuthPassValue);
+            if (mobilizedEntry != null) {
+                ContentValues values = new ContentValues();
+                values.put(EntryColumns.MOBILIZED_HTML, mobilizedEntry.mHtml);
+                values.put(EntryColumns.MOBILIZED_IMAGES, HtmlUtils.toImageManifest(mobilizedEntry.mImgUrls));
+                values.put(EntryColumns.MOBILIZED_TRUNCATED, mobilizedEntry.mTruncated);
+                if (mobilizedEntry.mMainImgUrl != null) {
+                    values.put(EntryColumns.IMAGE_URL, mobilizedEntry.mMainImgUrl);
+                }
 
-                        String mobilizedHtml = ArticleTextExtractor.extractContent(connection.getInputStream(), contentIndicator);
+                operations.add(ContentProviderOperation.newUpdate(EntryColumns.CONTENT_URI(entryId)).withValues(values).build());
+                operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
+                if (NetworkUtils.needDownloadPictures()) {
+                    for (String imgUrl : mobilizedEntry.mImgUrls) {
+                        ContentValues taskValues = new ContentValues();
+                        taskValues.put(TaskColumns.ENTRY_ID, entryId);
+                        taskValues.put(TaskColumns.IMG_URL_TO_DL, imgUrl);
+                        operations.add(ContentProviderOperation.newInsert(TaskColumns.CONTENT_URI).withValues(taskValues).build());
+                    }
+                }
+            } else {
+                addTaskFailure(operations, taskId, (int) fetchedTasks.get(i)[2]);
+            }
+        }
 
-                        if (mobilizedHtml != null) {
-                            mobilizedHtml = HtmlUtils.improveHtmlContent(mobilizedHtml, NetworkUtils.getBaseUrl(link));
-                            ContentValues values = new ContentValues();
-                            values.put(EntryColumns.MOBILIZED_HTML, mobilizedHtml);
+        if (!operations.isEmpty()) {
+            try {
+                cr.applyBatch(FeedData.AUTHORITY, operations);
+            } catch (Throwable ignored) {
+            }
+        }
 
-                            ArrayList<String> imgUrlsToDownload = null;
-                            if (NetworkUtils.needDownloadPictures()) {
-                                imgUrlsToDownload = HtmlUtils.getImageURLs(mobilizedHtml);
-                            }
+        NetworkUtils.flushHttpCache();
+    }
 
-                            String mainImgUrl;
-                            if (imgUrlsToDownload != null) {
-                                mainImgUrl = HtmlUtils.getMainImageURL(imgUrlsToDownload);
-                            } else {
-                                mainImgUrl = HtmlUtils.getMainImageURL(mobilizedHtml);
-                            }
+    private static MobilizedEntry mobilizeEntry(String link, String abstractHtml, CookieManager cookieJar, String cookieName, String cookieValue,
+                                                String httpAuthLoginValue, String httpAuthPassValue) throws Exception {
+        // Try to find a text indicator for better content extraction
+        String contentIndicator = null;
+        if (!TextUtils.isEmpty(abstractHtml)) {
+            String text = Html.fromHtml(abstractHtml).toString();
+            if (text.length() > 60) {
+                contentIndicator = text.substring(20, 40);
+            }
+        }
 
-                            if (mainImgUrl != null) {
-                                values.put(EntryColumns.IMAGE_URL, mainImgUrl);
-                            }
+        HttpURLConnection connection = null;
+        try {
+            connection = NetworkUtils.setupCachedConnection(link, cookieJar, cookieName, cookieValue, httpAuthLoginValue, httpAuthPassValue);
 
-                            if (cr.update(entryUri, values, null, null) > 0) {
-                                success = true;
-                                operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
-                                if (imgUrlsToDownload != null && !imgUrlsToDownload.isEmpty()) {
-                                    addImagesToDownload(String.valueOf(entryId), imgUrlsToDownload);
-                                }
-                            }
-                        }
-                    } catch (Throwable ignored) {
-                    } finally {
-                        if (connection != null) {
-                            connection.disconnect();
-                        }
-                    }
-                } else { // We already mobilized it
-                    success = true;
-                    operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
-                }
+            // The Content-Length is the one of the compressed body when there is a Content-Encoding
+            BoundedHtmlReader reader = new BoundedHtmlReader(NetworkUtils.getInputStream(connection), connection.getContentType(),
+                    connection.getContentEncoding() == null ? connection.getContentLength() : -1, getMobilizationMaxBytes());
+            String mobilizedHtml = ArticleTextExtractor.extractContent(reader, contentIndicator);
+            if (mobilizedHtml == null) {
+                return null;
             }
-            entryCursor.close();
 
-            if (!success) {
-                if (nbAttempt + 1 > MAX_TASK_ATTEMPT) {
-                    operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
-                } else {
-                    ContentValues values = new ContentValues();
-                    values.put(TaskColumns.NUMBER_ATTEMPT, nbAttempt + 1);
-                    operations.add(ContentProviderOperation.newUpdate(TaskColumns.CONTENT_URI(taskId)).withValues(values).build());
-                }
+            ArrayList<String> imgUrls = new ArrayList<>();
+            mobilizedHtml = HtmlUtils.improveHtmlContent(mobilizedHtml, NetworkUtils.getBaseUrl(link), imgUrls);
+
+            return new MobilizedEntry(mobilizedHtml, HtmlUtils.getMainImageURL(imgUrls), imgUrls, reader.isTruncated());
+        } finally {
+            if (connection != null) {
+                NetworkUtils.releaseConnection(connection);
             }
         }
+    }
 
+    private static long getMobilizationMaxBytes() {
+        int maxSize = Integer.parseInt(DEFAULT_MOBILIZATION_MAX_SIZE);
+        try {
+            maxSize = Math.max(1, Integer.parseInt(PrefUtils.getString(PrefUtils.MOBILIZATION_MAX_SIZE, DEFAULT_MOBILIZATION_MAX_SIZE)));
+        } catch (Exception ignored) {
+            Log.e(TAG, "Exception", ignored);
+        }
+        return maxSize * 1024L;
+    }
+
+    /**
+     * Rewrites the mobilized html which is not stored as the {@link PrefUtils#COMPRESS_MOBILIZED_HTML} preference asks, as the provider only
+     * (de)compresses it on write, and logs the stored size of the mobilized html before and after.
+     */
+    private void recompressMobilizedHtml() {
+        ContentResolver cr = getContentResolver();
+        boolean compress = PrefUtils.getBoolean(PrefUtils.COMPRESS_MOBILIZED_HTML, false);
+        long sizeBefore = getStoredMobilizedHtmlSize(cr);
+
+        Cursor cursor = cr.query(EntryContentColumns.CONTENT_URI, new String[]{EntryContentColumns._ID}, "typeof(" + EntryContentColumns.MOBILIZED_HTML
+                + ") = '" + (compress ? "text" : "blob") + "'", null, null);
+        ArrayList<Long> entryIds = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            entryIds.add(cursor.getLong(0));
+        }
         cursor.close();
 
-        if (!operations.isEmpty()) {
-            try {
-                cr.applyBatch(FeedData.AUTHORITY, operations);
-            } catch (Throwable ignored) {
+        for (int start = 0; start < entryIds.size(); start += RECOMPRESS_BATCH_SIZE) {
+            String ids = TextUtils.join(",", entryIds.subList(start, Math.min(start + RECOMPRESS_BATCH_SIZE, entryIds.size())));
+
+            // Only one chunk of bodies is held in memory, and the provider writes it in one transaction without reindexing it
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            cursor = cr.query(EntryContentColumns.CONTENT_URI, new String[]{EntryContentColumns._ID, EntryContentColumns.MOBILIZED_HTML},
+                    EntryContentColumns._ID + " IN (" + ids + ')', null, null);
+            while (cursor.moveToNext()) {
+                String mobilizedHtml = CompressionUtils.getString(cursor, 1);
+                if (mobilizedHtml != null) {
+                    operations.add(ContentProviderOperation.newUpdate(EntryContentColumns.CONTENT_URI(cursor.getLong(0)))
+                            .withValue(EntryContentColumns.MOBILIZED_HTML, mobilizedHtml).build());
+                }
+            }
+            cursor.close();
+
+            if (!operations.isEmpty()) {
+                try {
+                    cr.applyBatch(FeedData.AUTHORITY, operations);
+                } catch (Throwable ignored) {
+                }
             }
         }
+
+        Log.d(TAG, (compress ? "Compressed " : "Decompressed ") + entryIds.size() + " mobilized entries: " + sizeBefore / 1024 + " KB stored before, "
+                + getStoredMobilizedHtmlSize(cr) / 1024 + " KB after");
+    }
+
+    private static long getStoredMobilizedHtmlSize(ContentResolver cr) {
+        long size = 0;
+        Cursor cursor = cr.query(EntryContentColumns.CONTENT_URI, new String[]{EntryContentColumns.STORED_MOBILIZED_HTML_SIZE}, null, null, null);
+        if (cursor.moveToFirst()) {
+            size = cursor.getLong(0);
+        }
+        cursor.close();
+        return size;
     }
 
     private void downloadAllImages() {
@@ -398,34 +482,43 @@ public class FetcherService extends IntentService {
                 TaskColumns.NUMBER_ATTEMPT}, TaskColumns.IMG_URL_TO_DL + Constants.DB_IS_NOT_NULL, null, null);
 
         ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        ArrayList<long[]> fetchedTasks = new ArrayList<>(); // {taskId, nbAttempt}
+        ArrayList<Future<Void>> results = new ArrayList<>();
+        FeedFetchExecutor executor = FeedFetchExecutor.getInstance();
 
         while (cursor.moveToNext()) {
             long taskId = cursor.getLong(0);
-            long entryId = cursor.getLong(1);
-            String imgPath = cursor.getString(2);
+            final long entryId = cursor.getLong(1);
+            final String imgPath = cursor.getString(2);
             int nbAttempt = 0;
             if (!cursor.isNull(3)) {
                 nbAttempt = cursor.getInt(3);
             }
 
+            fetchedTasks.add(new long[]{taskId, nbAttempt});
+            results.add(executor.submit(imgPath, taskId, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    NetworkUtils.downloadImage(entryId, imgPath);
+                    return null;
+                }
+            }));
+        }
+
+        cursor.close();
+
+        for (int i = 0; i < results.size(); i++) {
+            long taskId = fetchedTasks.get(i)[0];
             try {
-                NetworkUtils.downloadImage(entryId, imgPath);
+                results.get(i).get();
 
                 // If we are here, everything is OK
                 operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
             } catch (Exception e) {
-                if (nbAttempt + 1 > MAX_TASK_ATTEMPT) {
-                    operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
-                } else {
-                    ContentValues values = new ContentValues();
-                    values.put(TaskColumns.NUMBER_ATTEMPT, nbAttempt + 1);
-                    operations.add(ContentProviderOperation.newUpdate(TaskColumns.CONTENT_URI(taskId)).withValues(values).build());
-                }
+                addTaskFailure(operations, taskId, (int) fetchedTasks.get(i)[1]);
             }
         }
 
-        cursor.close();
-
         if (!operations.isEmpty()) {
             try {
                 cr.applyBatch(FeedData.AUTHORITY, operations);
@@ -434,6 +527,16 @@ public class FetcherService extends IntentService {
         }
     }
 
+    private static void addTaskFailure(ArrayList<ContentProviderOperation> operations, long taskId, int nbAttempt) {
+        if (nbAttempt + 1 > MAX_TASK_ATTEMPT) {
+            operations.add(ContentProviderOperation.newDelete(TaskColumns.CONTENT_URI(taskId)).build());
+        } else {
+            ContentValues values = new ContentValues();
+            values.put(TaskColumns.NUMBER_ATTEMPT, nbAttempt + 1);
+            operations.add(ContentProviderOperation.newUpdate(TaskColumns.CONTENT_URI(taskId)).withValues(values).build());
+        }
+    }
+
     private void deleteOldEntries(long keepDateBorderTime) {
         if (keepDateBorderTime > 0) {
             String where = EntryColumns.DATE + '<' + keepDateBorderTime + Constants.DB_AND + EntryColumns.WHERE_NOT_FAVORITE;
@@ -456,24 +559,18 @@ public class FetcherService extends IntentService {
 
     }
 
-    private int refreshFeeds(final long keepDateBorderTime) {
+    private int refreshFeeds(final long keepDateBorderTime, boolean onlyDueFeeds) {
         ContentResolver cr = getContentResolver();
-        final Cursor cursor = cr.query(FeedColumns.CONTENT_URI, FeedColumns.PROJECTION_ID, null, null, null);
-        int nbFeed = cursor.getCount();
-
-        ExecutorService executor = Executors.newFixedThreadPool(THREAD_NUMBER, new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread(r);
-                t.setPriority(Thread.MIN_PRIORITY);
-                return t;
-            }
-        });
+        // An automatic refresh only fetches the feeds which are due, a manual one fetches everything
+        String where = onlyDueFeeds ? FeedRefreshScheduler.getDueFeedsWhereClause(System.currentTimeMillis()) : null;
+        final Cursor cursor = cr.query(FeedColumns.CONTENT_URI, new String[]{FeedColumns._ID, FeedColumns.URL, FeedColumns.LAST_UPDATE},
+                where, null, null);
 
-        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+        FeedFetchExecutor executor = FeedFetchExecutor.getInstance();
+        ArrayList<Future<Integer>> results = new ArrayList<>(cursor.getCount());
         while (cursor.moveToNext()) {
             final String feedId = cursor.getString(0);
-            completionService.submit(new Callable<Integer>() {
+            results.add(executor.submit(cursor.getString(1), cursor.getLong(2), new Callable<Integer>() {
                 @Override
                 public Integer call() {
                     int result = 0;
@@ -483,24 +580,39 @@ public class FetcherService extends IntentService {
                     }
                     return result;
                 }
-            });
+            }));
         }
         cursor.close();
 
         int globalResult = 0;
-        for (int i = 0; i < nbFeed; i++) {
+        for (Future<Integer> f : results) {
             try {
-                Future<Integer> f = completionService.take();
                 globalResult += f.get();
             } catch (Exception ignored) {
             }
         }
 
-        executor.shutdownNow(); // To purge all threads
-
         return globalResult;
     }
 
+    /**
+     * Adds the counts of the refresh to the persisted counters, once for the whole refresh.
+     */
+    private void saveRefreshCounters() {
+        int notModifiedCount = mNotModifiedCount.getAndSet(0);
+        int fullDownloadCount = mFullDownloadCount.getAndSet(0);
+        if (notModifiedCount > 0) {
+            PrefUtils.putLong(PrefUtils.FEED_NOT_MODIFIED_COUNT, PrefUtils.getLong(PrefUtils.FEED_NOT_MODIFIED_COUNT, 0) + notModifiedCount);
+        }
+        if (fullDownloadCount > 0) {
+            PrefUtils.putLong(PrefUtils.FEED_FULL_DOWNLOAD_COUNT, PrefUtils.getLong(PrefUtils.FEED_FULL_DOWNLOAD_COUNT, 0) + fullDownloadCount);
+        }
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, "Feeds not modified: " + notModifiedCount + ", fully downloaded: " + fullDownloadCount);
+        }
+    }
+
     private int refreshFeed(String feedId, long keepDateBorderTime) {
         RssAtomParser handler = null;
 
@@ -510,33 +622,54 @@ public class FetcherService extends IntentService {
         if (cursor.moveToFirst()) {
             int urlPosition = cursor.getColumnIndex(FeedColumns.URL);
             int idPosition = cursor.getColumnIndex(FeedColumns._ID);
+            int groupIdPosition = cursor.getColumnIndex(FeedColumns.GROUP_ID);
             int titlePosition = cursor.getColumnIndex(FeedColumns.NAME);
             int fetchModePosition = cursor.getColumnIndex(FeedColumns.FETCH_MODE);
             int realLastUpdatePosition = cursor.getColumnIndex(FeedColumns.REAL_LAST_UPDATE);
-            int iconPosition = cursor.getColumnIndex(FeedColumns.ICON);
+            int iconPosition = cursor.getColumnIndex(FeedColumns.ICON_ID);
             int retrieveFullscreenPosition = cursor.getColumnIndex(FeedColumns.RETRIEVE_FULLTEXT);
             int httpAuthLoginPosition = cursor.getColumnIndex(FeedColumns.HTTP_AUTH_LOGIN);
             int httpAuthPasswordPosition = cursor.getColumnIndex(FeedColumns.HTTP_AUTH_PASSWORD);
             final String httpAuthLoginValue = cursor.getString(httpAuthLoginPosition);
             final String httpAuthPassValue = cursor.getString(httpAuthPasswordPosition);
+            int etagPosition = cursor.getColumnIndex(FeedColumns.ETAG);
+            int lastModifiedPosition = cursor.getColumnIndex(FeedColumns.LAST_MODIFIED);
 
             String id = cursor.getString(idPosition);
+            CookieManager cookieJar = NetworkUtils.getFeedCookieJar(cursor.getLong(idPosition));
 
             HttpURLConnection connection = null;
 
             try {
                 String feedUrl = cursor.getString(urlPosition);
-                connection = NetworkUtils.setupConnection(feedUrl,httpAuthLoginValue, httpAuthPassValue);
-                String contentType = connection.getContentType();
                 int fetchMode = cursor.getInt(fetchModePosition);
 
-                handler = new RssAtomParser(new Date(cursor.getLong(realLastUpdatePosition)), keepDateBorderTime, id, cursor.getString(titlePosition), feedUrl,
-                        cursor.getInt(retrieveFullscreenPosition) == 1);
+                // The validators are only sent once the feed url is resolved, as its detection needs a body
+                String etag = fetchMode != 0 ? cursor.getString(etagPosition) : null;
+                String lastModified = fetchMode != 0 ? cursor.getString(lastModifiedPosition) : null;
+                connection = NetworkUtils.setupConnection(new URL(feedUrl), cookieJar, "", httpAuthLoginValue, httpAuthPassValue, etag, lastModified);
+                String contentType = connection.getContentType();
+
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    // Nothing changed since the last fetch, we don't need to parse anything
+                    ContentValues values = new ContentValues();
+                    values.put(FeedColumns.LAST_UPDATE, System.currentTimeMillis());
+                    cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
+
+                    mNotModifiedCount.incrementAndGet();
+                    FeedRefreshScheduler.scheduleNextFetch(cr, id, false);
+
+                    cursor.close();
+                    return 0;
+                }
+
+                handler = new RssAtomParser(new Date(cursor.getLong(realLastUpdatePosition)), keepDateBorderTime, id, cursor.getString(groupIdPosition),
+                        cursor.getString(titlePosition), feedUrl, cursor.getInt(retrieveFullscreenPosition) == 1);
                 handler.setFetchImages(NetworkUtils.needDownloadPictures());
 
                 if (fetchMode == 0) {
                     if (contentType != null && contentType.startsWith(CONTENT_TYPE_TEXT_HTML)) {
-                        BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(NetworkUtils.getInputStream(connection)));
 
                         String line;
                         int posStart = -1;
@@ -570,8 +703,8 @@ public class FetcherService extends IntentService {
                                         }
                                         values.put(FeedColumns.URL, url);
                                         cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
-                                        connection.disconnect();
-                                        connection = NetworkUtils.setupConnection(new URL(url));
+                                        NetworkUtils.releaseConnection(connection);
+                                        connection = NetworkUtils.setupConnection(new URL(url), cookieJar);
                                         contentType = connection.getContentType();
                                         break;
                                     }
@@ -580,126 +713,35 @@ public class FetcherService extends IntentService {
                         }
                         // this indicates a badly configured feed
                         if (posStart == -1) {
-                            connection.disconnect();
-                            connection = NetworkUtils.setupConnection(new URL(feedUrl));
+                            NetworkUtils.releaseConnection(connection);
+                            connection = NetworkUtils.setupConnection(new URL(feedUrl), cookieJar);
                             contentType = connection.getContentType();
                         }
                     }
+                }
 
-                    if (contentType != null) {
-                        int index = contentType.indexOf(CHARSET);
-                        if (index > -1) {
-                            int index2 = contentType.indexOf(';', index);
-
-                            try {
-                                Xml.findEncodingByName(index2 > -1 ? contentType.substring(index + 8, index2) : contentType.substring(index + 8));
-                                fetchMode = FETCHMODE_DIRECT;
-                            } catch (UnsupportedEncodingException ignored) {
-                                fetchMode = FETCHMODE_REENCODE;
-                            }
-                        } else {
-                            fetchMode = FETCHMODE_REENCODE;
-                        }
-
-                    } else {
-                        BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-
-                        char[] chars = new char[20];
-
-                        int length = bufferedReader.read(chars);
-
-                        String xmlDescription = new String(chars, 0, length);
-
-                        connection.disconnect();
-                        connection = NetworkUtils.setupConnection(connection.getURL());
-
-                        int start = xmlDescription.indexOf(ENCODING);
-
-                        if (start > -1) {
-                            try {
-                                Xml.findEncodingByName(xmlDescription.substring(start + 10, xmlDescription.indexOf('"', start + 11)));
-                                fetchMode = FETCHMODE_DIRECT;
-                            } catch (UnsupportedEncodingException ignored) {
-                                fetchMode = FETCHMODE_REENCODE;
-                            }
-                        } else {
-                            // absolutely no encoding information found
-                            fetchMode = FETCHMODE_DIRECT;
-                        }
-                    }
+                // The charset is picked once, then the body is decoded while it is parsed
+                CharsetSniffingInputStream inputStream = new CharsetSniffingInputStream(NetworkUtils.getInputStream(connection), contentType);
+                String charset = inputStream.getCharset();
 
+                if (fetchMode == 0) {
                     ContentValues values = new ContentValues();
-                    values.put(FeedColumns.FETCH_MODE, fetchMode);
+                    values.put(FeedColumns.FETCH_MODE, FETCHMODE_RESOLVED);
                     cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
                 }
 
-                switch (fetchMode) {
-                    default:
-                    case FETCHMODE_DIRECT: {
-                        if (contentType != null) {
-                            int index = contentType.indexOf(CHARSET);
-                            int index2 = contentType.indexOf(';', index);
-
-                            InputStream inputStream = connection.getInputStream();
-                            Xml.parse(inputStream,
-                                    Xml.findEncodingByName(index2 > -1 ? contentType.substring(index + 8, index2) : contentType.substring(index + 8)),
-                                    handler);
-                        } else {
-                            InputStreamReader reader = new InputStreamReader(connection.getInputStream());
-                            Xml.parse(reader, handler);
-                        }
-                        break;
-                    }
-                    case FETCHMODE_REENCODE: {
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        InputStream inputStream = connection.getInputStream();
-
-                        byte[] byteBuffer = new byte[4096];
-
-                        int n;
-                        while ((n = inputStream.read(byteBuffer)) > 0) {
-                            outputStream.write(byteBuffer, 0, n);
-                        }
-
-                        String xmlText = outputStream.toString();
+                handler.parse(inputStream, charset);
 
-                        int start = xmlText != null ? xmlText.indexOf(ENCODING) : -1;
-
-                        if (start > -1) {
-                            Xml.parse(
-                                    new StringReader(new String(outputStream.toByteArray(),
-                                            xmlText.substring(start + 10, xmlText.indexOf('"', start + 11)))), handler
-                            );
-                        } else {
-                            // use content type
-                            if (contentType != null) {
-                                int index = contentType.indexOf(CHARSET);
-                                if (index > -1) {
-                                    int index2 = contentType.indexOf(';', index);
-
-                                    try {
-                                        StringReader reader = new StringReader(new String(outputStream.toByteArray(), index2 > -1 ? contentType.substring(
-                                                index + 8, index2) : contentType.substring(index + 8)));
-                                        Xml.parse(reader, handler);
-                                    } catch (Exception ignored) {
-                                    }
-                                } else {
-                                    StringReader reader = new StringReader(xmlText);
-                                    Xml.parse(reader, handler);
-                                }
-                            }
-                        }
-                        break;
-                    }
-                }
-
-                connection.disconnect();
+                NetworkUtils.releaseConnection(connection);
             } catch (FileNotFoundException e) {
                 if (handler == null || (!handler.isDone() && !handler.isCancelled())) {
                     ContentValues values = new ContentValues();
 
                     // resets the fetch mode to determine it again later
                     values.put(FeedColumns.FETCH_MODE, 0);
+                    // and forces a full download next time
+                    values.putNull(FeedColumns.ETAG);
+                    values.putNull(FeedColumns.LAST_MODIFIED);
 
                     values.put(FeedColumns.ERROR, getString(R.string.error_feed_error));
                     cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
@@ -710,15 +752,28 @@ public class FetcherService extends IntentService {
 
                     // resets the fetch mode to determine it again later
                     values.put(FeedColumns.FETCH_MODE, 0);
+                    // and forces a full download next time
+                    values.putNull(FeedColumns.ETAG);
+                    values.putNull(FeedColumns.LAST_MODIFIED);
 
                     values.put(FeedColumns.ERROR, e.getMessage() != null ? e.getMessage() : getString(R.string.error_feed_process));
                     cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
                 }
             } finally {
 
+                /* keep the validators of a successfully parsed feed for the next conditional request */
+                if (handler != null && connection != null && (handler.isDone() || handler.isCancelled())) {
+                    ContentValues values = new ContentValues();
+                    values.put(FeedColumns.ETAG, connection.getHeaderField("ETag"));
+                    values.put(FeedColumns.LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+                    cr.update(FeedColumns.CONTENT_URI(id), values, null, null);
+
+                    mFullDownloadCount.incrementAndGet();
+                }
+
 				/* check and optionally find favicon */
                 try {
-                    if (handler != null && cursor.getBlob(iconPosition) == null) {
+                    if (handler != null && cursor.isNull(iconPosition)) {
                         String feedLink = handler.getFeedLink();
                         if (feedLink != null) {
                             NetworkUtils.retrieveFavicon(this, new URL(feedLink), id);
@@ -730,13 +785,30 @@ public class FetcherService extends IntentService {
                 }
 
                 if (connection != null) {
-                    connection.disconnect();
+                    NetworkUtils.releaseConnection(connection);
                 }
             }
         }
 
         cursor.close();
 
-        return handler != null ? handler.getNewCount() : 0;
+        int newCount = handler != null ? handler.getNewCount() : 0;
+        FeedRefreshScheduler.scheduleNextFetch(cr, feedId, newCount > 0);
+
+        return newCount;
+    }
+
+    private static class MobilizedEntry {
+        final String mHtml;
+        final String mMainImgUrl;
+        final ArrayList<String> mImgUrls;
+        final boolean mTruncated;
+
+        MobilizedEntry(String html, String mainImgUrl, ArrayList<String> imgUrls, boolean truncated) {
+            mHtml = html;
+            mMainImgUrl = mainImgUrl;
+            mImgUrls = imgUrls;
+            mTruncated = truncated;
+        }
     }
 }
@@ -55,13 +55,11 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.os.IBinder;
 import android.os.SystemClock;
-import android.util.Log;
 
 import net.etuldan.sparss.Constants;
 import net.etuldan.sparss.utils.PrefUtils;
 
 public class RefreshService extends Service {
-    private static final String TAG = "RefreshService";
     
     public static final String SIXTY_MINUTES = "3600000";
     private final OnSharedPreferenceChangeListener mListener = new OnSharedPreferenceChangeListener() {
@@ -95,19 +93,31 @@ public class RefreshService extends Service {
         restartTimer(true);
     }
 
+    private static PendingIntent getTimerIntent(Context context) {
+        return PendingIntent.getBroadcast(context, 0, new Intent(context, RefreshAlarmReceiver.class), 0);
+    }
+
+    /**
+     * Replaces the pending alarm by one firing when the next feed is due, see {@link FeedRefreshScheduler}.
+     */
+    public static void scheduleNextRefresh(Context context) {
+        if (!PrefUtils.getBoolean(PrefUtils.REFRESH_ENABLED, true)) {
+            return;
+        }
+
+        long delay = FeedRefreshScheduler.getDelayUntilNextDueFeed(context.getContentResolver(), System.currentTimeMillis());
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + delay, getTimerIntent(context));
+    }
+
     private void restartTimer(boolean created) {
         if (mTimerIntent == null) {
-            mTimerIntent = PendingIntent.getBroadcast(this, 0, new Intent(this, RefreshAlarmReceiver.class), 0);
+            mTimerIntent = getTimerIntent(this);
         } else {
             mAlarmManager.cancel(mTimerIntent);
         }
 
-        int time = 3600000;
-        try {
-            time = Math.max(60000, Integer.parseInt(PrefUtils.getString(PrefUtils.REFRESH_INTERVAL, SIXTY_MINUTES)));
-        } catch (Exception ignored) {
-            Log.e(TAG, "Exception", ignored);
-        }
+        long time = FeedRefreshScheduler.getRefreshInterval();
 
         long elapsedRealTime = SystemClock.elapsedRealtime();
         long initialRefreshTime = elapsedRealTime + 10000;
@@ -127,7 +137,8 @@ public class RefreshService extends Service {
             }
         }
 
-        mAlarmManager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME_WAKEUP, initialRefreshTime, time, mTimerIntent);
+        // One shot only, the next alarm is scheduled once the due feeds are refreshed
+        mAlarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, initialRefreshTime, mTimerIntent);
     }
 
     @Override
@@ -142,6 +153,11 @@ public class RefreshService extends Service {
     public static class RefreshAlarmReceiver extends BroadcastReceiver {
         @Override
         public void onReceive(Context context, Intent intent) {
+            // Fallback alarm in case the refresh cannot happen (no network, ...), it is replaced at the end of the refresh
+            AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP, SystemClock.elapsedRealtime() + FeedRefreshScheduler.getRefreshInterval(),
+                    getTimerIntent(context));
+
             context.startService(new Intent(context, FetcherService.class).setAction(FetcherService.ACTION_REFRESH_FEEDS).putExtra(Constants.FROM_AUTO_REFRESH, true));
         }
     }
@@ -3,12 +3,17 @@ package net.etuldan.sparss.utils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
 import org.jsoup.select.Elements;
 
+import java.io.BufferedReader;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -23,6 +28,8 @@ public class ArticleTextExtractor {
     // Interesting nodes
     private static final Pattern NODES = Pattern.compile("p|div|td|h1|h2|article|section");
 
+    private static final List<String> HEADERS = Arrays.asList("h1", "h2", "h3", "h4", "h5", "h6");
+
     // Unlikely candidates
     private static final Pattern UNLIKELY = Pattern.compile("com(bx|ment|munity)|dis(qus|cuss)|e(xtra|[-]?mail)|foot|"
             + "header|menu|re(mark|ply)|rss|sh(are|outbox)|sponsor"
@@ -51,6 +58,17 @@ public class ArticleTextExtractor {
         return extractContent(Jsoup.parse(input, null, ""), contentIndicator);
     }
 
+    /**
+     * @param input            the page, see {@link BoundedHtmlReader}
+     * @param contentIndicator a text which should be included into the extracted content, or null
+     * @return extracted article, all HTML tags stripped
+     */
+    public static String extractContent(Reader input, String contentIndicator) throws Exception {
+        // The jsoup parser needs to mark and reset its input
+        Reader markableInput = input.markSupported() ? input : new BufferedReader(input);
+        return extractContent(Parser.htmlParser().parseInput(markableInput, ""), contentIndicator);
+    }
+
     public static String extractContent(Document doc, String contentIndicator) {
         if (doc == null)
             throw new NullPointerException("missing document");
@@ -58,109 +76,199 @@ public class ArticleTextExtractor {
         // now remove the clutter
         prepareDocument(doc);
 
-        // init elements
-        Collection<Element> nodes = getNodes(doc);
-        int maxWeight = 0;
-        Element bestMatchElement = null;
-
-        for (Element entry : nodes) {
-            int currentWeight = getWeight(entry, contentIndicator);
-            if (currentWeight > maxWeight) {
-                maxWeight = currentWeight;
-                bestMatchElement = entry;
+        NodeScorer scorer = new NodeScorer(contentIndicator);
+        scorer.score(doc.body());
 
-                if (maxWeight > 300) {
-                    break;
-                }
-            }
-        }
-
-        if (bestMatchElement != null) {
-            return bestMatchElement.toString();
+        if (scorer.mBestMatchElement != null) {
+            return scorer.mBestMatchElement.toString();
         }
 
         return null;
     }
 
     /**
-     * Weights current element. By matching it with positive candidates and
-     * weighting child nodes. Since it's impossible to predict which exactly
-     * names, ids or class names will be used in HTML, major role is played by
-     * child nodes
-     *
-     * @param e                Element to weight, along with child nodes
-     * @param contentIndicator a text which should be included into the extracted content, or null
+     * Weights all the interesting nodes in a single post-order traversal: the text of the document is built once, each element
+     * knowing the range of its own text in it, and the weight of the child nodes is added to their parent when they are done. So the
+     * text of a subtree is never computed twice, and the best match is the same from one run to another (the first one in post-order
+     * among the ones with the best weight).
+     * <p/>
+     * An element is weighted by matching it with positive candidates and weighting its child nodes. Since it's impossible to predict
+     * which exactly names, ids or class names will be used in HTML, major role is played by child nodes.
+     * <p/>
+     * For the child nodes, during tests some difficulties were met. For instance, not every single document has nested paragraph tags
+     * inside of the major article tag. Sometimes people are adding one more nesting level. So, we're adding points for every 100
+     * symbols contained in tag nested inside of the current weighted element, but not for the elements nested 2 levels deep. This way
+     * we give more chances to extract the element that has less nested levels, increasing probability of the correct extraction.
      */
-    private static int getWeight(Element e, String contentIndicator) {
-        int weight = calcWeight(e);
-        weight += (int) Math.round(e.ownText().length() / 100.0 * 10);
-        weight += weightChildNodes(e, contentIndicator);
-        return weight;
-    }
+    private static class NodeScorer {
+        private final String mContentIndicator;
+        private final StringBuilder mText = new StringBuilder();
+        private final ArrayList<Integer> mIndicatorPositions = new ArrayList<>(); // in mText, in ascending order
+        private final ArrayList<Frame> mStack = new ArrayList<>();
+
+        private int mMaxWeight = 0;
+        private Element mBestMatchElement = null;
+
+        NodeScorer(String contentIndicator) {
+            mContentIndicator = contentIndicator != null && !contentIndicator.isEmpty() ? contentIndicator : null;
+        }
+
+        void score(Element root) {
+            mStack.add(new Frame(root, 0));
+
+            while (!mStack.isEmpty()) {
+                Frame frame = mStack.get(mStack.size() - 1);
+
+                if (frame.mChildIndex < frame.mElement.childNodeSize()) {
+                    Node child = frame.mElement.childNode(frame.mChildIndex++);
+                    if (child instanceof TextNode) {
+                        appendText(((TextNode) child).getWholeText());
+                    } else if (child instanceof Element) {
+                        Element element = (Element) child;
+                        if (mText.length() > 0 && (element.isBlock() || "br".equals(element.tagName())) && !endsWithSpace()) {
+                            mText.append(' ');
+                        }
+                        mStack.add(new Frame(element, mText.length()));
+                    }
+                } else {
+                    mStack.remove(mStack.size() - 1);
+                    end(frame, mStack.isEmpty() ? null : mStack.get(mStack.size() - 1));
+                }
+            }
+        }
+
+        /**
+         * Called when all the child nodes of the element are done
+         */
+        private void end(Frame frame, Frame parent) {
+            Element element = frame.mElement;
+            String tagName = element.tagName();
+
+            // the text of the element, like Element.text()
+            int textStart = frame.mTextStart;
+            int textEnd = mText.length();
+            if (textStart < textEnd && mText.charAt(textStart) == ' ') {
+                textStart++;
+            }
+            if (textEnd > textStart && mText.charAt(textEnd - 1) == ' ') {
+                textEnd--;
+            }
+            int textLength = textEnd - textStart;
+            int ownTextLength = element.ownText().length();
+
+            if (NODES.matcher(tagName).matches()) {
+                int weight = calcWeight(element);
+                weight += (int) Math.round(ownTextLength / 100.0 * 10);
+                weight += frame.getChildNodesWeight();
+
+                if (weight > mMaxWeight) {
+                    mMaxWeight = weight;
+                    mBestMatchElement = element;
+                }
+            }
+
+            if (parent == null) {
+                return;
+            }
+
+            if (HEADERS.contains(tagName)) {
+                parent.mHeaders++;
+            }
 
-    /**
-     * Weights a child nodes of given Element. During tests some difficulties
-     * were met. For instance, not every single document has nested paragraph
-     * tags inside of the major article tag. Sometimes people are adding one
-     * more nesting level. So, we're adding 4 points for every 100 symbols
-     * contained in tag nested inside of the current weighted element, but only
-     * 3 points for every element that's nested 2 levels deep. This way we give
-     * more chances to extract the element that has less nested levels,
-     * increasing probability of the correct extraction.
-     *
-     * @param rootEl           Element, who's child nodes will be weighted
-     * @param contentIndicator a text which should be included into the extracted content, or null
-     */
-    private static int weightChildNodes(Element rootEl, String contentIndicator) {
-        int weight = 0;
-        Element caption = null;
-        List<Element> pEls = new ArrayList<>(5);
-        for (Element child : rootEl.children()) {
-            String text = child.text();
-            int textLength = text.length();
             if (textLength < 20) {
-                continue;
+                return;
             }
 
-            if (contentIndicator != null && text.contains(contentIndicator)) {
-                weight += 100; // We certainly found the item
+            if (containsContentIndicator(textStart, textEnd)) {
+                parent.mChildNodesWeight += 100; // We certainly found the item
             }
 
-            String ownText = child.ownText();
-            int ownTextLength = ownText.length();
             if (ownTextLength > 200) {
-                weight += Math.max(50, ownTextLength / 10);
+                parent.mChildNodesWeight += Math.max(50, ownTextLength / 10);
             }
 
-            if (child.tagName().equals("h1") || child.tagName().equals("h2")) {
-                weight += 30;
-            } else if (child.tagName().equals("div") || child.tagName().equals("p")) {
-                weight += calcWeightForChild(ownText);
-                if (child.tagName().equals("p") && textLength > 50)
-                    pEls.add(child);
+            if (tagName.equals("h1") || tagName.equals("h2")) {
+                parent.mChildNodesWeight += 30;
+            } else if (tagName.equals("div") || tagName.equals("p")) {
+                parent.mChildNodesWeight += calcWeightForChild(ownTextLength);
+                if (tagName.equals("p") && textLength > 50)
+                    parent.mParagraphs++;
 
-                if (child.className().toLowerCase().equals("caption"))
-                    caption = child;
+                if (element.className().toLowerCase().equals("caption"))
+                    parent.mHasCaption = true;
             }
         }
 
-        // use caption and image
-        if (caption != null)
-            weight += 30;
+        /**
+         * Appends the text with its whitespaces normalized, and records the new occurrences of the content indicator
+         */
+        private void appendText(String text) {
+            int previousLength = mText.length();
+
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r' || c == '\u00a0') {
+                    if (mText.length() > 0 && !endsWithSpace()) {
+                        mText.append(' ');
+                    }
+                } else {
+                    mText.append(c);
+                }
+            }
 
-        if (pEls.size() >= 2) {
-            for (Element subEl : rootEl.children()) {
-                if ("h1;h2;h3;h4;h5;h6".contains(subEl.tagName())) {
-                    weight += 20;
-                    // headerEls.add(subEl);
+            if (mContentIndicator != null && mText.length() > previousLength) {
+                int position = mText.indexOf(mContentIndicator, Math.max(0, previousLength - mContentIndicator.length() + 1));
+                while (position >= 0) {
+                    mIndicatorPositions.add(position);
+                    position = mText.indexOf(mContentIndicator, position + 1);
                 }
             }
         }
-        return weight;
+
+        private boolean endsWithSpace() {
+            return mText.charAt(mText.length() - 1) == ' ';
+        }
+
+        private boolean containsContentIndicator(int textStart, int textEnd) {
+            int i = Collections.binarySearch(mIndicatorPositions, textStart);
+            if (i < 0) {
+                i = -i - 1; // first position after the start
+            }
+            return i < mIndicatorPositions.size() && mIndicatorPositions.get(i) + mContentIndicator.length() <= textEnd;
+        }
+
+        private static class Frame {
+            final Element mElement;
+            final int mTextStart;
+            int mChildIndex = 0;
+
+            int mChildNodesWeight = 0;
+            int mParagraphs = 0; // long enough paragraphs
+            int mHeaders = 0;
+            boolean mHasCaption = false;
+
+            Frame(Element element, int textStart) {
+                mElement = element;
+                mTextStart = textStart;
+            }
+
+            int getChildNodesWeight() {
+                int weight = mChildNodesWeight;
+
+                // use caption and image
+                if (mHasCaption)
+                    weight += 30;
+
+                if (mParagraphs >= 2) {
+                    weight += 20 * mHeaders;
+                }
+                return weight;
+            }
+        }
     }
 
-    private static int calcWeightForChild(String text) {
-        return text.length() / 25;
+    private static int calcWeightForChild(int textLength) {
+        return textLength / 25;
 //		return Math.min(100, text.length() / ((child.getAllElements().size()+1)*5));
     }
 
@@ -238,17 +346,4 @@ public class ArticleTextExtractor {
 
         return doc;
     }
-
-    /**
-     * @return a set of all important nodes
-     */
-    private static Collection<Element> getNodes(Document doc) {
-        Collection<Element> nodes = new HashSet<>(64);
-        for (Element el : doc.select("body").select("*")) {
-            if (NODES.matcher(el.tagName()).matches()) {
-                nodes.add(el);
-            }
-        }
-        return nodes;
-    }
 }
@@ -0,0 +1,355 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.utils;
+
+import net.etuldan.sparss.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Reader of an HTML page to mobilize, which decodes the body while it is read and stops after a maximum number of bytes, so that a
+ * huge page is never materialized in memory. The comments, scripts and styles are dropped on the way: they are useless to the
+ * extraction of the article, and often the heaviest part of the page.
+ * <p/>
+ * The charset is taken from the byte order mark, then from the Content-Type header and finally from the meta tags of the first
+ * bytes. UTF-8 is used by default.
+ */
+public class BoundedHtmlReader extends Reader {
+
+    private static final int PEEK_SIZE = 1024;
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final String META_START = "<meta";
+    private static final String CHARSET = "charset";
+    private static final String COMMENT_START = "<!--";
+    private static final String COMMENT_END = "-->";
+    private static final String[] DROPPED_TAGS = {"script", "style"};
+
+    private final CappedInputStream mInputStream;
+    private final Reader mReader;
+    private final String mCharset;
+
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private boolean mEndOfStream = false;
+
+    private String mSkipUntil = null; // the end of the dropped comment or element, null when the text is kept
+    private boolean mSkipEndTag = false; // the end tag name is followed by the rest of the tag
+
+    /**
+     * @param contentType   the Content-Type header, or null
+     * @param contentLength the number of bytes of the body, or -1 if it is unknown (or compressed)
+     * @param maxBytes      the number of bytes after which the page is truncated
+     */
+    public BoundedHtmlReader(InputStream in, String contentType, long contentLength, long maxBytes) throws IOException {
+        mInputStream = new CappedInputStream(in, contentLength, maxBytes);
+        BufferedInputStream bufferedStream = new BufferedInputStream(mInputStream, BUFFER_SIZE);
+        mCharset = detectCharset(bufferedStream, contentType);
+        mReader = new InputStreamReader(bufferedStream, mCharset);
+    }
+
+    public String getCharset() {
+        return mCharset;
+    }
+
+    /**
+     * @return true if the end of the page has been cut because of the maximum size. This is only known once the whole reader has
+     * been read.
+     */
+    public boolean isTruncated() {
+        return mInputStream.mTruncated;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        int count = 0;
+
+        while (count < length) {
+            if (mPosition >= mLimit && (count > 0 || !ensure(1))) { // don't wait for the network if something can be returned
+                break;
+            }
+
+            char c = mBuffer[mPosition];
+            if (mSkipUntil != null) {
+                if (Character.toLowerCase(c) == mSkipUntil.charAt(0) && ensure(mSkipUntil.length()) && startsWith(mSkipUntil)) {
+                    mPosition += mSkipUntil.length();
+                    if (mSkipEndTag) {
+                        mSkipUntil = ">";
+                        mSkipEndTag = false;
+                    } else {
+                        mSkipUntil = null;
+                    }
+                } else {
+                    mPosition++;
+                }
+            } else if (c != '<' || !startSkipping()) {
+                buffer[offset + count++] = c;
+                mPosition++;
+            }
+        }
+
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    /**
+     * @return true if a comment or a dropped element starts at the current position, which is then moved after its start
+     */
+    private boolean startSkipping() throws IOException {
+        if (ensure(COMMENT_START.length()) && startsWith(COMMENT_START)) {
+            mSkipUntil = COMMENT_END;
+            mSkipEndTag = false;
+            mPosition += COMMENT_START.length();
+            return true;
+        }
+
+        for (String tag : DROPPED_TAGS) {
+            // '<', the tag name and the character ending the name
+            if (ensure(tag.length() + 2) && regionMatches(mPosition + 1, tag)) {
+                char next = mBuffer[mPosition + tag.length() + 1];
+                if (next == '>' || next == '/' || Character.isWhitespace(next)) {
+                    mSkipUntil = "</" + tag;
+                    mSkipEndTag = true;
+                    mPosition += tag.length() + 1;
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private boolean startsWith(String lowerCaseString) {
+        return regionMatches(mPosition, lowerCaseString);
+    }
+
+    private boolean regionMatches(int position, String lowerCaseString) {
+        if (mLimit - position < lowerCaseString.length()) {
+            return false;
+        }
+        for (int i = 0; i < lowerCaseString.length(); i++) {
+            if (Character.toLowerCase(mBuffer[position + i]) != lowerCaseString.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads from the decoded stream until the buffer has the given number of characters after the current position
+     *
+     * @return false if the end of the stream comes first
+     */
+    private boolean ensure(int count) throws IOException {
+        if (mLimit - mPosition >= count) {
+            return true;
+        }
+        if (mEndOfStream) {
+            return false;
+        }
+
+        if (mPosition > 0) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+
+        while (mLimit < count) {
+            int n = mReader.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (n == -1) {
+                mEndOfStream = true;
+                return false;
+            }
+            mLimit += n;
+        }
+
+        return true;
+    }
+
+    private static String detectCharset(BufferedInputStream in, String contentType) throws IOException {
+        byte[] peek = new byte[PEEK_SIZE];
+        in.mark(PEEK_SIZE);
+        int length = 0;
+        int n;
+        while (length < PEEK_SIZE && (n = in.read(peek, length, PEEK_SIZE - length)) > 0) {
+            length += n;
+        }
+        in.reset();
+
+        // The BOM is skipped as it would otherwise end up as a character of the document
+        if (length >= 3 && (peek[0] & 0xff) == 0xEF && (peek[1] & 0xff) == 0xBB && (peek[2] & 0xff) == 0xBF) {
+            in.skip(3);
+            return "UTF-8";
+        } else if (length >= 2 && (peek[0] & 0xff) == 0xFE && (peek[1] & 0xff) == 0xFF) {
+            in.skip(2);
+            return "UTF-16BE";
+        } else if (length >= 2 && (peek[0] & 0xff) == 0xFF && (peek[1] & 0xff) == 0xFE) {
+            in.skip(2);
+            return "UTF-16LE";
+        }
+
+        String charset = null;
+        if (contentType != null) {
+            charset = CharsetSniffingInputStream.getContentTypeCharset(contentType);
+        }
+        if (charset == null) {
+            charset = getMetaCharset(new String(peek, 0, length, "ISO-8859-1").toLowerCase());
+        }
+
+        return charset != null ? charset : Constants.UTF8;
+    }
+
+    /**
+     * @return the charset of either &lt;meta charset="..."&gt; or &lt;meta http-equiv="Content-Type" content="...; charset=..."&gt;
+     */
+    static String getMetaCharset(String start) {
+        int metaStart = start.indexOf(META_START);
+        while (metaStart != -1) {
+            int metaEnd = start.indexOf('>', metaStart);
+            if (metaEnd == -1) {
+                return null;
+            }
+
+            int index = start.indexOf(CHARSET, metaStart);
+            if (index != -1 && index < metaEnd) {
+                index += CHARSET.length();
+                while (index < metaEnd && Character.isWhitespace(start.charAt(index))) {
+                    index++;
+                }
+                if (index < metaEnd && start.charAt(index) == '=') {
+                    index++;
+                    while (index < metaEnd && (Character.isWhitespace(start.charAt(index)) || start.charAt(index) == '"'
+                            || start.charAt(index) == '\'')) {
+                        index++;
+                    }
+                    int valueEnd = index;
+                    while (valueEnd < metaEnd && "\"'; /".indexOf(start.charAt(valueEnd)) == -1
+                            && !Character.isWhitespace(start.charAt(valueEnd))) {
+                        valueEnd++;
+                    }
+                    if (valueEnd > index) {
+                        String charset = CharsetSniffingInputStream.getSupportedCharset(start.substring(index, valueEnd));
+                        if (charset != null) {
+                            return charset;
+                        }
+                    }
+                }
+            }
+
+            metaStart = start.indexOf(META_START, metaEnd);
+        }
+
+        return null;
+    }
+
+    /**
+     * Stream ending after the Content-Length or the maximum number of bytes, whichever comes first
+     */
+    private static class CappedInputStream extends FilterInputStream {
+        private final boolean mCapped; // the limit is the maximum size, not the Content-Length
+        private long mRemaining;
+        private boolean mCapReached = false;
+        boolean mTruncated = false;
+
+        CappedInputStream(InputStream in, long contentLength, long maxBytes) {
+            super(in);
+            mCapped = contentLength < 0 || contentLength > maxBytes;
+            mRemaining = mCapped ? maxBytes : contentLength;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!hasRemaining()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b != -1) {
+                mRemaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!hasRemaining()) {
+                return -1;
+            }
+            int n = in.read(buffer, offset, (int) Math.min(length, mRemaining));
+            if (n > 0) {
+                mRemaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (!hasRemaining()) {
+                return 0;
+            }
+            long skipped = in.skip(Math.min(n, mRemaining));
+            mRemaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), mRemaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void mark(int readLimit) {
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        private boolean hasRemaining() throws IOException {
+            if (mRemaining > 0) {
+                return true;
+            }
+            if (mCapped && !mCapReached) { // the page is truncated if there is at least one more byte
+                mCapReached = true;
+                mTruncated = in.read() != -1;
+            }
+            return false;
+        }
+    }
+}
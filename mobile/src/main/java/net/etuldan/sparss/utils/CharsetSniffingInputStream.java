@@ -0,0 +1,139 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.utils;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Buffered stream detecting the charset of an XML document by peeking at its first bytes, so that the document can be
+ * decoded while it is read, without any second request nor full copy of the body.
+ * <p/>
+ * The byte order mark is used first, then the XML declaration and finally the charset of the Content-Type header.
+ */
+public class CharsetSniffingInputStream extends BufferedInputStream {
+
+    private static final int PEEK_SIZE = 1024;
+    private static final String CHARSET = "charset=";
+    private static final String XML_DECLARATION = "<?xml";
+    private static final String ENCODING = "encoding";
+
+    private final String mCharset;
+
+    public CharsetSniffingInputStream(InputStream in, String contentType) throws IOException {
+        super(in, PEEK_SIZE * 8);
+        mCharset = detectCharset(contentType);
+    }
+
+    /**
+     * @return the detected charset, or null if the document gives no hint about it (UTF-8 should then be used)
+     */
+    public String getCharset() {
+        return mCharset;
+    }
+
+    private String detectCharset(String contentType) throws IOException {
+        byte[] peek = new byte[PEEK_SIZE];
+        mark(PEEK_SIZE);
+        int length = 0;
+        int n;
+        while (length < PEEK_SIZE && (n = read(peek, length, PEEK_SIZE - length)) > 0) {
+            length += n;
+        }
+        reset();
+
+        // The BOM is skipped as it would otherwise end up as a character in front of the XML declaration
+        if (length >= 3 && (peek[0] & 0xff) == 0xEF && (peek[1] & 0xff) == 0xBB && (peek[2] & 0xff) == 0xBF) {
+            skip(3);
+            return "UTF-8";
+        } else if (length >= 2 && (peek[0] & 0xff) == 0xFE && (peek[1] & 0xff) == 0xFF) {
+            skip(2);
+            return "UTF-16BE";
+        } else if (length >= 2 && (peek[0] & 0xff) == 0xFF && (peek[1] & 0xff) == 0xFE) {
+            skip(2);
+            return "UTF-16LE";
+        }
+
+        String charset = getDeclaredEncoding(new String(peek, 0, length, "ISO-8859-1"));
+        if (charset == null && contentType != null) {
+            charset = getContentTypeCharset(contentType);
+        }
+
+        return charset;
+    }
+
+    private static String getDeclaredEncoding(String start) {
+        int declarationStart = start.indexOf(XML_DECLARATION);
+        if (declarationStart == -1) {
+            return null;
+        }
+        int declarationEnd = start.indexOf("?>", declarationStart);
+        if (declarationEnd == -1) {
+            return null;
+        }
+
+        int index = start.indexOf(ENCODING, declarationStart);
+        if (index == -1 || index > declarationEnd) {
+            return null;
+        }
+        index = start.indexOf('=', index + ENCODING.length());
+        if (index == -1 || index > declarationEnd) {
+            return null;
+        }
+
+        // Both quotes are allowed by the XML specification
+        index++;
+        while (index < declarationEnd && Character.isWhitespace(start.charAt(index))) {
+            index++;
+        }
+        if (index >= declarationEnd || (start.charAt(index) != '"' && start.charAt(index) != '\'')) {
+            return null;
+        }
+        int valueEnd = start.indexOf(start.charAt(index), index + 1);
+        if (valueEnd == -1 || valueEnd > declarationEnd) {
+            return null;
+        }
+
+        return getSupportedCharset(start.substring(index + 1, valueEnd));
+    }
+
+    static String getContentTypeCharset(String contentType) {
+        int index = contentType.toLowerCase().indexOf(CHARSET);
+        if (index == -1) {
+            return null;
+        }
+
+        int end = contentType.indexOf(';', index);
+        String charset = end > -1 ? contentType.substring(index + CHARSET.length(), end) : contentType.substring(index + CHARSET.length());
+        return getSupportedCharset(charset.replace("\"", "").replace("'", ""));
+    }
+
+    static String getSupportedCharset(String charset) {
+        charset = charset.trim();
+        try {
+            return Charset.isSupported(charset) ? charset : null;
+        } catch (IllegalArgumentException ignored) { // illegal charset name
+            return null;
+        }
+    }
+}
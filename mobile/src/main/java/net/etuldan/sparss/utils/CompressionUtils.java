@@ -0,0 +1,98 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.utils;
+
+import android.database.Cursor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate codec of the stored html. The compressed html is stored as a BLOB and the plain html as TEXT, so both can be in the same
+ * column: the readers go through {@link #getString(Cursor, int)}.
+ */
+public class CompressionUtils {
+
+    private static final String UTF8 = "UTF-8";
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * @return the zlib stream of the UTF-8 bytes of the text
+     */
+    public static byte[] compress(String text) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(text.getBytes(UTF8));
+            deflater.finish();
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } catch (UnsupportedEncodingException e) { // UTF-8 is always available
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return the text, or null if the data is not a complete zlib stream
+     */
+    public static String decompress(byte[] data) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toString(UTF8);
+        } catch (DataFormatException e) {
+            return null;
+        } catch (UnsupportedEncodingException e) { // UTF-8 is always available
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the text of the column, decompressed if it is stored compressed
+     */
+    public static String getString(Cursor cursor, int columnIndex) {
+        if (cursor.getType(columnIndex) == Cursor.FIELD_TYPE_BLOB) {
+            return decompress(cursor.getBlob(columnIndex));
+        }
+        return cursor.getString(columnIndex);
+    }
+}
@@ -29,6 +29,11 @@ import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.service.FetcherService;
 
 import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.parser.Parser;
 import org.jsoup.safety.Whitelist;
 
 import java.io.File;
@@ -36,61 +41,140 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PushbackInputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
 
 public class HtmlUtils {
 
-    private static final Whitelist JSOUP_WHITELIST = Whitelist.relaxed().addTags("iframe", "video", "audio", "source", "track")
-            .addAttributes("iframe", "src", "frameborder", "height", "width")
-            .addAttributes("video", "src", "controls", "height", "width", "poster")
-            .addAttributes("audio", "src", "controls")
-            .addAttributes("source", "src", "type")
-            .addAttributes("track", "src", "kind", "srclang", "label");
+    private static final ContentWhitelist JSOUP_WHITELIST = new ContentWhitelist();
 
     private static final String URL_SPACE = "%20";
+    private static final String IMAGE_MANIFEST_SEPARATOR = "\n";
+    private static final String SRC_ATTRIBUTE_START = " src=\"";
 
     private static final Pattern IMG_PATTERN = Pattern.compile("<img\\s+[^>]*src=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern ADS_PATTERN = Pattern.compile("<div class=('|\")mf-viral('|\")><table border=('|\")0('|\")>.*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern LAZY_LOADING_PATTERN = Pattern.compile("\\s+src=[^>]+\\s+original[-]*src=(\"|')", Pattern.CASE_INSENSITIVE);
-    private static final Pattern EMPTY_IMAGE_PATTERN = Pattern.compile("<img\\s+(height=['\"]1['\"]\\s+width=['\"]1['\"]|width=['\"]1['\"]\\s+height=['\"]1['\"])\\s+[^>]*src=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern NON_HTTP_IMAGE_PATTERN = Pattern.compile("\\s+(href|src)=(\"|')//", Pattern.CASE_INSENSITIVE);
-    private static final Pattern BAD_IMAGE_PATTERN = Pattern.compile("<img\\s+[^>]*src=\\s*['\"]([^'\"]+)\\.img['\"][^>]*>", Pattern.CASE_INSENSITIVE);
-    private static final Pattern START_BR_PATTERN = Pattern.compile("^(\\s*<br\\s*[/]*>\\s*)*", Pattern.CASE_INSENSITIVE);
-    private static final Pattern END_BR_PATTERN = Pattern.compile("(\\s*<br\\s*[/]*>\\s*)*$", Pattern.CASE_INSENSITIVE);
-    private static final Pattern MULTIPLE_BR_PATTERN = Pattern.compile("(\\s*<br\\s*[/]*>\\s*){3,}", Pattern.CASE_INSENSITIVE);
-    private static final Pattern EMPTY_LINK_PATTERN = Pattern.compile("<a\\s+[^>]*></a>", Pattern.CASE_INSENSITIVE);
 
+    private static final String TAG_IMG = "img";
+    private static final String TAG_A = "a";
+    private static final String TAG_BR = "br";
+    private static final String ATTR_SRC = "src";
+    private static final String ATTR_HREF = "href";
+    private static final String ATTR_WIDTH = "width";
+    private static final String ATTR_HEIGHT = "height";
+    private static final String[] LAZY_LOADING_ATTRS = new String[]{"original-src", "originalsrc"};
+    private static final String ADS_CLASS = "mf-viral";
+    private static final String BAD_IMAGE_EXTENSION = ".img";
+    private static final String PROTOCOL_RELATIVE_URL = "//";
+    private static final int MAX_CONSECUTIVE_BR = 2;
+    private static final String COMMENT_START = "<!--";
+    private static final String COMMENT_END = "-->";
+    private static final HashSet<String> INLINE_TAGS = new HashSet<>(Arrays.asList("a", "abbr", "b", "cite", "code", "em", "font", "i", "q", "s",
+            "small", "span", "strike", "strong", "sub", "sup", "u"));
 
     public static String improveHtmlContent(String content, String baseUri) {
-        content = ADS_PATTERN.matcher(content).replaceAll("");
-
-        if (content != null) {
-            // remove some ads
-            content = ADS_PATTERN.matcher(content).replaceAll("");
-            // remove lazy loading images stuff
-            content = LAZY_LOADING_PATTERN.matcher(content).replaceAll(" src=$1");
-
-            // clean by JSoup
-            content = Jsoup.clean(content, baseUri, JSOUP_WHITELIST);
-
-            // remove empty or bad images
-            content = EMPTY_IMAGE_PATTERN.matcher(content).replaceAll("");
-            content = BAD_IMAGE_PATTERN.matcher(content).replaceAll("");
-            // remove empty links
-            content = EMPTY_LINK_PATTERN.matcher(content).replaceAll("");
-            // fix non http image paths
-            content = NON_HTTP_IMAGE_PATTERN.matcher(content).replaceAll(" $1=$2http://");
-            // remove trailing BR & too much BR
-            content = START_BR_PATTERN.matcher(content).replaceAll("");
-            // TODO: quick (and dirty) fix for #11. I HAVE TO FIND ANOTHER SOLUTION !!
-            //content = END_BR_PATTERN.matcher(content).replaceAll("");
-            // TODO: end of fix for #11
-            content = MULTIPLE_BR_PATTERN.matcher(content).replaceAll("<br><br>");
+        return improveHtmlContent(content, baseUri, null);
+    }
+
+    /**
+     * Cleans the content in a single walk over its tree: the whitelist cleaning, the removal of the ads, of the empty or bad images
+     * and of the empty links, the fix of the lazy loading images and of the protocol-relative urls, and the removal of the leading
+     * and repeated &lt;br&gt;. The urls of the remaining images are added to {@code imageUrls} when it is not null.
+     */
+    public static String improveHtmlContent(String content, String baseUri, ArrayList<String> imageUrls) {
+        if (content == null) {
+            return null;
         }
 
-        return content;
+        Element body = Jsoup.parseBodyFragment(content, baseUri).body();
+        sanitizeChildren(body, true, imageUrls);
+        return body.html();
+    }
+
+    private static void sanitizeChildren(Element parent, boolean isBody, ArrayList<String> imageUrls) {
+        boolean isLeading = isBody;
+        int consecutiveBr = 0;
+
+        int i = 0;
+        while (i < parent.childNodeSize()) {
+            Node node = parent.childNode(i);
+
+            if (node instanceof TextNode) {
+                if (!((TextNode) node).isBlank()) {
+                    isLeading = false;
+                    consecutiveBr = 0;
+                }
+                i++;
+            } else if (!(node instanceof Element)) { // comments, scripts data...
+                node.remove();
+            } else {
+                Element element = (Element) node;
+                String tag = element.tagName();
+
+                if (element.hasClass(ADS_CLASS)) {
+                    element.remove();
+                } else if (!JSOUP_WHITELIST.isSafeTag(tag)) {
+                    element.unwrap(); // like Jsoup.clean(), the children stay and are handled next
+                } else if (TAG_BR.equals(tag)) {
+                    if (isLeading || consecutiveBr >= MAX_CONSECUTIVE_BR) {
+                        element.remove();
+                    } else {
+                        consecutiveBr++;
+                        i++;
+                    }
+                } else if (!sanitizeElement(element, tag, imageUrls)) {
+                    element.remove();
+                } else {
+                    isLeading = false;
+                    consecutiveBr = 0;
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns false when the element has to be removed.
+     */
+    private static boolean sanitizeElement(Element element, String tag, ArrayList<String> imageUrls) {
+        for (String lazyLoadingAttr : LAZY_LOADING_ATTRS) {
+            if (element.hasAttr(lazyLoadingAttr)) {
+                element.attr(ATTR_SRC, element.attr(lazyLoadingAttr));
+                break;
+            }
+        }
+
+        for (Attribute attribute : element.attributes().asList()) {
+            if (!JSOUP_WHITELIST.isSafeAttribute(tag, element, attribute)) {
+                element.removeAttr(attribute.getKey());
+            } else if ((ATTR_SRC.equals(attribute.getKey()) || ATTR_HREF.equals(attribute.getKey()))
+                    && attribute.getValue().startsWith(PROTOCOL_RELATIVE_URL)) {
+                element.attr(attribute.getKey(), "http:" + attribute.getValue());
+            } else {
+                element.attr(attribute.getKey(), attribute.getValue()); // the whitelist can make the urls absolute
+            }
+        }
+
+        if (TAG_IMG.equals(tag)) {
+            String src = element.attr(ATTR_SRC);
+            if (("1".equals(element.attr(ATTR_WIDTH)) && "1".equals(element.attr(ATTR_HEIGHT)))
+                    || src.regionMatches(true, src.length() - BAD_IMAGE_EXTENSION.length(), BAD_IMAGE_EXTENSION, 0, BAD_IMAGE_EXTENSION.length())) {
+                return false;
+            }
+            if (imageUrls != null && !src.isEmpty()) {
+                // as they appear in the html, to find them back in the displayed content
+                imageUrls.add(src.replace("&", "&amp;").replace(" ", URL_SPACE));
+            }
+            return true;
+        }
+
+        sanitizeChildren(element, false, imageUrls);
+
+        return !TAG_A.equals(tag) || element.childNodeSize() != 0;
     }
 
     public static ArrayList<String> getImageURLs(String content) {
@@ -107,24 +191,63 @@ public class HtmlUtils {
         return images;
     }
 
-    public static String replaceImageURLs(String content, final long entryId) {
+    /**
+     * Serializes the image urls of a content, to store them next to it. They are urls, so they can't contain a new line.
+     */
+    public static String toImageManifest(List<String> imageUrls) {
+        StringBuilder manifest = new StringBuilder();
+        for (String imageUrl : imageUrls) {
+            if (manifest.length() != 0) {
+                manifest.append(IMAGE_MANIFEST_SEPARATOR);
+            }
+            manifest.append(imageUrl);
+        }
+        return manifest.toString();
+    }
+
+    public static ArrayList<String> fromImageManifest(String manifest) {
+        ArrayList<String> imageUrls = new ArrayList<>();
+        int start = 0;
+        while (start < manifest.length()) {
+            int end = manifest.indexOf(IMAGE_MANIFEST_SEPARATOR, start);
+            if (end < 0) {
+                end = manifest.length();
+            }
+            imageUrls.add(manifest.substring(start, end));
+            start = end + IMAGE_MANIFEST_SEPARATOR.length();
+        }
+        return imageUrls;
+    }
+
+    /**
+     * Replaces the urls of the downloaded images by their local files, and asks to download the missing ones. The image urls come from
+     * the manifest stored with the content; when it is null (entries stored before the manifests), the content is scanned.
+     */
+    public static String replaceImageURLs(String content, String imageManifest, final long entryId) {
 
         if (!TextUtils.isEmpty(content)) {
+            ArrayList<String> imageUrls = imageManifest != null ? fromImageManifest(imageManifest) : getImageURLs(content);
+            if (imageUrls.isEmpty()) {
+                return content;
+            }
+
             boolean needDownloadPictures = NetworkUtils.needDownloadPictures();
             final ArrayList<String> imagesToDl = new ArrayList<>();
+            HashMap<String, String> downloadedImages = new HashMap<>();
 
-            Matcher matcher = IMG_PATTERN.matcher(content);
-            while (matcher.find()) {
-                String match = matcher.group(1).replace(" ", URL_SPACE);
-
-                String imgPath = NetworkUtils.getDownloadedImagePath(entryId, match);
+            for (String imageUrl : imageUrls) {
+                String imgPath = NetworkUtils.getDownloadedImagePath(entryId, imageUrl);
                 if (new File(imgPath).exists()) {
-                    content = content.replace(match, Constants.FILE_SCHEME + imgPath);
+                    downloadedImages.put(imageUrl, Constants.FILE_SCHEME + imgPath);
                 } else if (needDownloadPictures) {
-                    imagesToDl.add(match);
+                    imagesToDl.add(imageUrl);
                 }
             }
 
+            if (!downloadedImages.isEmpty()) {
+                content = replaceImageSources(content, downloadedImages);
+            }
+
             // Download the images if needed
             if (!imagesToDl.isEmpty()) {
                 new Thread(new Runnable() {
@@ -141,19 +264,31 @@ public class HtmlUtils {
         return content;
     }
 
-    public static String getMainImageURL(String content) {
-        if (!TextUtils.isEmpty(content)) {
-            Matcher matcher = IMG_PATTERN.matcher(content);
+    /**
+     * Replaces the src attributes found in {@code sources}, in one pass over the content (written by improveHtmlContent(), so with
+     * double quotes).
+     */
+    static String replaceImageSources(String content, HashMap<String, String> sources) {
+        StringBuilder builder = new StringBuilder(content.length());
+        int copied = 0;
+        int srcStart = content.indexOf(SRC_ATTRIBUTE_START);
+        while (srcStart >= 0) {
+            int valueStart = srcStart + SRC_ATTRIBUTE_START.length();
+            int valueEnd = content.indexOf('"', valueStart);
+            if (valueEnd < 0) {
+                break;
+            }
 
-            while (matcher.find()) {
-                String imgUrl = matcher.group(1).replace(" ", URL_SPACE);
-                if (isCorrectImage(imgUrl)) {
-                    return imgUrl;
-                }
+            String replacement = sources.get(content.substring(valueStart, valueEnd).replace(" ", URL_SPACE));
+            if (replacement != null) {
+                builder.append(content, copied, valueStart).append(replacement);
+                copied = valueEnd;
             }
+            srcStart = content.indexOf(SRC_ATTRIBUTE_START, valueEnd);
         }
+        builder.append(content, copied, content.length());
 
-        return null;
+        return builder.toString();
     }
 
     public static String getMainImageURL(ArrayList<String> imgUrls) {
@@ -170,6 +305,68 @@ public class HtmlUtils {
         return !imgUrl.endsWith(".gif") && !imgUrl.endsWith(".GIF") && !imgUrl.endsWith(".img") && !imgUrl.endsWith(".IMG");
     }
 
+    /**
+     * Returns the text of the content without the tags and the comments, and with the entities decoded. It is a plain scan of
+     * the string (and not a jsoup parsing) as it is called for every saved entry by the search index.
+     */
+    public static String toPlainText(String content) {
+        if (content == null) {
+            return null;
+        }
+
+        StringBuilder builder = new StringBuilder(content.length());
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            char c = content.charAt(i);
+            if (c == '<' && i + 1 < length && isTagStart(content.charAt(i + 1))) {
+                int end;
+                if (content.startsWith(COMMENT_START, i)) {
+                    end = content.indexOf(COMMENT_END, i + COMMENT_START.length());
+                    end = end == -1 ? length : end + COMMENT_END.length();
+                } else {
+                    end = content.indexOf('>', i + 1);
+                    end = end == -1 ? length : end + 1;
+                    if (!isInlineTag(content, i + 1, end)) {
+                        appendSpace(builder);
+                    }
+                }
+                i = end;
+            } else {
+                if (Character.isWhitespace(c)) {
+                    appendSpace(builder);
+                } else {
+                    builder.append(c);
+                }
+                i++;
+            }
+        }
+
+        return Parser.unescapeEntities(builder.toString().trim(), false);
+    }
+
+    private static boolean isTagStart(char c) {
+        return c == '/' || c == '!' || c == '?' || (c < 128 && Character.isLetter(c));
+    }
+
+    private static boolean isInlineTag(String content, int start, int end) {
+        if (content.charAt(start) == '/') {
+            start++;
+        }
+        int nameEnd = start;
+        while (nameEnd < end && Character.isLetterOrDigit(content.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        return INLINE_TAGS.contains(content.substring(start, nameEnd).toLowerCase());
+    }
+
+    private static void appendSpace(StringBuilder builder) {
+        int length = builder.length();
+        if (length > 0 && builder.charAt(length - 1) != ' ') {
+            builder.append(' ');
+        }
+    }
+
 
     public static InputStream decompressStream(InputStream input) throws IOException {
         PushbackInputStream pb = new PushbackInputStream( input, 2 ); //we need a pushbackstream to look ahead
@@ -181,4 +378,49 @@ public class HtmlUtils {
         else
             return pb;
     }
+
+    /**
+     * The relaxed whitelist of jsoup with the media tags, which can also be used outside of Jsoup.clean().
+     */
+    private static class ContentWhitelist extends Whitelist {
+
+        ContentWhitelist() {
+            addTags("a", "b", "blockquote", "br", "caption", "cite", "code", "col", "colgroup", "dd", "div", "dl", "dt", "em", "h1", "h2", "h3",
+                    "h4", "h5", "h6", "i", "img", "li", "ol", "p", "pre", "q", "small", "span", "strike", "strong", "sub", "sup", "table", "tbody",
+                    "td", "tfoot", "th", "thead", "tr", "u", "ul", "iframe", "video", "audio", "source", "track");
+
+            addAttributes("a", "href", "title");
+            addAttributes("blockquote", "cite");
+            addAttributes("col", "span", "width");
+            addAttributes("colgroup", "span", "width");
+            addAttributes("img", "align", "alt", "height", "src", "title", "width");
+            addAttributes("ol", "start", "type");
+            addAttributes("q", "cite");
+            addAttributes("table", "summary", "width");
+            addAttributes("td", "abbr", "axis", "colspan", "rowspan", "width");
+            addAttributes("th", "abbr", "axis", "colspan", "rowspan", "scope", "width");
+            addAttributes("ul", "type");
+            addAttributes("iframe", "src", "frameborder", "height", "width");
+            addAttributes("video", "src", "controls", "height", "width", "poster");
+            addAttributes("audio", "src", "controls");
+            addAttributes("source", "src", "type");
+            addAttributes("track", "src", "kind", "srclang", "label");
+
+            addProtocols("a", "href", "ftp", "http", "https", "mailto");
+            addProtocols("blockquote", "cite", "http", "https");
+            addProtocols("cite", "cite", "http", "https");
+            addProtocols("img", "src", "http", "https");
+            addProtocols("q", "cite", "http", "https");
+        }
+
+        @Override
+        protected boolean isSafeTag(String tag) {
+            return super.isSafeTag(tag);
+        }
+
+        @Override
+        protected boolean isSafeAttribute(String tagName, Element el, Attribute attr) {
+            return super.isSafeAttribute(tagName, el, attr);
+        }
+    }
 }
@@ -0,0 +1,85 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The favicons are stored once normalized: a small png of {@link #ICON_SIZE} pixels, whatever the size and format of the downloaded
+ * file (a multi-size .ico can weigh 64 KB). They are addressed by the hash of this png, so that the feeds with the same icon share it.
+ */
+public class IconUtils {
+
+    public static final int ICON_SIZE = 64;
+
+    /**
+     * @return the png of the icon, or null if it cannot be decoded
+     */
+    public static byte[] normalizeIcon(byte[] iconBytes) {
+        if (iconBytes == null || iconBytes.length == 0) {
+            return null;
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
+        if (bitmap == null) {
+            return null;
+        }
+        if (bitmap.getWidth() == 0 || bitmap.getHeight() == 0) {
+            bitmap.recycle();
+            return null;
+        }
+
+        if (bitmap.getWidth() != ICON_SIZE || bitmap.getHeight() != ICON_SIZE) {
+            Bitmap tmp = bitmap;
+            bitmap = Bitmap.createScaledBitmap(tmp, ICON_SIZE, ICON_SIZE, true);
+            if (bitmap != tmp) {
+                tmp.recycle();
+            }
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        boolean compressed = bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        bitmap.recycle();
+
+        return compressed ? output.toByteArray() : null;
+    }
+
+    /**
+     * @return the hexadecimal SHA-1 of the normalized icon
+     */
+    public static String getHash(byte[] normalizedIcon) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(normalizedIcon);
+            StringBuilder hash = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hash.toString();
+        } catch (NoSuchAlgorithmException e) { // SHA-1 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+}
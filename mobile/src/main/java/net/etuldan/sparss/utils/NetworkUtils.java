@@ -20,14 +20,14 @@
 
 package net.etuldan.sparss.utils;
 
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.net.http.HttpResponseCache;
 import android.text.Html;
 import android.util.Log;
 
@@ -41,6 +41,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.net.Authenticator;
 import java.net.CookieHandler;
 import java.net.CookieManager;
@@ -49,9 +50,16 @@ import java.net.InetSocketAddress;
 import java.net.PasswordAuthentication;
 import java.net.Proxy;
 import java.net.ProxySelector;
+import java.net.URI;
 import java.net.URL;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
  public class NetworkUtils {
      private static final String TAG = "NetworkUtils"; 
@@ -67,9 +75,69 @@ import java.util.List;
     /* used e.g. by http://www.oora.de/startseite/feed.rss */
     public static final int HTTP_REDIRECT_TEMP = 307;
 
-    private static final CookieManager COOKIE_MANAGER = new CookieManager() {{
-        CookieHandler.setDefault(this);
-    }};
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final int MAX_COOKIE_JARS = 64;
+    private static final int MAX_FAVICON_HOSTS = 64;
+    private static final long FAVICON_RETRY_DELAY = 3600000; // a host without favicon is tried again after an hour
+
+    private static final String HTTP_CACHE_FOLDER = "http/";
+    private static final long HTTP_CACHE_SIZE = 10 * 1024 * 1024; // the least recently used responses are evicted beyond this size
+
+    /*
+     * One cookie jar per feed, used by the fetches of the feed and of its articles, instead of a process wide jar shared by the parallel
+     * fetches. The jars are kept for the life of the process, so the cookies set by a feed are sent again at its next refresh.
+     */
+    private static final LinkedHashMap<Long, CookieManager> FEED_COOKIE_JARS = new LinkedHashMap<Long, CookieManager>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, CookieManager> eldest) {
+            return size() > MAX_COOKIE_JARS;
+        }
+    };
+
+    /* The jar of the connection set up by the current thread, see setupConnection() */
+    private static final ThreadLocal<CookieManager> CURRENT_COOKIE_JAR = new ThreadLocal<>();
+
+    static {
+        // The connections are kept alive and reused by the next requests to the same host, as long as they are released with
+        // releaseConnection() instead of being disconnected
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNECTIONS));
+
+        // The platform sends and stores the cookies of every response, including the redirects it follows itself, through the default
+        // handler: it gives them to the jar of the current connection
+        CookieHandler.setDefault(new CookieHandler() {
+            @Override
+            public Map<String, List<String>> get(URI uri, Map<String, List<String>> requestHeaders) throws IOException {
+                CookieManager cookieJar = CURRENT_COOKIE_JAR.get();
+                return cookieJar != null ? cookieJar.get(uri, requestHeaders) : Collections.<String, List<String>>emptyMap();
+            }
+
+            @Override
+            public void put(URI uri, Map<String, List<String>> responseHeaders) throws IOException {
+                CookieManager cookieJar = CURRENT_COOKIE_JAR.get();
+                if (cookieJar != null) {
+                    cookieJar.put(uri, responseHeaders);
+                }
+            }
+        });
+
+        // Only used by the connections asking for it, see setupConnection()
+        try {
+            if (HttpResponseCache.getInstalled() == null) {
+                HttpResponseCache.install(new File(MainApplication.getContext().getCacheDir(), HTTP_CACHE_FOLDER), HTTP_CACHE_SIZE);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot install the http cache", e);
+        }
+    }
+
+    /* The favicon of each host, so that the feeds of a same site download it only once */
+    private static final LinkedHashMap<String, HostFavicon> FAVICONS = new LinkedHashMap<String, HostFavicon>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HostFavicon> eldest) {
+            return size() > MAX_FAVICON_HOSTS;
+        }
+    };
 
     public static String getDownloadedOrDistantImageUrl(long entryId, String imgUrl) {
         File dlImgFile = new File(NetworkUtils.getDownloadedImagePath(entryId, imgUrl));
@@ -102,7 +170,7 @@ import java.util.List;
                 imgURLConnection = setupConnection(new URL(realUrl));
 
                 FileOutputStream fileOutput = new FileOutputStream(tempImgPath);
-                InputStream inputStream = imgURLConnection.getInputStream();
+                InputStream inputStream = getInputStream(imgURLConnection);
 
                 byte[] buffer = new byte[2048];
                 int bufferLength;
@@ -119,7 +187,7 @@ import java.util.List;
                 throw e;
             } finally {
                 if (imgURLConnection != null) {
-                    imgURLConnection.disconnect();
+                    releaseConnection(imgURLConnection);
                 }
             }
         }
@@ -204,57 +272,124 @@ import java.util.List;
     }
 
     public static void retrieveFavicon(Context context, URL url, String id) {
-        boolean success = false;
+        HostFavicon hostFavicon;
+        synchronized (FAVICONS) {
+            String host = url.getHost().toLowerCase();
+            hostFavicon = FAVICONS.get(host);
+            if (hostFavicon == null) {
+                hostFavicon = new HostFavicon();
+                FAVICONS.put(host, hostFavicon);
+            }
+        }
+
+        byte[] iconBytes;
+        synchronized (hostFavicon) { // the other feeds of the host wait for the download in progress
+            if (hostFavicon.mDate == 0 || (hostFavicon.mIconBytes == null && System.currentTimeMillis() - hostFavicon.mDate > FAVICON_RETRY_DELAY)) {
+                hostFavicon.mIconBytes = IconUtils.normalizeIcon(downloadFavicon(url));
+                hostFavicon.mDate = System.currentTimeMillis();
+            }
+            iconBytes = hostFavicon.mIconBytes;
+        }
+
+        ContentValues values = new ContentValues();
+        Uri iconUri = null;
+        if (iconBytes != null) {
+            ContentValues iconValues = new ContentValues();
+            iconValues.put(FeedData.IconColumns.HASH, IconUtils.getHash(iconBytes));
+            iconValues.put(FeedData.IconColumns.DATA, iconBytes);
+            iconUri = context.getContentResolver().insert(FeedData.IconColumns.CONTENT_URI, iconValues);
+        }
+        if (iconUri != null) {
+            values.put(FeedData.FeedColumns.ICON_ID, ContentUris.parseId(iconUri));
+        } else {
+            // no icon found or error
+            values.putNull(FeedData.FeedColumns.ICON_ID);
+        }
+        context.getContentResolver().update(FeedData.FeedColumns.CONTENT_URI(id), values, null, null);
+    }
+
+    /**
+     * @return the raw favicon of the host of the url, or null if it has none
+     */
+    private static byte[] downloadFavicon(URL url) {
         HttpURLConnection iconURLConnection = null;
 
         try {
-            iconURLConnection = setupConnection(new URL(url.getProtocol() + PROTOCOL_SEPARATOR + url.getHost() + FILE_FAVICON));
-
-            byte[] iconBytes = getBytes(iconURLConnection.getInputStream());
-            if (iconBytes != null && iconBytes.length > 0) {
-                Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
-                if (bitmap != null) {
-                    if (bitmap.getWidth() != 0 && bitmap.getHeight() != 0) {
-                        ContentValues values = new ContentValues();
-                        values.put(FeedData.FeedColumns.ICON, iconBytes);
-                        context.getContentResolver().update(FeedData.FeedColumns.CONTENT_URI(id), values, null, null);
-                        success = true;
-                    }
-                    bitmap.recycle();
-                }
-            }
-        }catch (FileNotFoundException e) {
+            iconURLConnection = setupConnection(new URL(url.getProtocol() + PROTOCOL_SEPARATOR + url.getHost() + FILE_FAVICON), null, "", "", "",
+                    null, null, true);
+
+            return getBytes(getInputStream(iconURLConnection));
+        } catch (FileNotFoundException e) {
             Log.d(TAG, "FileNotFoundException: " + e.getMessage());
         } catch (Throwable ignored) {
             Log.e(TAG, "Exception", ignored);
         } finally {
             if (iconURLConnection != null) {
-                iconURLConnection.disconnect();
+                releaseConnection(iconURLConnection);
             }
         }
 
-        if (!success) {
-            // no icon found or error
-            ContentValues values = new ContentValues();
-            values.putNull(FeedData.FeedColumns.ICON);
-            context.getContentResolver().update(FeedData.FeedColumns.CONTENT_URI(id), values, null, null);
+        return null;
+    }
+
+    /**
+     * Writes the journal of the http cache, so that the cached responses survive the process
+     */
+    public static void flushHttpCache() {
+        HttpResponseCache cache = HttpResponseCache.getInstalled();
+        if (cache != null) {
+            cache.flush();
+        }
+    }
+
+    /**
+     * @return the cookie jar of the feed, to be given to the connections of the feed and of its articles
+     */
+    public static CookieManager getFeedCookieJar(long feedId) {
+        synchronized (FEED_COOKIE_JARS) {
+            CookieManager cookieJar = FEED_COOKIE_JARS.get(feedId);
+            if (cookieJar == null) {
+                cookieJar = new CookieManager();
+                FEED_COOKIE_JARS.put(feedId, cookieJar);
+            }
+            return cookieJar;
         }
     }
 
-    public static HttpURLConnection setupConnection(String url, String cookieName, String cookieValue, String login, String password) throws IOException {
+    /**
+     * Unlike the other connections, this one goes through the http cache
+     */
+    public static HttpURLConnection setupCachedConnection(String url, CookieManager cookieJar, String cookieName, String cookieValue, String login,
+                                                         String password) throws IOException {
         String cookie = cookieName == null || cookieName.isEmpty() ? "" : cookieName + "=" + cookieValue;
-        return setupConnection(new URL(url), cookie, login, password);
+        return setupConnection(new URL(url), cookieJar, cookie, login, password, null, null, true);
     }
 
     public static HttpURLConnection setupConnection(URL url) throws IOException {
-        return setupConnection(url, "", "", "");
+        return setupConnection(url, null);
+    }
+
+    public static HttpURLConnection setupConnection(URL url, CookieManager cookieJar) throws IOException {
+        return setupConnection(url, cookieJar, "", "", "", null, null);
     }
 
-    public static HttpURLConnection setupConnection(String url, String login, String password) throws IOException {
-        return setupConnection(new URL(url), "", login, password);
+    /**
+     * When etag or lastModified are given, a conditional request is sent and the caller must be ready
+     * to get a {@link HttpURLConnection#HTTP_NOT_MODIFIED} response without any body.
+     */
+    public static HttpURLConnection setupConnection(URL url, CookieManager cookieJar, String cookie, final String login, final String password, String etag,
+                                                    String lastModified) throws IOException {
+        return setupConnection(url, cookieJar, cookie, login, password, etag, lastModified, false);
     }
 
-    public static HttpURLConnection setupConnection(URL url, String cookie, final String login, final String password) throws IOException {
+    /**
+     * @param cookieJar the jar of the feed, or null to only keep the cookies for the redirects of this request
+     * @param useCaches true to go through the http cache, which honors Cache-Control and revalidates its stale responses with
+     *                  conditional requests. It must not be used with etag or lastModified, as the cache would then turn a
+     *                  {@link HttpURLConnection#HTTP_NOT_MODIFIED} response into the cached one.
+     */
+    private static HttpURLConnection setupConnection(URL url, CookieManager cookieJar, String cookie, final String login, final String password, String etag,
+                                                     String lastModified, boolean useCaches) throws IOException {
 
         Proxy proxy = null;
 
@@ -293,35 +428,91 @@ import java.util.List;
             });
         }
         HttpURLConnection connection = null;
-        CookieManager cookieManager = new CookieManager();
-        CookieHandler.setDefault(cookieManager);
-        int status = 0;
-        boolean first = true;
-        while(first || status == HttpURLConnection.HTTP_MOVED_TEMP || status == HttpURLConnection.HTTP_MOVED_PERM || 
-                status == HttpURLConnection.HTTP_SEE_OTHER || status == HTTP_REDIRECT_TEMP) {
-            if(!first) {
-                url = new URL(connection.getHeaderField("Location"));
-            } else {
-                first = false;
+        CURRENT_COOKIE_JAR.set(cookieJar != null ? cookieJar : new CookieManager());
+        try {
+            int status = 0;
+            boolean first = true;
+            while(first || status == HttpURLConnection.HTTP_MOVED_TEMP || status == HttpURLConnection.HTTP_MOVED_PERM || 
+                    status == HttpURLConnection.HTTP_SEE_OTHER || status == HTTP_REDIRECT_TEMP) {
+                if(!first) {
+                    url = new URL(connection.getHeaderField("Location"));
+                    releaseConnection(connection);
+                } else {
+                    first = false;
+                }
+                connection = proxy == null ? (HttpURLConnection) url.openConnection() : (HttpURLConnection) url.openConnection(proxy);
+
+                if (cookie != null && !cookie.isEmpty()) { // the cookies of the jar are added by the platform
+                    connection.setRequestProperty("Cookie", cookie);
+                }
+                connection.setDoInput(true);
+                connection.setDoOutput(false);
+                connection.setRequestProperty("User-agent", "Mozilla/5.0 (compatible) AppleWebKit Chrome Safari"); // some feeds need this to work properly
+                connection.setConnectTimeout(30000);
+                connection.setReadTimeout(30000);
+                connection.setUseCaches(useCaches);
+                connection.setInstanceFollowRedirects(true);
+                connection.setRequestProperty("accept", "*/*");
+                connection.setRequestProperty("Accept-Encoding", "gzip, deflate"); // decoded by getInputStream()
+                if (etag != null && !etag.isEmpty()) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null && !lastModified.isEmpty()) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+
+                connection.connect();
+                status = connection.getResponseCode();
             }
-            connection = proxy == null ? (HttpURLConnection) url.openConnection() : (HttpURLConnection) url.openConnection(proxy);
-
-            connection.setRequestProperty("Cookie", cookie);
-            connection.setDoInput(true);
-            connection.setDoOutput(false);
-            connection.setRequestProperty("User-agent", "Mozilla/5.0 (compatible) AppleWebKit Chrome Safari"); // some feeds need this to work properly
-            connection.setConnectTimeout(30000);
-            connection.setReadTimeout(30000);
-            connection.setUseCaches(false);
-            connection.setInstanceFollowRedirects(true);
-            connection.setRequestProperty("accept", "*/*");
-
-            COOKIE_MANAGER.getCookieStore().removeAll(); // Cookie is important for some sites, but we clean them each times
-
-            connection.connect();
-            status = connection.getResponseCode();
+        } finally {
+            CURRENT_COOKIE_JAR.remove();
         }
 
         return connection;
     }
+
+    /**
+     * @return the body of the response, decompressed according to its Content-Encoding. Closing it (or calling
+     * {@link #releaseConnection(HttpURLConnection)}) gives the connection back to the keep-alive pool.
+     */
+    public static InputStream getInputStream(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        String contentEncoding = connection.getContentEncoding();
+
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            return new GZIPInputStream(inputStream);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            // "deflate" should be zlib wrapped, but some servers send raw deflate data
+            PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+            byte[] header = new byte[2];
+            int length = pushbackInputStream.read(header);
+            if (length > 0) {
+                pushbackInputStream.unread(header, 0, length);
+            }
+            boolean isZlib = length == 2 && (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+            return new InflaterInputStream(pushbackInputStream, new Inflater(!isZlib));
+        }
+
+        return inputStream;
+    }
+
+    /**
+     * Unlike {@link HttpURLConnection#disconnect()}, this keeps the socket open so that it can be reused by the next request to the
+     * same host.
+     */
+    public static void releaseConnection(HttpURLConnection connection) {
+        try {
+            InputStream inputStream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST ? connection.getErrorStream()
+                    : connection.getInputStream();
+            if (inputStream != null) {
+                inputStream.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static class HostFavicon {
+        byte[] mIconBytes; // normalized, null if the host has no favicon
+        long mDate; // of the last download, 0 if there was none yet
+    }
 }
@@ -39,6 +39,9 @@ public class PrefUtils {
     public static final String REFRESH_ENABLED = "refresh.enabled";
     public static final String REFRESH_ON_OPEN_ENABLED = "refreshonopen.enabled";
     public static final String REFRESH_WIFI_ONLY = "refreshwifionly.enabled";
+    public static final String REFRESH_PARALLELISM = "refresh.parallelism";
+    public static final String MOBILIZATION_MAX_SIZE = "mobilization.max_size";
+    public static final String COMPRESS_MOBILIZED_HTML = "mobilization.compress";
 
     public static final String NOTIFICATIONS_ENABLED = "notifications.enabled";
     public static final String NOTIFICATIONS_RINGTONE = "notifications.ringtone";
@@ -67,6 +70,9 @@ public class PrefUtils {
 
     public static final String LAST_SCHEDULED_REFRESH = "lastscheduledrefresh";
 
+    public static final String FEED_NOT_MODIFIED_COUNT = "feed_not_modified_count";
+    public static final String FEED_FULL_DOWNLOAD_COUNT = "feed_full_download_count";
+
     public static final String SHOW_READ = "show_read";
 
     public static boolean getBoolean(String key, boolean defValue) {
@@ -21,12 +21,13 @@
 package net.etuldan.sparss.utils;
 
 import android.app.Activity;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.support.v4.util.LongSparseArray;
+import android.support.v4.util.LruCache;
 import android.util.TypedValue;
 import android.view.View;
 import android.widget.ListView;
@@ -36,10 +37,29 @@ import com.melnykov.fab.FloatingActionButton;
 
 import net.etuldan.sparss.MainApplication;
 import net.etuldan.sparss.R;
+import net.etuldan.sparss.provider.FeedData.FeedColumns;
+import net.etuldan.sparss.provider.FeedData.IconColumns;
+
+import java.util.HashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
 public class UiUtils {
 
-    static private final LongSparseArray<Bitmap> FAVICON_CACHE = new LongSparseArray<>();
+    static private final int FAVICON_CACHE_SIZE = 1024 * 1024; // in bytes
+
+    // The decoded favicons by icon id and size. The icons are never modified, only replaced by new ones.
+    static private final LruCache<String, Bitmap> FAVICON_CACHE = new LruCache<String, Bitmap>(FAVICON_CACHE_SIZE) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    };
+    // The icons which are missing or can't be decoded, so that they are not queried again at each bind
+    static private final HashSet<Long> ICONS_WITHOUT_FAVICON = new HashSet<>();
+    // The favicons loaded in the background for the main thread, by key of the cache
+    static private final HashSet<String> PENDING_FAVICONS = new HashSet<>();
+    static private final Executor FAVICON_EXECUTOR = Executors.newSingleThreadExecutor();
 
     static public void setPreferenceTheme(Activity a) {
         if (!PrefUtils.getBoolean(PrefUtils.LIGHT_THEME, true)) {
@@ -51,19 +71,99 @@ public class UiUtils {
         return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, MainApplication.getContext().getResources().getDisplayMetrics());
     }
 
-    static public Bitmap getFaviconBitmap(long feedId, Cursor cursor, int iconCursorPos) {
-        Bitmap bitmap = UiUtils.FAVICON_CACHE.get(feedId);
-        if (bitmap == null) {
-            byte[] iconBytes = cursor.getBlob(iconCursorPos);
-            if (iconBytes != null && iconBytes.length > 0) {
-                bitmap = UiUtils.getScaledBitmap(iconBytes, 18);
-                UiUtils.FAVICON_CACHE.put(feedId, bitmap);
+    /**
+     * @param iconIdCursorPos the position of {@link net.etuldan.sparss.provider.FeedData.FeedColumns#ICON_ID} in the cursor
+     */
+    static public Bitmap getFaviconBitmap(Cursor cursor, int iconIdCursorPos, int sizeInDp) {
+        if (iconIdCursorPos == -1 || cursor.isNull(iconIdCursorPos)) {
+            return null;
+        }
+        return getFaviconBitmap(cursor.getLong(iconIdCursorPos), sizeInDp);
+    }
+
+    /**
+     * @return the favicon, only decoded the first time it is displayed at this size
+     */
+    static public Bitmap getFaviconBitmap(long iconId, int sizeInDp) {
+        String key = String.valueOf(iconId) + '_' + sizeInDp;
+        Bitmap bitmap = FAVICON_CACHE.get(key);
+        if (bitmap != null || isWithoutFavicon(iconId)) {
+            return bitmap;
+        }
+        return loadFaviconBitmap(iconId, sizeInDp, key);
+    }
+
+    /**
+     * For the feed lists, which bind many rows on the main thread: a favicon which is not decoded yet is loaded in the background and
+     * null is returned. The feed lists are notified once it is ready.
+     *
+     * @param iconIdCursorPos the position of {@link net.etuldan.sparss.provider.FeedData.FeedColumns#ICON_ID} in the cursor
+     */
+    static public Bitmap getFaviconBitmapAsync(Cursor cursor, int iconIdCursorPos, final int sizeInDp) {
+        if (iconIdCursorPos == -1 || cursor.isNull(iconIdCursorPos)) {
+            return null;
+        }
+
+        final long iconId = cursor.getLong(iconIdCursorPos);
+        final String key = String.valueOf(iconId) + '_' + sizeInDp;
+        Bitmap bitmap = FAVICON_CACHE.get(key);
+        if (bitmap != null || isWithoutFavicon(iconId)) {
+            return bitmap;
+        }
+
+        synchronized (PENDING_FAVICONS) {
+            if (!PENDING_FAVICONS.add(key)) {
+                return null;
+            }
+        }
+        FAVICON_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadFaviconBitmap(iconId, sizeInDp, key);
+
+                boolean allLoaded;
+                synchronized (PENDING_FAVICONS) {
+                    PENDING_FAVICONS.remove(key);
+                    allLoaded = PENDING_FAVICONS.isEmpty();
+                }
+                if (allLoaded) { // a single notification for all the favicons of a list
+                    ContentResolver cr = MainApplication.getContext().getContentResolver();
+                    cr.notifyChange(FeedColumns.GROUPED_FEEDS_CONTENT_URI, null);
+                    cr.notifyChange(FeedColumns.GROUPS_CONTENT_URI, null);
+                }
+            }
+        });
+        return null;
+    }
+
+    static private Bitmap loadFaviconBitmap(long iconId, int sizeInDp, String key) {
+        Bitmap bitmap = null;
+        Cursor cursor = MainApplication.getContext().getContentResolver().query(IconColumns.CONTENT_URI(iconId), new String[]{IconColumns.DATA},
+                null, null, null);
+        if (cursor != null) {
+            if (cursor.moveToFirst()) {
+                bitmap = getScaledBitmap(cursor.getBlob(0), sizeInDp);
+            }
+            cursor.close();
+        }
+
+        if (bitmap != null) {
+            FAVICON_CACHE.put(key, bitmap);
+        } else {
+            synchronized (ICONS_WITHOUT_FAVICON) {
+                ICONS_WITHOUT_FAVICON.add(iconId);
             }
         }
         return bitmap;
     }
 
-    static public Bitmap getScaledBitmap(byte[] iconBytes, int sizeInDp) {
+    static private boolean isWithoutFavicon(long iconId) {
+        synchronized (ICONS_WITHOUT_FAVICON) {
+            return ICONS_WITHOUT_FAVICON.contains(iconId);
+        }
+    }
+
+    static private Bitmap getScaledBitmap(byte[] iconBytes, int sizeInDp) {
         if (iconBytes != null && iconBytes.length > 0) {
             Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
             if (bitmap != null && bitmap.getWidth() != 0 && bitmap.getHeight() != 0) {
@@ -26,7 +26,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Handler;
 import android.util.Log;
 import android.widget.RemoteViews;
@@ -38,6 +37,7 @@ import net.etuldan.sparss.provider.FeedData;
 import net.etuldan.sparss.provider.FeedData.EntryColumns;
 import net.etuldan.sparss.utils.PrefUtils;
 import net.etuldan.sparss.utils.ThrottledContentObserver;
+import net.etuldan.sparss.utils.UiUtils;
 
 public class WidgetService extends RemoteViewsService {
     @Override
@@ -100,14 +100,10 @@ class WidgetFeedsFactory implements RemoteViewsService.RemoteViewsFactory {
             row.setImageViewResource(android.R.id.icon, R.mipmap.ic_launcher);
             if (!mCursor.isNull(2)) {
                 try {
-                    byte[] iconBytes = mCursor.getBlob(2);
+                    Bitmap bitmap = UiUtils.getFaviconBitmap(mCursor.getLong(2), 18);
 
-                    if (iconBytes != null && iconBytes.length > 0) {
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(iconBytes, 0, iconBytes.length);
-
-                        if (bitmap != null) {
-                            row.setImageViewBitmap(android.R.id.icon, bitmap);
-                        }
+                    if (bitmap != null) {
+                        row.setImageViewBitmap(android.R.id.icon, bitmap);
                     }
                 } catch (Throwable ignored) {
                     Log.e(TAG, "Exception", ignored);
@@ -157,7 +153,7 @@ class WidgetFeedsFactory implements RemoteViewsService.RemoteViewsFactory {
         }
 
         ContentResolver cr = mContext.getContentResolver();
-        mCursor = cr.query(EntryColumns.ALL_ENTRIES_CONTENT_URI, new String[]{EntryColumns.TITLE, EntryColumns._ID, FeedData.FeedColumns.ICON}, selection.toString(), null,
+        mCursor = cr.query(EntryColumns.ALL_ENTRIES_CONTENT_URI, new String[]{EntryColumns.TITLE, EntryColumns._ID, FeedData.FeedColumns.ICON_ID}, selection.toString(), null,
                 EntryColumns.DATE + Constants.DB_DESC);
     }
 }
\ No newline at end of file
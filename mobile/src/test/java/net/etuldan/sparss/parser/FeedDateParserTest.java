@@ -0,0 +1,92 @@
+package net.etuldan.sparss.parser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class FeedDateParserTest {
+
+    // 2016-04-05T10:32:00Z
+    private static final long DATE = 1459852320000L;
+    private static final long HOUR = 3600000;
+
+    // The date shapes found in our feeds
+    private static final String[] CORPUS = {
+            "Tue, 05 Apr 2016 10:32:00 +0000",
+            "Tue, 05 Apr 2016 12:32:00 +0200",
+            "Tue, 5 Apr 2016 10:32:00 GMT",
+            "Tue, 05 Apr 2016 06:32:00 EDT",
+            "05 Apr 16 10:32:00 UT",
+            "Tue, 05 Apr 016 10:32:00 +0000",
+            "Tuesday, 05-Apr-2016 12:32:00 MEST",
+            "2016-04-05T10:32:00Z",
+            "2016-04-05T12:32:00+02:00",
+            "2016-04-05T05:32:00.000-05:00",
+            "2016-04-05 10:32:00",
+    };
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void corpus() {
+        FeedDateParser parser = new FeedDateParser();
+        for (String date : CORPUS) {
+            assertEquals(date, DATE, parser.parse(date));
+        }
+    }
+
+    @Test
+    public void rfc822() {
+        FeedDateParser parser = new FeedDateParser();
+        assertEquals(DATE - 32 * 60000, parser.parse("Tue, 05 Apr 2016 10:00 GMT"));
+        assertEquals(DATE + 7 * HOUR, parser.parse("Tue, 05 April 2016 10:32:00 PDT"));
+        assertEquals(DATE, parser.parse("  Tue, 05 Apr 2016 10:32:00 GMT (Coordinated Universal Time) "));
+        assertEquals(DATE, parser.parse("Tue, 05 Apr 2016 12:32:00 GMT+02:00"));
+        assertEquals(DATE, parser.parse("Tue, 05 Apr 2016 10:32:00")); // local time
+    }
+
+    @Test
+    public void iso8601() {
+        FeedDateParser parser = new FeedDateParser();
+        assertEquals(DATE + 123, parser.parse("2016-04-05T10:32:00.123456Z"));
+        assertEquals(DATE + 100, parser.parse("2016-04-05T10:32:00,1Z"));
+        assertEquals(DATE, parser.parse("2016-04-05T12:32:00+0200"));
+        assertEquals(DATE, parser.parse("2016-04-05t12:32:00+02"));
+        assertEquals(DATE - 32 * 60000, parser.parse("2016-04-05T10:00Z"));
+        assertEquals(DATE - 10 * HOUR - 32 * 60000, parser.parse("2016-04-05"));
+        assertEquals(DATE, parser.parse("2016-4-5T10:32:00Z"));
+    }
+
+    @Test
+    public void invalidDates() {
+        FeedDateParser parser = new FeedDateParser();
+        assertEquals(FeedDateParser.INVALID_DATE, parser.parse(""));
+        assertEquals(FeedDateParser.INVALID_DATE, parser.parse("yesterday"));
+        assertEquals(FeedDateParser.INVALID_DATE, parser.parse("Tue, 05 Foo 2016 10:32:00 GMT"));
+        assertEquals(FeedDateParser.INVALID_DATE, parser.parse("2016-13-05T10:32:00Z"));
+        assertEquals(FeedDateParser.INVALID_DATE, parser.parse("2016-04-05T10:32:0Z"));
+    }
+
+    @Test
+    public void switchesFormat() {
+        FeedDateParser parser = new FeedDateParser();
+        assertEquals(DATE, parser.parse("2016-04-05T10:32:00Z"));
+        assertEquals(DATE, parser.parse("Tue, 05 Apr 2016 10:32:00 GMT"));
+        assertEquals(DATE, parser.parse("2016-04-05T10:32:00Z"));
+    }
+}
@@ -0,0 +1,113 @@
+package net.etuldan.sparss.parser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FeedFiltersTest {
+
+    private static FeedFilters.Rule keyword(String text, boolean isAppliedToTitle, boolean isAcceptRule) {
+        return new FeedFilters.Rule(text, false, isAppliedToTitle, isAcceptRule);
+    }
+
+    private static FeedFilters.Rule regex(String text, boolean isAppliedToTitle, boolean isAcceptRule) {
+        return new FeedFilters.Rule(text, true, isAppliedToTitle, isAcceptRule);
+    }
+
+    @Test
+    public void noRules() {
+        FeedFilters filters = new FeedFilters(new ArrayList<FeedFilters.Rule>());
+        assertFalse(filters.isEntryFiltered("title", "content"));
+        assertFalse(filters.isEntryFiltered("title", null));
+    }
+
+    @Test
+    public void keywords() {
+        FeedFilters filters = new FeedFilters(Arrays.asList(keyword("he", true, false), keyword("she", false, false),
+                keyword("hers", true, true)));
+
+        assertTrue(filters.isEntryFiltered("ushe", null));
+        assertFalse(filters.isEntryFiltered("ushers", null)); // the accept rule overrides
+        assertFalse(filters.isEntryFiltered("title", "hers"));
+        assertTrue(filters.isEntryFiltered("title", "ushe"));
+        assertFalse(filters.isEntryFiltered("title", "He"));
+        assertFalse(filters.isEntryFiltered("title", null));
+    }
+
+    @Test
+    public void regexes() {
+        FeedFilters filters = new FeedFilters(Arrays.asList(regex("^\\[Ad\\]", true, false), regex("sponsor(ed)?", false, false),
+                regex("(", false, false), keyword("keep", false, true)));
+
+        assertTrue(filters.isEntryFiltered("[Ad] Buy", "content"));
+        assertFalse(filters.isEntryFiltered("Buy [Ad]", "content"));
+        assertTrue(filters.isEntryFiltered("title", "a sponsored content"));
+        assertFalse(filters.isEntryFiltered("[Ad] Buy", "sponsored but keep it"));
+    }
+
+    @Test
+    public void emptyKeyword() {
+        FeedFilters filters = new FeedFilters(Arrays.asList(keyword("", false, false)));
+        assertTrue(filters.isEntryFiltered("title", ""));
+        assertFalse(filters.isEntryFiltered("title", null));
+    }
+
+    @Test
+    public void sameResultsAsSequentialRules() {
+        Random random = new Random(42);
+        for (int test = 0; test < 200; test++) {
+            ArrayList<FeedFilters.Rule> rules = new ArrayList<>();
+            for (int i = random.nextInt(40); i >= 0; i--) {
+                rules.add(new FeedFilters.Rule(randomText(random, 1 + random.nextInt(3), 4), random.nextInt(4) == 0, random.nextBoolean(),
+                        random.nextInt(5) == 0));
+            }
+            FeedFilters filters = new FeedFilters(rules);
+
+            for (int i = 0; i < 50; i++) {
+                String title = randomText(random, random.nextInt(20), 4);
+                String content = random.nextInt(10) == 0 ? null : randomText(random, random.nextInt(200), 4);
+                assertEquals("test " + test + ": " + title + " " + content, isEntryFiltered(rules, title, content),
+                        filters.isEntryFiltered(title, content));
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length, int letters) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(letters));
+        }
+        return new String(chars);
+    }
+
+    // The rules applied one by one, as before the filters were compiled
+    private static boolean isEntryFiltered(ArrayList<FeedFilters.Rule> rules, String title, String content) {
+        boolean isFiltered = false;
+        for (FeedFilters.Rule r : rules) {
+            boolean isMatch;
+            if (r.isRegex) {
+                String text = r.isAppliedToTitle ? title : content;
+                isMatch = text != null && Pattern.compile(r.filterText).matcher(text).find();
+            } else {
+                isMatch = (r.isAppliedToTitle && title.contains(r.filterText)) || (!r.isAppliedToTitle && content != null
+                        && content.contains(r.filterText));
+            }
+
+            if (r.isAcceptRule) {
+                if (isMatch) {
+                    return false;
+                }
+            } else if (isMatch) {
+                isFiltered = true;
+            }
+        }
+        return isFiltered;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * spaRSS
+ * <p/>
+ * Copyright (c) 2015-2016 Arnaud Renaud-Goud
+ * Copyright (c) 2012-2015 Frederic Julian
+ * <p/>
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * <p/>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * <p/>
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.etuldan.sparss.provider;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchIndexTest {
+
+    @Test
+    public void indexedText() {
+        assertNull(SearchIndex.toIndexedText(null));
+        assertEquals("l article d \u00e9t\u00e9 2 0", SearchIndex.toIndexedText("<p>L\u2019Article d'\u00c9t\u00e9&nbsp;: <i>2.0</i></p>"));
+    }
+
+    @Test
+    public void matchQuery() {
+        assertNull(SearchIndex.getMatchQuery(null));
+        assertNull(SearchIndex.getMatchQuery(" \"*\" - "));
+        assertEquals("android* 4* or* not*", SearchIndex.getMatchQuery("Android 4 OR \"NOT\""));
+    }
+}
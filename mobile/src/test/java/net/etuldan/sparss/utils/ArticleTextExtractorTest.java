@@ -14,6 +14,7 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.w3c.dom.NodeList;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.InputStream;
@@ -393,6 +394,52 @@ public class ArticleTextExtractorTest {
         
     }
     
+    @Test(timeout = 10000)
+    public void deeplyNestedContent() throws Exception {
+        // Each level has its own paragraph, the text of every subtree used to be computed again for each of its ancestors: this took
+        // about 40 s at this depth, and less than a second since the nodes are scored in one traversal
+        final int depth = 10000;
+        StringBuilder html = new StringBuilder("<html><body>");
+        for (int i = 0; i < depth; i++) {
+            html.append("<div><p>Paragraph number ").append(i).append(" with enough text to be weighted like a real one.</p>");
+        }
+        html.append("<p>The content indicator is at the very bottom of the document.</p>");
+        for (int i = 0; i < depth; i++) {
+            html.append("</div>");
+        }
+        html.append("</body></html>");
+
+        // Read as the mobilized pages are
+        byte[] bytes = html.toString().getBytes("UTF-8");
+        BoundedHtmlReader reader = new BoundedHtmlReader(new ByteArrayInputStream(bytes), "text/html; charset=UTF-8", bytes.length, bytes.length);
+        String s = ArticleTextExtractor.extractContent(reader, "content indicator is at the very");
+
+        assertThat(s, containsString("The content indicator is at the very bottom"));
+    }
+
+    @Test
+    public void sameResultOnEveryRun() throws Exception {
+        // Two candidates with the same weight, the first one must always win
+        String paragraph = "<p>A paragraph long enough to be counted in the weight of its parent, because it has more than a hundred characters.</p>";
+        String html = "<html><body><div id=\"first\">" + paragraph + paragraph + paragraph + "</div>"
+                + "<div id=\"second\">" + paragraph + paragraph + paragraph + "</div></body></html>";
+
+        for (int i = 0; i < 20; i++) {
+            Document doc = Jsoup.parse(html);
+            assertEquals(doc.getElementById("first").toString(), ArticleTextExtractor.extractContent(doc, null));
+        }
+    }
+
+    @Test
+    public void contentIndicatorWins() throws Exception {
+        String paragraph = "<p>A paragraph long enough to be counted in the weight of its parent, because it has more than a hundred characters.</p>";
+        String html = "<html><body><div id=\"first\">" + paragraph + paragraph + paragraph + "</div>"
+                + "<div id=\"second\">" + paragraph + "<p>The  article <b>we are</b>\nlooking for.</p>" + paragraph + "</div></body></html>";
+
+        Document doc = Jsoup.parse(html);
+        assertEquals(doc.getElementById("second").toString(), ArticleTextExtractor.extractContent(doc, "article we are looking"));
+    }
+
     private void checkArticle(String articleUrl, String titleIndicator, String contentIndicator, int maxLength, int numberOfImgs, String[] excerpts) throws Exception {
 
         URL url = new URL(articleUrl);
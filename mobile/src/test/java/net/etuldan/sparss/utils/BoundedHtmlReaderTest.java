@@ -0,0 +1,120 @@
+package net.etuldan.sparss.utils;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BoundedHtmlReaderTest {
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @Test
+    public void dropsScriptsStylesAndComments() throws Exception {
+        String html = "<html><head><style type=\"text/css\">p > a { color: red; }</style><SCRIPT>if (a < b) document.write('<p>');</SCRIPT >"
+                + "</head><body><!-- <p>comment</p> --><p>Text<scripts>kept</scripts></p><script src=\"a.js\"/><script>x = '-->';</script>"
+                + "<p>End</p></body></html>";
+        String expected = "<html><head></head><body><p>Text<scripts>kept</scripts></p><p>End</p></body></html>";
+
+        assertEquals(expected, read(new BoundedHtmlReader(stream(html, "UTF-8"), null, -1, MAX_BYTES)));
+        // the markers are split between the reads of the stream
+        assertEquals(expected, read(new BoundedHtmlReader(new SlowInputStream(html.getBytes("UTF-8")), null, -1, MAX_BYTES)));
+    }
+
+    @Test
+    public void truncatesAtMaxBytes() throws Exception {
+        String html = "<p>0123456789</p>";
+
+        BoundedHtmlReader reader = new BoundedHtmlReader(stream(html, "UTF-8"), null, -1, 8);
+        assertEquals("<p>01234", read(reader));
+        assertTrue(reader.isTruncated());
+
+        reader = new BoundedHtmlReader(stream(html, "UTF-8"), null, -1, html.length());
+        assertEquals(html, read(reader));
+        assertFalse(reader.isTruncated());
+    }
+
+    @Test
+    public void honorsContentLength() throws Exception {
+        String html = "<p>0123456789</p>";
+
+        // nothing is read after the body, even if the connection has more data
+        BoundedHtmlReader reader = new BoundedHtmlReader(stream(html + "<p>next response</p>", "UTF-8"), null, html.length(), MAX_BYTES);
+        assertEquals(html, read(reader));
+        assertFalse(reader.isTruncated());
+
+        reader = new BoundedHtmlReader(stream(html, "UTF-8"), null, html.length(), 8);
+        assertEquals("<p>01234", read(reader));
+        assertTrue(reader.isTruncated());
+    }
+
+    @Test
+    public void charset() throws Exception {
+        String html = "<html><head><meta charset=\"ISO-8859-1\"></head><body>F\u00eate</body></html>";
+        BoundedHtmlReader reader = new BoundedHtmlReader(stream(html, "ISO-8859-1"), null, -1, MAX_BYTES);
+        assertEquals("iso-8859-1", reader.getCharset());
+        assertEquals(html, read(reader));
+
+        // the header goes before the meta tags
+        reader = new BoundedHtmlReader(stream(html, "UTF-8"), "text/html; charset=\"utf-8\"", -1, MAX_BYTES);
+        assertEquals("utf-8", reader.getCharset());
+        assertEquals(html, read(reader));
+
+        html = "<html><head><meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1252\"></head><body>F\u00eate</body></html>";
+        reader = new BoundedHtmlReader(stream(html, "windows-1252"), "text/html", -1, MAX_BYTES);
+        assertEquals("windows-1252", reader.getCharset());
+        assertEquals(html, read(reader));
+
+        // the BOM goes before everything else
+        reader = new BoundedHtmlReader(stream("\ufeff" + html, "UTF-8"), "text/html; charset=windows-1252", -1, MAX_BYTES);
+        assertEquals("UTF-8", reader.getCharset());
+        assertEquals(html, read(reader));
+
+        reader = new BoundedHtmlReader(stream("<p>F\u00eate</p>", "UTF-8"), null, -1, MAX_BYTES);
+        assertEquals("UTF-8", reader.getCharset());
+        assertEquals("<p>F\u00eate</p>", read(reader));
+    }
+
+    @Test
+    public void metaCharset() {
+        assertEquals("utf-8", BoundedHtmlReader.getMetaCharset("<meta name=\"viewport\"><meta charset=utf-8>"));
+        assertEquals("iso-8859-15", BoundedHtmlReader.getMetaCharset("<meta content='text/html;charset=iso-8859-15' http-equiv='content-type'/>"));
+        assertEquals(null, BoundedHtmlReader.getMetaCharset("<meta charset=\"unknown\"><p>charset=utf-8</p>"));
+        assertEquals(null, BoundedHtmlReader.getMetaCharset("<meta charset=\"utf-8\""));
+    }
+
+    private static InputStream stream(String html, String charset) throws IOException {
+        return new ByteArrayInputStream(html.getBytes(charset));
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[3];
+        int n;
+        while ((n = reader.read(buffer)) != -1) {
+            builder.append(buffer, 0, n);
+        }
+        reader.close();
+        return builder.toString();
+    }
+
+    /**
+     * Gives one byte per read, like a slow connection
+     */
+    private static class SlowInputStream extends ByteArrayInputStream {
+        SlowInputStream(byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package net.etuldan.sparss.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionUtilsTest {
+
+    @Test
+    public void roundTrip() throws Exception {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            html.append("<p>Paragraph ").append(i).append(" of the article, caf\u00e9 \u65e5\u672c</p>");
+        }
+
+        byte[] compressed = CompressionUtils.compress(html.toString());
+        assertTrue(compressed.length < html.toString().getBytes("UTF-8").length / 4);
+        assertEquals(html.toString(), CompressionUtils.decompress(compressed));
+
+        assertEquals("", CompressionUtils.decompress(CompressionUtils.compress("")));
+    }
+
+    @Test
+    public void invalidData() throws Exception {
+        assertNull(CompressionUtils.decompress("<p>not compressed</p>".getBytes("UTF-8")));
+
+        byte[] compressed = CompressionUtils.compress("<p>truncated</p>");
+        assertNull(CompressionUtils.decompress(Arrays.copyOf(compressed, compressed.length / 2)));
+    }
+}
@@ -0,0 +1,100 @@
+package net.etuldan.sparss.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HtmlUtilsTest {
+
+    private static final String BASE_URI = "http://example.com/";
+
+    @Test
+    public void nullContent() {
+        assertNull(HtmlUtils.improveHtmlContent(null, BASE_URI));
+    }
+
+    @Test
+    public void whitelist() {
+        String content = HtmlUtils.improveHtmlContent("<p onclick='x()'>Text <script>alert(1)</script><font color='red'>red</font>"
+                + "<!-- comment --><iframe src='http://example.com/video' style='x'></iframe></p>", BASE_URI);
+
+        assertEquals("<p>Text red<iframe src=\"http://example.com/video\"></iframe></p>", content);
+    }
+
+    @Test
+    public void urls() {
+        String content = HtmlUtils.improveHtmlContent("<a href='page.html'>relative</a> <a href='//cdn.example.com/x'>protocol relative</a>"
+                + " <a href='javascript:alert(1)'>script</a> <video src='//cdn.example.com/video.mp4'></video>", BASE_URI);
+
+        assertThat(content, containsString("<a href=\"http://example.com/page.html\">relative</a>"));
+        assertThat(content, containsString("<a href=\"http://cdn.example.com/x\">protocol relative</a>"));
+        assertThat(content, containsString("<a>script</a>"));
+        assertThat(content, containsString("<video src=\"http://cdn.example.com/video.mp4\"></video>"));
+    }
+
+    @Test
+    public void images() {
+        ArrayList<String> imageUrls = new ArrayList<>();
+        String content = HtmlUtils.improveHtmlContent("<p><img src='a.png'><img height='1' width='1' src='http://tracker.com/pixel.gif'>"
+                + "<img src='http://example.com/thumb.img'><img src='lazy.gif' original-src='http://example.com/b.jpg'>"
+                + "<img src='/c d.jpg?x=1&y=2'><a href='http://example.com/'><img src='http://example.com/b.IMG'></a></p>", BASE_URI, imageUrls);
+
+        assertThat(content, not(containsString("pixel")));
+        assertThat(content, not(containsString("img\"")));
+        assertThat(content, not(containsString("<a")));
+        assertThat(content, containsString("<img src=\"http://example.com/b.jpg\">"));
+        assertEquals(Arrays.asList("http://example.com/a.png", "http://example.com/b.jpg", "http://example.com/c%20d.jpg?x=1&amp;y=2"),
+                imageUrls);
+        assertEquals("http://example.com/a.png", HtmlUtils.getMainImageURL(imageUrls));
+    }
+
+    @Test
+    public void imageManifest() {
+        ArrayList<String> imageUrls = new ArrayList<>();
+        HtmlUtils.improveHtmlContent("<img src='http://example.com/a.png'><img src='/c d.jpg?x=1&y=2'>", BASE_URI, imageUrls);
+
+        assertEquals(imageUrls, HtmlUtils.fromImageManifest(HtmlUtils.toImageManifest(imageUrls)));
+        assertEquals(new ArrayList<String>(), HtmlUtils.fromImageManifest(HtmlUtils.toImageManifest(new ArrayList<String>())));
+    }
+
+    @Test
+    public void replaceImageSources() {
+        HashMap<String, String> sources = new HashMap<>();
+        sources.put("http://example.com/a.png", "file:///a.png");
+        sources.put("http://example.com/c%20d.jpg?x=1&amp;y=2", "file:///c.jpg");
+
+        assertEquals("<p><img src=\"file:///a.png\"><a href=\"http://example.com/a.png\"><img src=\"http://example.com/b.png\"></a>"
+                        + "<img src=\"file:///c.jpg\"></p>",
+                HtmlUtils.replaceImageSources("<p><img src=\"http://example.com/a.png\"><a href=\"http://example.com/a.png\">"
+                        + "<img src=\"http://example.com/b.png\"></a><img src=\"http://example.com/c d.jpg?x=1&amp;y=2\"></p>", sources));
+    }
+
+    @Test
+    public void brs() {
+        assertEquals("Text", HtmlUtils.improveHtmlContent(" <br> <br/>Text", BASE_URI));
+        assertEquals("<p><br>Text</p>", HtmlUtils.improveHtmlContent("<p><br>Text</p>", BASE_URI));
+        assertEquals("A<br><br>B", HtmlUtils.improveHtmlContent("A<br><br><br><br>B", BASE_URI).replace("\n", ""));
+        assertEquals("A<br><br>B<br>C", HtmlUtils.improveHtmlContent("A<br><br> <br><br>B<br>C", BASE_URI).replace("\n", "").replace(" ", ""));
+    }
+
+    @Test
+    public void ads() {
+        assertEquals("<p>Text</p>", HtmlUtils.improveHtmlContent("<p>Text</p><div class='mf-viral'><table border='0'><tr><td>Ad</td></tr>"
+                + "</table></div>", BASE_URI));
+    }
+
+    @Test
+    public void plainText() {
+        assertNull(HtmlUtils.toPlainText(null));
+        assertEquals("Title Some bold text & more", HtmlUtils.toPlainText("<h1>Title</h1><p>Some <b>bo</b>ld<!-- <p>comment</p> -->\n text &amp; more</p>"));
+        assertEquals("a < b", HtmlUtils.toPlainText("a < b"));
+    }
+}